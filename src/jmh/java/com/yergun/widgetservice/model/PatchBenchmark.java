@@ -0,0 +1,59 @@
+package com.yergun.widgetservice.model;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+
+import java.beans.PropertyDescriptor;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link WidgetPatchRequest#applyTo} against the reflective copy of the non null properties patches used to go
+ * through, kept here as the baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PatchBenchmark {
+
+    WidgetPatchRequest patchRequest;
+    Widget widget;
+
+    @Setup
+    public void setup() {
+        patchRequest = new WidgetPatchRequest();
+        patchRequest.setX(42);
+        patchRequest.setZ(7);
+        widget = new Widget(UUID.randomUUID(), 1, 1, 10, 10, 3, LocalDateTime.now());
+    }
+
+    @Benchmark
+    public boolean applyTo() {
+        return patchRequest.applyTo(widget);
+    }
+
+    @Benchmark
+    public Widget copyNonNullProperties() {
+        BeanUtils.copyProperties(patchRequest, widget, nullPropertyNames(patchRequest));
+        return widget;
+    }
+
+    private static String[] nullPropertyNames(Object source) {
+        BeanWrapper wrapper = new BeanWrapperImpl(source);
+        Set<String> names = new HashSet<>();
+        for (PropertyDescriptor descriptor : wrapper.getPropertyDescriptors()) {
+            if (wrapper.getPropertyValue(descriptor.getName()) == null) {
+                names.add(descriptor.getName());
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,28 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * In memory repositories by their `application.repository.type`, for benchmarks comparing all of them
+ */
+final class BenchmarkRepositories {
+
+    private BenchmarkRepositories() {
+    }
+
+    static WidgetRepository create(String type, RepositoryProperties properties) {
+        switch (type) {
+            case "memory":
+                return new WidgetRepositoryInMemory(properties, new SimpleMeterRegistry());
+            case "lazy-shift":
+                return new WidgetRepositoryLazyShift(properties, new SimpleMeterRegistry());
+            case "snapshot":
+                return new WidgetRepositorySnapshot(properties, new SimpleMeterRegistry());
+            case "columnar":
+                return new WidgetRepositoryColumnar(properties, new SimpleMeterRegistry());
+            default:
+                throw new IllegalArgumentException("Unknown repository type: " + type);
+        }
+    }
+}
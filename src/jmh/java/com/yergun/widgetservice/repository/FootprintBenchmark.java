@@ -0,0 +1,77 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.model.Widget;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap kept by a full board and what it costs the collector, {@link WidgetRepositoryInMemory} against
+ * {@link WidgetRepositoryColumnar}. The score is the time to fill the board, the counters are the heap retained
+ * after a full collection, collector time spent while filling, and how long a full collection takes with the board
+ * alive, the counters add up over the measured iterations. 10M memory widgets need more than the default heap,
+ * raise it with -jvmArgsAppend -Xmx12g.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class FootprintBenchmark {
+
+    private static final double MB = 1024 * 1024;
+
+    @Param({"1000000", "10000000"})
+    int size;
+
+    @Param({"memory", "columnar"})
+    String repository;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public double retainedMb;
+        public double fillGcMillis;
+        public double fullGcMillis;
+    }
+
+    @Benchmark
+    public WidgetRepository fill(Footprint footprint) {
+        long before = usedAfterFullGc();
+        long gcBefore = gcMillis();
+        WidgetRepository widgets = "columnar".equals(repository)
+                ? new WidgetRepositoryColumnar(new RepositoryProperties(), new SimpleMeterRegistry())
+                : new WidgetRepositoryInMemory(new RepositoryProperties(), new SimpleMeterRegistry());
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            widgets.save(new Widget(UUID.randomUUID(), random.nextInt(100_000), random.nextInt(100_000),
+                    1 + random.nextInt(100), 1 + random.nextInt(100), i, LocalDateTime.now()));
+        }
+        footprint.fillGcMillis = gcMillis() - gcBefore;
+        long start = System.nanoTime();
+        long after = usedAfterFullGc();
+        footprint.fullGcMillis = (System.nanoTime() - start) / 1e6;
+        footprint.retainedMb = (after - before) / MB;
+        return widgets;
+    }
+
+    private static long usedAfterFullGc() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+                .sum();
+    }
+}
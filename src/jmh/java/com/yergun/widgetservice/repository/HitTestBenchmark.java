@@ -0,0 +1,68 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.model.Point;
+import com.yergun.widgetservice.model.Widget;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Topmost widget at a random point of a board through the spatial grid of {@link WidgetRepositoryInMemory},
+ * next to testing every widget the way clients used to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HitTestBenchmark {
+
+    private static final int BOARD = 100_000;
+
+    @Param({"100000", "1000000"})
+    int size;
+
+    WidgetRepositoryInMemory repository;
+    List<Widget> baseline;
+
+    @Setup
+    public void setup() {
+        repository = new WidgetRepositoryInMemory(new RepositoryProperties(), new SimpleMeterRegistry());
+        baseline = new ArrayList<>(size);
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            Widget widget = new Widget(UUID.randomUUID(), random.nextInt(BOARD), random.nextInt(BOARD),
+                    1 + random.nextInt(300), 1 + random.nextInt(300), i, LocalDateTime.now());
+            repository.save(widget);
+            baseline.add(widget);
+        }
+    }
+
+    @Benchmark
+    public List<Widget> findTopmostAt() {
+        return repository.findTopmostAt(List.of(randomPoint()));
+    }
+
+    @Benchmark
+    public Widget findTopmostAtLinearScan() {
+        Point point = randomPoint();
+        return baseline.stream()
+                .filter(widget -> widget.contains(point))
+                .max(Comparator.comparing(Widget::getZ))
+                .orElse(null);
+    }
+
+    private static Point randomPoint() {
+        return new Point(ThreadLocalRandom.current().nextInt(BOARD), ThreadLocalRandom.current().nextInt(BOARD));
+    }
+}
@@ -0,0 +1,112 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.model.Point;
+import com.yergun.widgetservice.model.Region;
+import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetPatchRequest;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests of every kind hitting one repository at once, roughly the mix of a busy board:
+ * lookups by id, pages, region queries and hit tests next to a creating and a moving writer.
+ * The score of each method is its own throughput while all of them run.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MixedWorkloadBenchmark {
+
+    private static final int BOARD = 10_000;
+
+    @Param({"memory", "lazy-shift", "snapshot", "columnar"})
+    String repositoryType;
+
+    @Param({"100000"})
+    int size;
+
+    WidgetRepository repository;
+    List<UUID> ids;
+
+    @Setup
+    public void setup() {
+        repository = BenchmarkRepositories.create(repositoryType, new RepositoryProperties());
+        ids = new ArrayList<>(size);
+        List<Widget> widgets = new ArrayList<>(size);
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            UUID id = UUID.randomUUID();
+            widgets.add(new Widget(id, random.nextInt(BOARD), random.nextInt(BOARD),
+                    1 + random.nextInt(100), 1 + random.nextInt(100), i, LocalDateTime.now()));
+            ids.add(id);
+        }
+        repository.saveAll(widgets);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public Optional<Widget> findById() {
+        return repository.findById(ids.get(ThreadLocalRandom.current().nextInt(size)));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Page<Widget> findByOrderByZAsc() {
+        return repository.findByOrderByZAsc(PageRequest.of(ThreadLocalRandom.current().nextInt(size / 10), 10));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Page<Widget> findInRegion() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int x = random.nextInt(BOARD);
+        int y = random.nextInt(BOARD);
+        return repository.findInRegion(new Region(x, y, x + 100, y + 100), PageRequest.of(0, 10));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public List<Widget> findTopmostAt() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return repository.findTopmostAt(List.of(new Point(random.nextInt(BOARD), random.nextInt(BOARD))));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Widget saveAndDelete() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Widget saved = repository.save(new Widget(UUID.randomUUID(), random.nextInt(BOARD), random.nextInt(BOARD),
+                10, 10, random.nextInt(size), LocalDateTime.now()));
+        repository.deleteById(saved.getId());
+        return saved;
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Widget update() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        WidgetPatchRequest patchRequest = new WidgetPatchRequest();
+        patchRequest.setZ(random.nextInt(size));
+        return repository.update(ids.get(random.nextInt(size)), patchRequest);
+    }
+}
@@ -0,0 +1,70 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.model.Widget;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import java.time.LocalDateTime;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * First page against deep page of {@link WidgetRepositoryInMemory#findByOrderByZAsc(Pageable)},
+ * next to the skip/limit walk over a sorted collection it used to do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PagingBenchmark {
+
+    private static final int PAGE_SIZE = 10;
+
+    @Param({"100000", "1000000"})
+    int size;
+
+    @Param({"first", "middle", "last"})
+    String page;
+
+    WidgetRepositoryInMemory repository;
+    NavigableMap<Integer, Widget> baseline;
+    Pageable pageable;
+
+    @Setup
+    public void setup() {
+        repository = new WidgetRepositoryInMemory(new RepositoryProperties(), new SimpleMeterRegistry());
+        baseline = new TreeMap<>();
+        for (int i = 0; i < size; i++) {
+            Widget widget = new Widget(UUID.randomUUID(), 10, 10, 10, 10, i, LocalDateTime.now());
+            repository.save(widget);
+            baseline.put(i, widget);
+        }
+
+        int lastPage = size / PAGE_SIZE - 1;
+        int pageNumber = "first".equals(page) ? 0 : "middle".equals(page) ? lastPage / 2 : lastPage;
+        pageable = PageRequest.of(pageNumber, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Page<Widget> findByOrderByZAsc() {
+        return repository.findByOrderByZAsc(pageable);
+    }
+
+    @Benchmark
+    public Page<Widget> findByOrderByZAscSkipScan() {
+        return new PageImpl<>(baseline.values().stream()
+                .skip(pageable.getOffset())
+                .limit(pageable.getPageSize())
+                .collect(Collectors.toList()), pageable, baseline.size());
+    }
+}
@@ -0,0 +1,68 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.model.Widget;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restart time of the durable {@link WidgetRepositoryInMemory}, replaying a write ahead log of one save per widget
+ * against loading a snapshot of the same widgets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class RecoveryBenchmark {
+
+    @Param({"1000000"})
+    int size;
+
+    @Param({"wal", "snapshot"})
+    String recoverFrom;
+
+    Path directory;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("widgets-recovery");
+        WidgetRepositoryInMemory repository = new WidgetRepositoryInMemory(properties(), new SimpleMeterRegistry());
+        for (int i = 0; i < size; i++) {
+            repository.save(new Widget(UUID.randomUUID(), i, i, 10, 10, i, LocalDateTime.now()));
+        }
+        if ("snapshot".equals(recoverFrom)) {
+            repository.snapshot();
+        }
+        repository.destroy();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public WidgetRepositoryInMemory recover() {
+        WidgetRepositoryInMemory repository = new WidgetRepositoryInMemory(properties(), new SimpleMeterRegistry());
+        repository.destroy();
+        return repository;
+    }
+
+    private RepositoryProperties properties() {
+        RepositoryProperties properties = new RepositoryProperties();
+        properties.setWalDirectory(directory.toString());
+        properties.setWalSync(WalSync.NONE);
+        properties.setWalSnapshotBytes(Long.MAX_VALUE);
+        return properties;
+    }
+}
@@ -0,0 +1,94 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetPatchRequest;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single threaded hot paths of every in memory repository on a board of consecutive z.
+ * A save collides and is deleted again in the same operation so the board keeps its size,
+ * an update either moves the widget or changes its bounds only.
+ * Saves and moves go to the z of a random stored widget, read by id as part of the operation: a deleted save leaves
+ * a gap and shifts the rest up, so a random z out of the initial range would collide less and less.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryBenchmark {
+
+    private static final int PAGE_SIZE = 10;
+
+    @Param({"memory", "lazy-shift", "snapshot", "columnar"})
+    String repositoryType;
+
+    @Param({"100000"})
+    int size;
+
+    WidgetRepository repository;
+    List<UUID> ids;
+
+    @Setup
+    public void setup() {
+        repository = BenchmarkRepositories.create(repositoryType, new RepositoryProperties());
+        ids = new ArrayList<>(size);
+        List<Widget> widgets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            UUID id = UUID.randomUUID();
+            widgets.add(new Widget(id, i, i, 10, 10, i, LocalDateTime.now()));
+            ids.add(id);
+        }
+        repository.saveAll(widgets);
+    }
+
+    @Benchmark
+    public Widget saveWithCollision() {
+        Widget saved = repository.save(new Widget(UUID.randomUUID(), 1, 1, 10, 10, takenZ(), LocalDateTime.now()));
+        repository.deleteById(saved.getId());
+        return saved;
+    }
+
+    @Benchmark
+    public Widget updateZ() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        WidgetPatchRequest patchRequest = new WidgetPatchRequest();
+        patchRequest.setZ(takenZ());
+        return repository.update(ids.get(random.nextInt(size)), patchRequest);
+    }
+
+    @Benchmark
+    public Widget updateBounds() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        WidgetPatchRequest patchRequest = new WidgetPatchRequest();
+        patchRequest.setX(random.nextInt(size));
+        patchRequest.setWidth(1 + random.nextInt(100));
+        return repository.update(ids.get(random.nextInt(size)), patchRequest);
+    }
+
+    @Benchmark
+    public Optional<Widget> findById() {
+        return repository.findById(ids.get(ThreadLocalRandom.current().nextInt(size)));
+    }
+
+    @Benchmark
+    public Page<Widget> findByOrderByZAscDeepPage() {
+        return repository.findByOrderByZAsc(PageRequest.of(size / PAGE_SIZE - 1, PAGE_SIZE));
+    }
+
+    private int takenZ() {
+        return repository.findById(ids.get(ThreadLocalRandom.current().nextInt(size))).get().getZ();
+    }
+}
@@ -0,0 +1,50 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.model.Widget;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write throughput of {@link WidgetRepositoryInMemory} with 16 threads saving at random z, every thread taking
+ * the fair write lock against all of them going through the single writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class SingleWriterBenchmark {
+
+    @Param({"false", "true"})
+    boolean singleWriter;
+
+    WidgetRepositoryInMemory repository;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        RepositoryProperties properties = new RepositoryProperties();
+        properties.setCollisionPolicy(CollisionPolicy.SHIFT_UNTIL_GAP);
+        properties.setSingleWriter(singleWriter);
+        properties.setWriteQueueCapacity(64);
+        repository = new WidgetRepositoryInMemory(properties, new SimpleMeterRegistry());
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        repository.destroy();
+    }
+
+    @Benchmark
+    public Widget save() {
+        return repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1,
+                ThreadLocalRandom.current().nextInt(1_000_000), LocalDateTime.now()));
+    }
+}
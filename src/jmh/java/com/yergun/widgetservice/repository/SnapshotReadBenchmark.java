@@ -0,0 +1,116 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetPatchRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read throughput of {@link WidgetRepositoryInMemory} behind its read write lock against the lock free
+ * {@link WidgetRepositorySnapshot}, with 1, 4 and 16 reader threads next to a single writer moving widgets around.
+ * Widgets start at even z so most moves land in a gap.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotReadBenchmark {
+
+    @Param({"memory", "snapshot"})
+    String repositoryType;
+
+    @Param({"100000"})
+    int size;
+
+    WidgetRepository repository;
+    List<UUID> ids;
+
+    @Setup
+    public void setup() {
+        RepositoryProperties properties = new RepositoryProperties();
+        properties.setCollisionPolicy(CollisionPolicy.SHIFT_UNTIL_GAP);
+        repository = "snapshot".equals(repositoryType)
+                ? new WidgetRepositorySnapshot(properties, new SimpleMeterRegistry())
+                : new WidgetRepositoryInMemory(properties, new SimpleMeterRegistry());
+        ids = new ArrayList<>(size);
+        List<Widget> widgets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            UUID id = UUID.randomUUID();
+            widgets.add(new Widget(id, i, i, 10, 10, i * 2, LocalDateTime.now()));
+            ids.add(id);
+        }
+        repository.saveAll(widgets);
+    }
+
+    @Benchmark
+    @Group("reads1")
+    @GroupThreads(1)
+    public Object read1() {
+        return read();
+    }
+
+    @Benchmark
+    @Group("reads1")
+    @GroupThreads(1)
+    public Widget write1() {
+        return write();
+    }
+
+    @Benchmark
+    @Group("reads4")
+    @GroupThreads(4)
+    public Object read4() {
+        return read();
+    }
+
+    @Benchmark
+    @Group("reads4")
+    @GroupThreads(1)
+    public Widget write4() {
+        return write();
+    }
+
+    @Benchmark
+    @Group("reads16")
+    @GroupThreads(16)
+    public Object read16() {
+        return read();
+    }
+
+    @Benchmark
+    @Group("reads16")
+    @GroupThreads(1)
+    public Widget write16() {
+        return write();
+    }
+
+    private Object read() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (random.nextInt(3)) {
+            case 0:
+                return repository.findById(ids.get(random.nextInt(size)));
+            case 1:
+                return repository.findByOrderByZAsc(PageRequest.of(random.nextInt(size / 10), 10));
+            default:
+                return repository.findFirstByOrderByZDesc();
+        }
+    }
+
+    private Widget write() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        WidgetPatchRequest patchRequest = new WidgetPatchRequest();
+        patchRequest.setZ(random.nextInt(size * 2));
+        return repository.update(ids.get(random.nextInt(size)), patchRequest);
+    }
+}
@@ -0,0 +1,70 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.model.Widget;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Save throughput of {@link WidgetRepositoryInMemory} holding a million widgets with 8 writing threads,
+ * without a write ahead log and with each of the {@link WalSync} modes.
+ * Widgets start at even z so most saves land in a gap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class WalWriteBenchmark {
+
+    @Param({"1000000"})
+    int size;
+
+    @Param({"off", "NONE", "GROUP", "EVERY_WRITE"})
+    String walSync;
+
+    Path directory;
+    WidgetRepositoryInMemory repository;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("widgets-wal");
+        RepositoryProperties properties = new RepositoryProperties();
+        properties.setCollisionPolicy(CollisionPolicy.SHIFT_UNTIL_GAP);
+        if (!"off".equals(walSync)) {
+            properties.setWalDirectory(directory.toString());
+            properties.setWalSync(WalSync.valueOf(walSync));
+        }
+        repository = new WidgetRepositoryInMemory(properties, new SimpleMeterRegistry());
+        List<Widget> widgets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            widgets.add(new Widget(UUID.randomUUID(), i, i, 10, 10, i * 2, LocalDateTime.now()));
+        }
+        repository.saveAll(widgets);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        repository.destroy();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public Widget save() {
+        return repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1,
+                ThreadLocalRandom.current().nextInt(size * 2), LocalDateTime.now()));
+    }
+}
@@ -0,0 +1,57 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.model.Widget;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * z collision lookups of {@link WidgetRepositoryInMemory} against the linear scan it used to do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZLookupBenchmark {
+
+    @Param({"100000", "1000000"})
+    int size;
+
+    WidgetRepositoryInMemory repository;
+    // same widgets in a plain sorted map, scanned the way the repository used to
+    NavigableMap<Integer, Widget> baseline;
+
+    @Setup
+    public void setup() {
+        repository = new WidgetRepositoryInMemory(new RepositoryProperties(), new SimpleMeterRegistry());
+        baseline = new TreeMap<>();
+        for (int i = 0; i < size; i++) {
+            Widget widget = new Widget(UUID.randomUUID(), 10, 10, 10, 10, i, LocalDateTime.now());
+            repository.save(widget);
+            baseline.put(i, widget);
+        }
+    }
+
+    @Benchmark
+    public Optional<Widget> findFirstByZ() {
+        return repository.findFirstByZ(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    @Benchmark
+    public Optional<Widget> findFirstByZLinearScan() {
+        Integer z = ThreadLocalRandom.current().nextInt(size);
+        return baseline.values().stream()
+                .filter(w -> w.getZ().equals(z))
+                .findFirst();
+    }
+}
@@ -0,0 +1,106 @@
+package com.yergun.widgetservice.service;
+
+import com.yergun.widgetservice.WidgetServiceApplication;
+import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetPatchRequest;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The database repository through {@link WidgetService} and its transactions, on embedded H2 so the numbers
+ * do not depend on a database server. A create collides and is deleted again so the table keeps its size, an update
+ * either moves the widget or changes its bounds only. Creates and moves go to the z of a random stored widget, read
+ * by id as part of the operation, as a deleted create leaves a gap and a random z would collide less and less.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WidgetServiceJpaBenchmark {
+
+    private static final int PAGE_SIZE = 10;
+
+    @Param({"10000"})
+    int size;
+
+    ConfigurableApplicationContext context;
+    WidgetService service;
+    List<UUID> ids;
+
+    @Setup
+    public void setup() {
+        // command line arguments, so they win over the application.yml of the test classpath
+        context = new SpringApplicationBuilder(WidgetServiceApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--application.repository.type=db",
+                        "--spring.datasource.url=jdbc:h2:mem:widgets;DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=warn");
+        String repositoryType = context.getEnvironment().getProperty("application.repository.type");
+        if (!"db".equals(repositoryType)) {
+            throw new IllegalStateException("Not the database repository but " + repositoryType);
+        }
+        service = context.getBean(WidgetService.class);
+        List<Widget> widgets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            widgets.add(Widget.builder().x(i).y(i).width(10).height(10).z(i).build());
+        }
+        ids = service.createAll(widgets).stream().map(Widget::getId).collect(Collectors.toList());
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Widget createWithCollision() {
+        Widget created = service.create(Widget.builder().x(1).y(1).width(10).height(10).z(takenZ()).build());
+        service.deleteById(created.getId());
+        return created;
+    }
+
+    @Benchmark
+    public Widget updateZ() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        WidgetPatchRequest patchRequest = new WidgetPatchRequest();
+        patchRequest.setZ(takenZ());
+        return service.update(ids.get(random.nextInt(size)), patchRequest);
+    }
+
+    @Benchmark
+    public Widget updateBounds() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        WidgetPatchRequest patchRequest = new WidgetPatchRequest();
+        patchRequest.setX(random.nextInt(size));
+        patchRequest.setWidth(1 + random.nextInt(100));
+        return service.update(ids.get(random.nextInt(size)), patchRequest);
+    }
+
+    @Benchmark
+    public Widget findById() {
+        return service.findById(ids.get(ThreadLocalRandom.current().nextInt(size)));
+    }
+
+    @Benchmark
+    public Page<Widget> findAllDeepPage() {
+        return service.findAll(size / PAGE_SIZE - 1, PAGE_SIZE);
+    }
+
+    private int takenZ() {
+        return service.findById(ids.get(ThreadLocalRandom.current().nextInt(size))).getZ();
+    }
+}
@@ -1,9 +1,12 @@
 package com.yergun.widgetservice;
 
+import com.yergun.widgetservice.config.RepositoryProperties;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 
 @SpringBootApplication
+@EnableConfigurationProperties(RepositoryProperties.class)
 public class WidgetServiceApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,36 @@
+package com.yergun.widgetservice.config;
+
+import com.yergun.widgetservice.repository.CollisionPolicy;
+import com.yergun.widgetservice.repository.WalSync;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "application.repository")
+public class RepositoryProperties {
+    private String type;
+    private CollisionPolicy collisionPolicy = CollisionPolicy.SHIFT_ALL;
+    // side of a cell of the spatial grid kept by the in memory repositories
+    private int gridCellSize = 100;
+    // memory repository only, writes are queued to one writer thread instead of contending on the write lock
+    private boolean singleWriter = false;
+    // writes the single writer keeps waiting before rejecting new ones with 503
+    private int writeQueueCapacity = 1024;
+    // memory repository only, directory of the write ahead log and snapshots, nothing is persisted when not set
+    private String walDirectory;
+    private WalSync walSync = WalSync.GROUP;
+    // size in bytes the write ahead log grows to before every widget is written to a snapshot and a new log starts
+    private long walSnapshotBytes = 64L * 1024 * 1024;
+    // in memory repositories, time spent waiting for and holding their locks, a few clock reads per acquisition
+    private boolean lockMetrics = true;
+    // db repository only, widgets kept by id in front of the database, no cache when 0
+    private long cacheMaximumSize = 0;
+    // how long a cached widget may be served before it is read from the database again
+    private Duration cacheExpireAfterWrite = Duration.ofSeconds(30);
+    // hybrid repository only, how often the widgets changed in memory are written to the database
+    private Duration writeBehindInterval = Duration.ofMillis(200);
+    // changed widgets not written yet above which writers flush them before writing
+    private int writeBehindMaxPending = 10_000;
+}
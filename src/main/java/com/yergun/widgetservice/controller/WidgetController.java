@@ -1,23 +1,47 @@
 package com.yergun.widgetservice.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.yergun.widgetservice.model.Point;
+import com.yergun.widgetservice.model.Region;
 import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetBatchPatchRequest;
+import com.yergun.widgetservice.model.WidgetCursorPage;
 import com.yergun.widgetservice.model.WidgetPatchRequest;
+import com.yergun.widgetservice.model.WidgetSlice;
 import com.yergun.widgetservice.service.WidgetService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.http.HttpStatus;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.ConstraintViolationException;
 import javax.validation.Valid;
 import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Size;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
 import java.util.UUID;
 
 @RequiredArgsConstructor
+@Validated
 @RestController
 @RequestMapping("/widgets")
 public class WidgetController {
 
+    static final int MAX_BATCH_SIZE = 10_000;
+    static final String NDJSON = "application/x-ndjson";
+
     private final WidgetService widgetService;
+    private final ObjectMapper objectMapper;
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
@@ -25,12 +49,91 @@ public class WidgetController {
         return widgetService.create(widget);
     }
 
-    @GetMapping
+    @PostMapping(path = "/batch")
+    @ResponseStatus(HttpStatus.CREATED)
+    public List<Widget> createAll(@RequestBody @NotEmpty @Size(max = MAX_BATCH_SIZE) List<@Valid Widget> widgets) {
+        return widgetService.createAll(widgets);
+    }
+
+    // a region is given whole or not at all, only some of its corners match no mapping and fail with 400
+    @GetMapping(params = {"!x1", "!y1", "!x2", "!y2"})
     public Page<Widget> findAll(@RequestParam(defaultValue = "0") int page,
                                 @RequestParam(defaultValue = "10") @Max(value = 500) int size) {
         return widgetService.findAll(page, size);
     }
 
+    /**
+     * Pages without counting every widget, `total=none` leaves the total out and `total=approximate` estimates it,
+     * `total=exact` is the same as leaving it out of the request. With a `limit` the request goes to findAfter
+     */
+    @GetMapping(params = {"total", "total!=exact", "!limit", "!x1", "!y1", "!x2", "!y2"})
+    public WidgetSlice findSlice(@RequestParam(defaultValue = "0") int page,
+                                 @RequestParam(defaultValue = "10") @Max(value = 500) int size,
+                                 @RequestParam @Pattern(regexp = "none|approximate") String total) {
+        return widgetService.findSlice(page, size, total.equals("approximate"));
+    }
+
+    // `total=none` goes to findSliceInRegion, any other total than `exact` fails with 400
+    @GetMapping(params = {"x1", "y1", "x2", "y2"})
+    public Page<Widget> findInRegion(@Valid Region region,
+                                     @RequestParam(defaultValue = "0") int page,
+                                     @RequestParam(defaultValue = "10") @Max(value = 500) int size,
+                                     @RequestParam(required = false) @Pattern(regexp = "exact") String total) {
+        return widgetService.findInRegion(region, page, size);
+    }
+
+    /**
+     * Regions only page without a total or with the exact one, there is no estimate of how many widgets one holds
+     */
+    @GetMapping(params = {"x1", "y1", "x2", "y2", "total=none"})
+    public WidgetSlice findSliceInRegion(@Valid Region region,
+                                         @RequestParam(defaultValue = "0") int page,
+                                         @RequestParam(defaultValue = "10") @Max(value = 500) int size) {
+        return widgetService.findSliceInRegion(region, page, size);
+    }
+
+    /**
+     * Keyset pages by z, cheap at any depth. The cursor names the last z seen, not the widget: a widget created or
+     * moved at or below it shifts the ones above up by one, so the next page repeats the widget at the cursor.
+     * These pages never carry a total, `total=none` is accepted and any other total fails with 400
+     */
+    @GetMapping(params = {"limit", "!x1", "!y1", "!x2", "!y2"})
+    public WidgetCursorPage findAfter(@RequestParam(required = false) String cursor,
+                                      @RequestParam @Min(value = 1) @Max(value = 500) int limit,
+                                      @RequestParam(required = false) @Pattern(regexp = "none") String total) {
+        return widgetService.findAfter(cursor, limit);
+    }
+
+    /**
+     * Every widget in z order as newline delimited JSON, written as it is read
+     */
+    @GetMapping(path = "/stream", produces = NDJSON)
+    public void stream(HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON);
+        ObjectWriter writer = objectMapper.writerFor(Widget.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            widgetService.forEachInZOrder(widget -> {
+                try {
+                    writer.writeValue(generator, widget);
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    @GetMapping(path = "/at")
+    public Widget findTopmostAt(@Valid Point point) {
+        return widgetService.findTopmostAt(point);
+    }
+
+    @PostMapping(path = "/at/batch")
+    public List<Widget> findTopmostAt(@RequestBody @NotEmpty @Size(max = MAX_BATCH_SIZE) List<@Valid Point> points) {
+        return widgetService.findTopmostAt(points);
+    }
+
     @GetMapping(path = "/{id}")
     public Widget find(@PathVariable UUID id) {
         return widgetService.findById(id);
@@ -47,4 +150,16 @@ public class WidgetController {
         return widgetService.update(id, widgetPatchRequest);
     }
 
+    @PatchMapping(path = "/batch")
+    public List<Widget> updateAll(@RequestBody @NotEmpty @Size(max = MAX_BATCH_SIZE)
+                                          List<@Valid WidgetBatchPatchRequest> patchRequests) {
+        return widgetService.updateAll(patchRequests);
+    }
+
+    // method level constraints, e.g. on the elements of a batch, fail outside of the request body binding
+    @ExceptionHandler(ConstraintViolationException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public void onConstraintViolation() {
+    }
+
 }
@@ -0,0 +1,13 @@
+package com.yergun.widgetservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code = HttpStatus.CONFLICT, reason = "Widgets moved during the export!")
+public class ExportInterruptedException extends RuntimeException{
+
+    public ExportInterruptedException() {
+        super("A write moved widgets between two chunks of the export");
+    }
+
+}
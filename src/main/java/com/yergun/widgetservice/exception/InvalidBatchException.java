@@ -0,0 +1,13 @@
+package com.yergun.widgetservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code = HttpStatus.BAD_REQUEST, reason = "Invalid batch!")
+public class InvalidBatchException extends RuntimeException{
+
+    public InvalidBatchException(String message) {
+        super(message);
+    }
+
+}
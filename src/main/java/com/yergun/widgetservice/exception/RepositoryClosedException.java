@@ -0,0 +1,17 @@
+package com.yergun.widgetservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code = HttpStatus.SERVICE_UNAVAILABLE, reason = "Shutting down!")
+public class RepositoryClosedException extends RuntimeException{
+
+    public RepositoryClosedException() {
+        super("Repository is closed");
+    }
+
+    public RepositoryClosedException(Throwable cause) {
+        super("Repository is closed after a write could not be logged", cause);
+    }
+
+}
@@ -1,5 +1,6 @@
 package com.yergun.widgetservice.exception;
 
+import com.yergun.widgetservice.model.Point;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
@@ -12,4 +13,8 @@ public class WidgetNotFoundException extends RuntimeException{
         super("Widget not found by id:[" + id + "]");
     }
 
+    public WidgetNotFoundException(Point point) {
+        super("Widget not found at:[" + point.getX() + ", " + point.getY() + "]");
+    }
+
 }
@@ -0,0 +1,13 @@
+package com.yergun.widgetservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code = HttpStatus.SERVICE_UNAVAILABLE, reason = "Too many pending writes!")
+public class WriteQueueFullException extends RuntimeException{
+
+    public WriteQueueFullException() {
+        super("Write queue is full");
+    }
+
+}
@@ -0,0 +1,13 @@
+package com.yergun.widgetservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code = HttpStatus.BAD_REQUEST, reason = "Z index out of range!")
+public class ZIndexOutOfRangeException extends RuntimeException{
+
+    public ZIndexOutOfRangeException(int z) {
+        super("Shifting widgets up from z:[" + z + "] leaves the range of z indexes");
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.yergun.widgetservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotNull;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class Point {
+    @NotNull
+    private Integer x;
+    @NotNull
+    private Integer y;
+}
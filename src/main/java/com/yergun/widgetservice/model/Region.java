@@ -0,0 +1,30 @@
+package com.yergun.widgetservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Closed rectangle from (x1, y1) to (x2, y2)
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class Region {
+    @NotNull
+    private Integer x1;
+    @NotNull
+    private Integer y1;
+    @NotNull
+    private Integer x2;
+    @NotNull
+    private Integer y2;
+
+    @AssertTrue(message = "x1 and y1 must not be greater than x2 and y2")
+    public boolean isOrdered() {
+        return x1 == null || x2 == null || y1 == null || y2 == null || (x1 <= x2 && y1 <= y2);
+    }
+}
@@ -12,8 +12,9 @@ import java.util.UUID;
 @AllArgsConstructor
 @NoArgsConstructor
 @Data
-@Builder
+@Builder(toBuilder = true)
 @EqualsAndHashCode(of = "id")
+// the table, its unique z and its indexes come from the migrations in db/migration
 @Entity
 public class Widget {
 
@@ -35,4 +36,25 @@ public class Widget {
         this.z++;
     }
 
+    /**
+     * bounds are closed, touching the region is enough, a missing width or height counts as zero.
+     * The far edges are longs, a widget may reach past the int range
+     */
+    public boolean intersects(Region region) {
+        return x <= region.getX2() && (long) x + extent(width) >= region.getX1()
+                && y <= region.getY2() && (long) y + extent(height) >= region.getY1();
+    }
+
+    /**
+     * bounds are closed, a point on the edge is inside
+     */
+    public boolean contains(Point point) {
+        return x <= point.getX() && (long) x + extent(width) >= point.getX()
+                && y <= point.getY() && (long) y + extent(height) >= point.getY();
+    }
+
+    private static int extent(Integer size) {
+        return size == null ? 0 : size;
+    }
+
 }
@@ -0,0 +1,22 @@
+package com.yergun.widgetservice.model;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotNull;
+import java.util.UUID;
+
+@NoArgsConstructor
+@Data
+@EqualsAndHashCode(callSuper = true)
+public class WidgetBatchPatchRequest extends WidgetPatchRequest {
+    @NotNull
+    private UUID id;
+
+    public WidgetBatchPatchRequest(UUID id, WidgetPatchRequest patchRequest) {
+        super(patchRequest.getX(), patchRequest.getY(), patchRequest.getWidth(), patchRequest.getHeight(),
+                patchRequest.getZ());
+        this.id = id;
+    }
+}
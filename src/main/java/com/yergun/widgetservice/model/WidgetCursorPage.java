@@ -0,0 +1,16 @@
+package com.yergun.widgetservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class WidgetCursorPage {
+    private List<Widget> content;
+    // null when there is nothing after this page
+    private String nextCursor;
+}
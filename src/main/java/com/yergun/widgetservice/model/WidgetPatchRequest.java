@@ -13,4 +13,35 @@ public class WidgetPatchRequest {
     private Integer width;
     private Integer height;
     private Integer z;
+
+    /**
+     * copies the fields that are set onto the widget, leaving the rest as it is
+     * @return true if the widget moved to another z
+     */
+    public boolean applyTo(Widget widget) {
+        boolean movesZ = movesZ(widget);
+        if (x != null) {
+            widget.setX(x);
+        }
+        if (y != null) {
+            widget.setY(y);
+        }
+        if (width != null) {
+            widget.setWidth(width);
+        }
+        if (height != null) {
+            widget.setHeight(height);
+        }
+        if (z != null) {
+            widget.setZ(z);
+        }
+        return movesZ;
+    }
+
+    /**
+     * @return true if applying the patch moves the widget to another z, so it has to be placed again
+     */
+    public boolean movesZ(Widget widget) {
+        return z != null && !z.equals(widget.getZ());
+    }
 }
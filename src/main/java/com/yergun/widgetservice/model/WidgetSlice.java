@@ -0,0 +1,19 @@
+package com.yergun.widgetservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class WidgetSlice {
+    private List<Widget> content;
+    private int page;
+    private int size;
+    private boolean hasNext;
+    // estimate of how many widgets there are in total, null unless asked for
+    private Long approximateTotal;
+}
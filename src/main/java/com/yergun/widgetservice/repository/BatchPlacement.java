@@ -0,0 +1,143 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Widget;
+import lombok.Value;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Places a batch of widgets at their requested z in a single merge pass against the stored widgets.
+ * The result is the same as inserting the widgets one at a time from the highest requested z down,
+ * so every requested z refers to the stored widgets as they were before the batch, and widgets asking
+ * for the same z end up stacked in reverse request order.
+ * Stored widgets are never loaded here, only their z are looked up through {@link StoredZ}.
+ */
+final class BatchPlacement {
+
+    private BatchPlacement() {
+    }
+
+    /**
+     * z lookups against the stored widgets, excluding the ones being placed
+     */
+    interface StoredZ {
+        /**
+         * @return the given z indexes that are taken
+         */
+        Set<Integer> occupied(Collection<Integer> zs);
+
+        /**
+         * @return lowest taken z greater than or equal to the given one, null if there is none
+         */
+        Integer ceiling(int z);
+
+        /**
+         * @param z taken z
+         * @return highest z of the run of taken z indexes starting at the given one
+         */
+        int endOfRun(int z);
+    }
+
+    /**
+     * stored widgets with z between from and to, both inclusive, move up by the given amount
+     */
+    @Value
+    static class Shift {
+        int from;
+        int to;
+        int by;
+    }
+
+    /**
+     * O(k log k) plus one {@link StoredZ#occupied} call for shift all,
+     * or a lookup per pushed run of stored widgets for shift until gap
+     * @param batch widgets with a requested z, their z is replaced by the one they are placed at
+     * @return shifts of the stored widgets in z order, not overlapping
+     */
+    static List<Shift> place(List<Widget> batch, CollisionPolicy collisionPolicy, StoredZ storedZ) {
+        if (batch.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Widget> sorted = sort(batch);
+        return collisionPolicy == CollisionPolicy.SHIFT_UNTIL_GAP
+                ? placeUntilGap(sorted, storedZ)
+                : placeShiftingAll(sorted, storedZ);
+    }
+
+    /**
+     * every widget taking a z that is already taken, by a stored widget or by another widget of the batch,
+     * moves everything at and above that z up by one
+     */
+    private static List<Shift> placeShiftingAll(List<Widget> sorted, StoredZ storedZ) {
+        Set<Integer> occupied = storedZ.occupied(sorted.stream().map(Widget::getZ).collect(Collectors.toSet()));
+        List<Shift> shifts = new ArrayList<>();
+        int by = 0;
+        int from = 0;
+        for (int i = 0, j; i < sorted.size(); i = j) {
+            int z = sorted.get(i).getZ();
+            j = i;
+            while (j < sorted.size() && sorted.get(j).getZ() == z) {
+                j++;
+            }
+            for (int k = i; k < j; k++) {
+                sorted.get(k).setZ(z + by + k - i);
+            }
+            int collisions = j - i - 1 + (occupied.contains(z) ? 1 : 0);
+            if (collisions > 0) {
+                if (by > 0) {
+                    shifts.add(new Shift(from, z - 1, by));
+                }
+                by += collisions;
+                from = z;
+            }
+        }
+        if (by > 0) {
+            shifts.add(new Shift(from, Integer.MAX_VALUE, by));
+        }
+        return shifts;
+    }
+
+    /**
+     * widgets and stored widgets are walked in z order, each one taking its z or the z right above
+     * the previous one, whichever is higher, so a push stops at the first gap wide enough to absorb it
+     */
+    private static List<Shift> placeUntilGap(List<Widget> sorted, StoredZ storedZ) {
+        List<Shift> shifts = new ArrayList<>();
+        // lowest z not taken by what has been walked so far
+        long next = Long.MIN_VALUE;
+        Integer stored = storedZ.ceiling(sorted.get(0).getZ());
+        int i = 0;
+        while (i < sorted.size() || (stored != null && stored < next)) {
+            if (i < sorted.size() && (stored == null || sorted.get(i).getZ() <= stored)) {
+                Widget widget = sorted.get(i++);
+                widget.setZ((int) Math.max(widget.getZ(), next));
+                next = widget.getZ() + 1L;
+            } else if (stored < next) {
+                // the whole run moves by the same amount, unless a widget of the batch cuts into it
+                int end = storedZ.endOfRun(stored);
+                if (i < sorted.size()) {
+                    end = Math.min(end, sorted.get(i).getZ() - 1);
+                }
+                int by = (int) (next - stored);
+                shifts.add(new Shift(stored, end, by));
+                next = (long) end + by + 1;
+                stored = end == Integer.MAX_VALUE ? null : storedZ.ceiling(end + 1);
+            } else {
+                // nothing is pushed up to the next requested z
+                stored = storedZ.ceiling(sorted.get(i).getZ());
+            }
+        }
+        return shifts;
+    }
+
+    /**
+     * by requested z, the widget requested last first among the ones asking for the same z
+     */
+    private static List<Widget> sort(List<Widget> batch) {
+        List<Widget> sorted = new ArrayList<>(batch);
+        Collections.reverse(sorted);
+        sorted.sort(Comparator.comparing(Widget::getZ));
+        return sorted;
+    }
+}
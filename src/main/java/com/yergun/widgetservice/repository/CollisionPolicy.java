@@ -0,0 +1,15 @@
+package com.yergun.widgetservice.repository;
+
+/**
+ * Which widgets move up by one when a widget takes an occupied z
+ */
+public enum CollisionPolicy {
+    /**
+     * every widget with z greater than or equal to the taken one
+     */
+    SHIFT_ALL,
+    /**
+     * only the contiguous run of occupied z indexes starting at the taken one, stopping at the first gap
+     */
+    SHIFT_UNTIL_GAP
+}
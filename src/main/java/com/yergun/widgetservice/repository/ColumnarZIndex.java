@@ -0,0 +1,243 @@
+package com.yergun.widgetservice.repository;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+
+/**
+ * Slots of {@link WidgetColumns} in z order, kept in blocks of at most {@value #BLOCK_SIZE} slots, so an insert or
+ * remove moves at most one block and an int array per widget is all the index costs. Blocks are found by a binary
+ * search on their lowest z, offsets by adding up block sizes.
+ * Shifts change z in the columns in place, they never reorder slots.
+ *
+ * Not thread safe, writes need exclusive access.
+ */
+final class ColumnarZIndex implements BatchPlacement.StoredZ {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private final WidgetColumns columns;
+    private int[][] blocks = {new int[BLOCK_SIZE]};
+    private int[] sizes = new int[1];
+    private int blockCount = 1;
+    private int size;
+
+    ColumnarZIndex(WidgetColumns columns) {
+        this.columns = columns;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param slot stored in the columns, its z must not be taken
+     */
+    void insert(int slot) {
+        int z = columns.z(slot);
+        int block = blockOf(z);
+        int index = indexIn(block, z);
+        if (sizes[block] == BLOCK_SIZE) {
+            // appending in z order leaves full blocks behind instead of half empty ones
+            int moved = index == BLOCK_SIZE ? 0 : BLOCK_SIZE / 2;
+            split(block, moved);
+            if (index >= BLOCK_SIZE - moved) {
+                index -= BLOCK_SIZE - moved;
+                block++;
+            }
+        }
+        System.arraycopy(blocks[block], index, blocks[block], index + 1, sizes[block] - index);
+        blocks[block][index] = slot;
+        sizes[block]++;
+        size++;
+    }
+
+    /**
+     * @return slot removed, -1 if no slot has the given z
+     */
+    int remove(int z) {
+        int block = blockOf(z);
+        int index = indexIn(block, z);
+        if (index == sizes[block] || columns.z(blocks[block][index]) != z) {
+            return -1;
+        }
+        int slot = blocks[block][index];
+        System.arraycopy(blocks[block], index + 1, blocks[block], index, sizes[block] - index - 1);
+        sizes[block]--;
+        size--;
+        if (sizes[block] == 0 && blockCount > 1) {
+            System.arraycopy(blocks, block + 1, blocks, block, blockCount - block - 1);
+            System.arraycopy(sizes, block + 1, sizes, block, blockCount - block - 1);
+            blocks[--blockCount] = null;
+        }
+        return slot;
+    }
+
+    /**
+     * @return slot with the given z, -1 if there is none
+     */
+    int get(int z) {
+        int block = blockOf(z);
+        int index = indexIn(block, z);
+        return index < sizes[block] && columns.z(blocks[block][index]) == z ? blocks[block][index] : -1;
+    }
+
+    /**
+     * @return slot with the highest z, -1 if there is none
+     */
+    int last() {
+        return size == 0 ? -1 : blocks[blockCount - 1][sizes[blockCount - 1] - 1];
+    }
+
+    /**
+     * visits slots in z order starting at the given rank, until the visitor returns false
+     */
+    void walkFromRank(long rank, IntPredicate visitor) {
+        int block = 0;
+        while (block < blockCount && rank >= sizes[block]) {
+            rank -= sizes[block++];
+        }
+        walk(block, (int) rank, visitor);
+    }
+
+    /**
+     * visits slots in z order starting at the given z, until the visitor returns false
+     */
+    void walkFrom(int z, boolean inclusive, IntPredicate visitor) {
+        if (!inclusive) {
+            if (z == Integer.MAX_VALUE) {
+                return;
+            }
+            z++;
+        }
+        int block = blockOf(z);
+        walk(block, indexIn(block, z), visitor);
+    }
+
+    /**
+     * @return the highest z slot the predicate accepts, -1 if there is none
+     */
+    int findLast(IntPredicate predicate) {
+        for (int block = blockCount - 1; block >= 0; block--) {
+            int[] slots = blocks[block];
+            for (int i = sizes[block] - 1; i >= 0; i--) {
+                if (predicate.test(slots[i])) {
+                    return slots[i];
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * moves every slot with z between from and to, both inclusive, up by the given amount
+     * @return number of slots shifted
+     */
+    int shift(int from, int to, int by, LocalDateTime at) {
+        int[] shifted = {0};
+        walkFrom(from, true, slot -> {
+            if (columns.z(slot) > to) {
+                return false;
+            }
+            columns.shift(slot, by, at);
+            shifted[0]++;
+            return true;
+        });
+        return shifted[0];
+    }
+
+    @Override
+    public Set<Integer> occupied(Collection<Integer> zs) {
+        return zs.stream().filter(z -> get(z) != -1).collect(Collectors.toSet());
+    }
+
+    @Override
+    public Integer ceiling(int z) {
+        Integer[] ceiling = {null};
+        walkFrom(z, true, slot -> {
+            ceiling[0] = columns.z(slot);
+            return false;
+        });
+        return ceiling[0];
+    }
+
+    @Override
+    public int endOfRun(int z) {
+        int[] end = {z};
+        walkFrom(z, false, slot -> {
+            if (columns.z(slot) != end[0] + 1) {
+                return false;
+            }
+            end[0]++;
+            return true;
+        });
+        return end[0];
+    }
+
+    private void walk(int block, int index, IntPredicate visitor) {
+        for (; block < blockCount; block++, index = 0) {
+            int[] slots = blocks[block];
+            for (int i = index; i < sizes[block]; i++) {
+                if (!visitor.test(slots[i])) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the last block starting at or below the given z, the first block if there is none
+     */
+    private int blockOf(int z) {
+        int low = 1;
+        int high = blockCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (columns.z(blocks[middle][0]) <= z) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * @return index of the first slot in the block with z greater than or equal to the given one
+     */
+    private int indexIn(int block, int z) {
+        int[] slots = blocks[block];
+        int low = 0;
+        int high = sizes[block] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (columns.z(slots[middle]) < z) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * moves the given number of the highest slots of a full block into a new block right after it
+     */
+    private void split(int block, int moved) {
+        if (blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blockCount * 2);
+            sizes = Arrays.copyOf(sizes, blockCount * 2);
+        }
+        System.arraycopy(blocks, block + 1, blocks, block + 2, blockCount - block - 1);
+        System.arraycopy(sizes, block + 1, sizes, block + 2, blockCount - block - 1);
+        int[] upper = new int[BLOCK_SIZE];
+        System.arraycopy(blocks[block], BLOCK_SIZE - moved, upper, 0, moved);
+        blocks[block + 1] = upper;
+        sizes[block + 1] = moved;
+        sizes[block] = BLOCK_SIZE - moved;
+        blockCount++;
+    }
+}
@@ -1,11 +1,79 @@
 package com.yergun.widgetservice.repository;
 
+import com.yergun.widgetservice.model.Point;
+import com.yergun.widgetservice.model.Region;
 import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetBatchPatchRequest;
 import com.yergun.widgetservice.model.WidgetPatchRequest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 public interface CustomizedWidgetRepository {
+    Optional<Widget> findById(UUID id);
+    Optional<Widget> findFirstByOrderByZDesc();
+
+    /**
+     * @throws com.yergun.widgetservice.exception.WidgetNotFoundException if there is no such widget
+     */
+    void deleteById(UUID id);
+    void delete(Widget widget);
     Widget update(UUID id, WidgetPatchRequest patchRequest);
+
+    /**
+     * Applies all patches at once, every patched widget leaves its z before any of them is placed again,
+     * the way {@link #saveAll(List)} places new widgets
+     * @param patchRequests one per widget
+     * @return the updated widgets in the given order
+     * @throws com.yergun.widgetservice.exception.WidgetNotFoundException if any of the widgets is missing,
+     * nothing is changed then
+     */
+    List<Widget> updateAll(List<WidgetBatchPatchRequest> patchRequests);
     Widget save(Widget widget);
+
+    /**
+     * Saves the widgets reconciling all their z collisions in one pass,
+     * as if they were saved one at a time from the highest requested z down
+     * @param widgets with ids and z set
+     * @return the saved widgets in the given order
+     */
+    List<Widget> saveAll(List<Widget> widgets);
+
+    /**
+     * Keyset page in z order, no count involved
+     * @param afterZ exclusive lower bound, null to start from the bottom
+     * @param limit max widgets to return
+     */
+    List<Widget> findAfterZ(Integer afterZ, int limit);
+
+    /**
+     * Every widget in z order, read while the stream is consumed instead of loaded upfront.
+     * Must be closed, and for the database consumed in the transaction it was opened in
+     */
+    Stream<Widget> streamByOrderByZAsc();
+
+    /**
+     * Widgets intersecting the region, in z order
+     */
+    Page<Widget> findInRegion(Region region, Pageable pageable);
+
+    /**
+     * {@link #findInRegion} without counting the widgets in the region
+     */
+    Slice<Widget> findSliceInRegion(Region region, Pageable pageable);
+
+    /**
+     * @return how many widgets there are, cheaper than counting them and possibly off by what changed lately
+     */
+    long approximateCount();
+
+    /**
+     * @return for every point the widget with the highest z containing it, null where there is none
+     */
+    List<Widget> findTopmostAt(List<Point> points);
 }
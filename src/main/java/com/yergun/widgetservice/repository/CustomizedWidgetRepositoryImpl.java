@@ -1,10 +1,25 @@
 package com.yergun.widgetservice.repository;
 
+import com.yergun.widgetservice.config.RepositoryProperties;
 import com.yergun.widgetservice.exception.WidgetNotFoundException;
+import com.yergun.widgetservice.exception.ZIndexOutOfRangeException;
+import com.yergun.widgetservice.model.Point;
+import com.yergun.widgetservice.model.Region;
 import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetBatchPatchRequest;
 import com.yergun.widgetservice.model.WidgetPatchRequest;
-import com.yergun.widgetservice.util.ObjectUtils;
-import org.springframework.beans.BeanUtils;
+import com.yergun.widgetservice.util.PageUtils;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
@@ -12,15 +27,33 @@ import javax.persistence.PersistenceContext;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Component
 public class CustomizedWidgetRepositoryImpl implements CustomizedWidgetRepository {
 
+    private static final int IN_CHUNK = 1000;
+    private static final int STREAM_FETCH_SIZE = 500;
+    // far edges are summed as bigint, a widget may reach past the int range
+    private static final String IN_REGION =
+            "WHERE w.x >= :fromX AND w.x <= :x2 AND cast(w.x as long) + coalesce(w.width, 0) >= :x1 " +
+                    "AND w.y <= :y2 AND cast(w.y as long) + coalesce(w.height, 0) >= :y1";
+
     @PersistenceContext
     private EntityManager entityManager;
 
+    private final CollisionPolicy collisionPolicy;
+    private final DistributionSummary shiftedWidgets;
+    private final WidgetCache cache;
+
+    public CustomizedWidgetRepositoryImpl(RepositoryProperties properties, MeterRegistry meterRegistry) {
+        this.collisionPolicy = properties.getCollisionPolicy();
+        this.shiftedWidgets = RepositoryMetrics.shiftedWidgets(meterRegistry, collisionPolicy);
+        this.cache = WidgetCache.create(properties, meterRegistry);
+    }
+
     @Override
     public Widget update(UUID id, WidgetPatchRequest patchRequest) {
 
@@ -28,9 +61,14 @@ public class CustomizedWidgetRepositoryImpl implements CustomizedWidgetRepositor
         if(widget == null) {
             throw new WidgetNotFoundException(id);
         }
+        cache.evict(id);
 
-        this.moveIfZIndexCollision(patchRequest.getZ());
-        BeanUtils.copyProperties(patchRequest, widget, ObjectUtils.getNullPropertyNames(patchRequest));
+        // a widget keeping its z collides with nobody but itself
+        if (patchRequest.movesZ(widget) && this.moveIfZIndexCollision(patchRequest.getZ())) {
+            // the shift cleared the persistence context, the widget may have been shifted too
+            widget = entityManager.find(Widget.class, id);
+        }
+        patchRequest.applyTo(widget);
         widget.setLastUpdated(LocalDateTime.now());
         entityManager.persist(widget);
         return widget;
@@ -38,29 +76,394 @@ public class CustomizedWidgetRepositoryImpl implements CustomizedWidgetRepositor
 
     @Override
     public Widget save(Widget widget) {
+        cache.evict(widget.getId());
         this.moveIfZIndexCollision(widget.getZ());
         entityManager.persist(widget);
         return widget;
     }
 
-    private void moveIfZIndexCollision(Integer z) {
+    @Override
+    public List<Widget> saveAll(List<Widget> widgets) {
+        widgets.forEach(widget -> cache.evict(widget.getId()));
+        lockZ();
+        List<BatchPlacement.Shift> shifts = BatchPlacement.place(widgets, collisionPolicy, new DatabaseStoredZ());
+        shiftedWidgets.record(shifts.isEmpty() ? 0 : applyShifts(shifts));
+        // inserts go out in jdbc batches at flush
+        widgets.forEach(entityManager::persist);
+        return widgets;
+    }
+
+    /**
+     * One select for all the widgets, the patched ones give up their z with a single update so they are out of
+     * the way of the placement, and are written back detached so their updates go out in jdbc batches at flush
+     */
+    @Override
+    public List<Widget> updateAll(List<WidgetBatchPatchRequest> patchRequests) {
+        List<UUID> ids = patchRequests.stream().map(WidgetBatchPatchRequest::getId).collect(Collectors.toList());
+        ids.forEach(cache::evict);
+        Map<UUID, Widget> found = new HashMap<>();
+        for (List<UUID> chunk : chunks(ids)) {
+            entityManager.createQuery("Select w FROM Widget w WHERE w.id IN :ids", Widget.class)
+                    .setParameter("ids", chunk)
+                    .getResultStream()
+                    .forEach(widget -> found.put(widget.getId(), widget));
+        }
+
+        List<Widget> widgets = new ArrayList<>(patchRequests.size());
+        for (WidgetBatchPatchRequest patchRequest : patchRequests) {
+            widgets.add(Optional.ofNullable(found.get(patchRequest.getId()))
+                    .orElseThrow(() -> new WidgetNotFoundException(patchRequest.getId())));
+        }
+
+        lockZ();
+        entityManager.flush();
+        for (List<UUID> chunk : chunks(ids)) {
+            entityManager.createQuery("Update Widget w SET w.z = null WHERE w.id IN :ids")
+                    .setParameter("ids", chunk)
+                    .executeUpdate();
+        }
+        // detached, so patching them does not trigger a flush before the placement queries
+        entityManager.clear();
+
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < widgets.size(); i++) {
+            patchRequests.get(i).applyTo(widgets.get(i));
+            widgets.get(i).setLastUpdated(now);
+        }
+
+        List<BatchPlacement.Shift> shifts = BatchPlacement.place(widgets, collisionPolicy, new DatabaseStoredZ());
+        shiftedWidgets.record(shifts.isEmpty() ? 0 : applyShifts(shifts));
+        Session session = entityManager.unwrap(Session.class);
+        widgets.forEach(session::update);
+        return widgets;
+    }
+
+    @Override
+    public Optional<Widget> findById(UUID id) {
+        return cache.findById(id, key -> entityManager.find(Widget.class, key));
+    }
+
+    @Override
+    public Optional<Widget> findFirstByOrderByZDesc() {
+        // max is a lookup at the end of the z index, a descending sort is not one for every database
+        return cache.findTop(() -> entityManager
+                .createQuery("Select w FROM Widget w WHERE w.z = (Select max(t.z) FROM Widget t)", Widget.class)
+                .getResultList()
+                .stream()
+                .findFirst());
+    }
+
+    @Override
+    public void deleteById(UUID id) {
+        Widget widget = entityManager.find(Widget.class, id);
+        if (widget == null) {
+            throw new WidgetNotFoundException(id);
+        }
+        cache.evict(id);
+        entityManager.remove(widget);
+    }
+
+    @Override
+    public void delete(Widget widget) {
+        Widget stored = entityManager.find(Widget.class, widget.getId());
+        if (stored != null) {
+            cache.evict(widget.getId());
+            entityManager.remove(stored);
+        }
+    }
+
+    @Override
+    public List<Widget> findAfterZ(Integer afterZ, int limit) {
+        TypedQuery<Widget> query = afterZ == null
+                ? entityManager.createQuery("Select w FROM Widget w ORDER BY w.z", Widget.class)
+                : entityManager.createQuery("Select w FROM Widget w WHERE w.z > :z ORDER BY w.z", Widget.class)
+                        .setParameter("z", afterZ);
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    /**
+     * One forward only cursor over the z index, a Hibernate ScrollableResults fetching
+     * {@value #STREAM_FETCH_SIZE} rows per round trip. Every widget is detached once read,
+     * so the persistence context does not grow with the stream.
+     */
+    @Override
+    public Stream<Widget> streamByOrderByZAsc() {
+        Session session = entityManager.unwrap(Session.class);
+        return session.createQuery("Select w FROM Widget w ORDER BY w.z", Widget.class)
+                .setFetchSize(STREAM_FETCH_SIZE)
+                .setReadOnly(true)
+                .setCacheMode(CacheMode.IGNORE)
+                .stream()
+                .map(widget -> {
+                    session.detach(widget);
+                    return widget;
+                });
+    }
+
+    /**
+     * The widest widget bounds how far left of the region a widget may start,
+     * so both the count and the select are range scans on the x index
+     */
+    @Override
+    public Page<Widget> findInRegion(Region region, Pageable pageable) {
+        Integer widest = widest();
+        if (widest == null) {
+            return Page.empty(pageable);
+        }
+        long total = withRegion(entityManager.createQuery("Select count(w) FROM Widget w " + IN_REGION, Long.class),
+                region, widest)
+                .getSingleResult();
+        List<Widget> widgets = inRegion(region, widest, pageable, pageable.getPageSize());
+        return new PageImpl<>(widgets, pageable, total);
+    }
+
+    /**
+     * The select of {@link #findInRegion} alone, one widget past the page tells if there is a next one
+     */
+    @Override
+    public Slice<Widget> findSliceInRegion(Region region, Pageable pageable) {
+        Integer widest = widest();
+        if (widest == null) {
+            return new SliceImpl<>(List.of(), pageable, false);
+        }
+        return PageUtils.slice(inRegion(region, widest, pageable, pageable.getPageSize() + 1), pageable);
+    }
+
+    /**
+     * PostgreSQL keeps an estimate of the rows of every table, refreshed by autovacuum and analyze, reading it costs
+     * one catalog lookup. Other databases, and tables never analyzed, get their widgets counted.
+     */
+    @Override
+    public long approximateCount() {
+        if (entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class)
+                .getJdbcServices().getDialect() instanceof PostgreSQL81Dialect) {
+            Number estimate = (Number) entityManager
+                    .createNativeQuery("SELECT reltuples FROM pg_class WHERE oid = CAST('widget' AS regclass)")
+                    .getSingleResult();
+            if (estimate.longValue() > 0) {
+                return estimate.longValue();
+            }
+        }
+        return entityManager.createQuery("Select count(w) FROM Widget w", Long.class).getSingleResult();
+    }
+
+    /**
+     * One range scan on the x index per point, bounded by the widest widget like {@link #findInRegion}
+     */
+    @Override
+    public List<Widget> findTopmostAt(List<Point> points) {
+        Integer widest = widest();
+        List<Widget> widgets = new ArrayList<>(points.size());
+        for (Point point : points) {
+            widgets.add(widest == null ? null : entityManager
+                    .createQuery("Select w FROM Widget w " +
+                            "WHERE w.x >= :fromX AND w.x <= :x AND cast(w.x as long) + coalesce(w.width, 0) >= :x " +
+                            "AND w.y <= :y AND cast(w.y as long) + coalesce(w.height, 0) >= :y ORDER BY w.z DESC",
+                            Widget.class)
+                    .setParameter("fromX", leftOf(point.getX(), widest))
+                    .setParameter("x", point.getX())
+                    .setParameter("y", point.getY())
+                    .setMaxResults(1)
+                    .getResultStream()
+                    .findFirst()
+                    .orElse(null));
+        }
+        return widgets;
+    }
+
+    private Integer widest() {
+        return entityManager
+                .createQuery("Select max(w.width) FROM Widget w", Integer.class)
+                .getSingleResult();
+    }
+
+    /**
+     * lowest x a widget reaching the given one may start at, cut at {@link Integer#MIN_VALUE}
+     */
+    private static int leftOf(int x, int widest) {
+        return (int) Math.max((long) x - widest, Integer.MIN_VALUE);
+    }
+
+    private List<Widget> inRegion(Region region, int widest, Pageable pageable, int limit) {
+        return withRegion(entityManager.createQuery("Select w FROM Widget w " + IN_REGION + " ORDER BY w.z",
+                Widget.class), region, widest)
+                .setFirstResult((int) pageable.getOffset())
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    private static <T> TypedQuery<T> withRegion(TypedQuery<T> query, Region region, int widest) {
+        return query
+                .setParameter("fromX", leftOf(region.getX1(), widest))
+                .setParameter("x1", (long) region.getX1())
+                .setParameter("x2", region.getX2())
+                .setParameter("y1", (long) region.getY1())
+                .setParameter("y2", region.getY2());
+    }
+
+    /**
+     * @param z to be taken
+     * @return true if widgets were shifted, in which case the persistence context has been cleared
+     */
+    private boolean moveIfZIndexCollision(Integer z) {
+        lockZ();
+        boolean collides = !entityManager
+                .createQuery("Select w.id FROM Widget w WHERE w.z = :z", UUID.class)
+                .setParameter("z", z)
+                .setMaxResults(1)
+                .getResultList()
+                .isEmpty();
+        shiftedWidgets.record(collides ? incrementGreaterZs(z) : 0);
+        return collides;
+    }
+
+    /**
+     * Blocks until no other transaction places a z, and holds the lock until this one completes. Without it a
+     * widget committed above the top read here lands in the range a shift parks, or two inserts pass the collision
+     * check for the same z, and either trips `widget_z_key`.
+     */
+    private void lockZ() {
+        entityManager.createNativeQuery("SELECT id FROM widget_z_lock WHERE id = 1 FOR UPDATE").getSingleResult();
+    }
+
+    /**
+     * Set based shift, the range is first parked above the current top and then moved back down
+     * so no two rows share a z at any point of either statement, whatever order the database updates rows in.
+     * Only the parked range is moved back, it is the shifted widgets whatever was committed meanwhile.
+     * The parked range reaches up to 2 * top - z + 1, a write for which that leaves the int range is rejected.
+     * Bulk updates bypass the persistence context, so it is flushed before and cleared after.
+     * @param z lowest z to be incremented
+     * @return number of widgets shifted
+     */
+    private int incrementGreaterZs(Integer z) {
+        int top = entityManager
+                .createQuery("Select max(w.z) FROM Widget w", Integer.class)
+                .getSingleResult();
+        int end = collisionPolicy == CollisionPolicy.SHIFT_UNTIL_GAP ? endOfRun(z) : top;
+        int offset = parkingOffset(top, (long) top - z + 2, z);
+
+        entityManager.flush();
+        int shifted = entityManager
+                .createQuery("Update Widget w SET w.z = w.z + :offset, w.lastUpdated = :now " +
+                        "WHERE w.z >= :z AND w.z <= :end")
+                .setParameter("offset", offset)
+                .setParameter("now", LocalDateTime.now())
+                .setParameter("z", z)
+                .setParameter("end", end)
+                .executeUpdate();
         entityManager
-                .createQuery("Select w FROM Widget w WHERE w.z = :z", Widget.class)
+                .createQuery("Update Widget w SET w.z = w.z - :offset WHERE w.z >= :from AND w.z <= :to")
+                .setParameter("offset", offset - 1)
+                .setParameter("from", z + offset)
+                .setParameter("to", end + offset)
+                .executeUpdate();
+        entityManager.clear();
+        cache.evictAll();
+        return shifted;
+    }
+
+    /**
+     * Same parking as {@link #incrementGreaterZs(Integer)}, every range is parked above both the current top
+     * and the top after the shifts before being moved down to its place, two statements per range.
+     * @param shifts not overlapping, in z order
+     * @return number of widgets shifted
+     */
+    private int applyShifts(List<BatchPlacement.Shift> shifts) {
+        int top = entityManager
+                .createQuery("Select max(w.z) FROM Widget w", Integer.class)
+                .getSingleResult();
+        int highestBy = shifts.stream().mapToInt(BatchPlacement.Shift::getBy).max().getAsInt();
+        int offset = parkingOffset(top, (long) top - shifts.get(0).getFrom() + highestBy + 1,
+                shifts.get(0).getFrom());
+        LocalDateTime now = LocalDateTime.now();
+
+        entityManager.flush();
+        int shifted = 0;
+        for (BatchPlacement.Shift shift : shifts) {
+            shifted += entityManager
+                    .createQuery("Update Widget w SET w.z = w.z + :offset, w.lastUpdated = :now " +
+                            "WHERE w.z >= :from AND w.z <= :to")
+                    .setParameter("offset", offset)
+                    .setParameter("now", now)
+                    .setParameter("from", shift.getFrom())
+                    .setParameter("to", Math.min(shift.getTo(), top))
+                    .executeUpdate();
+        }
+        for (BatchPlacement.Shift shift : shifts) {
+            entityManager
+                    .createQuery("Update Widget w SET w.z = w.z - :offset WHERE w.z >= :from AND w.z <= :to")
+                    .setParameter("offset", offset - shift.getBy())
+                    .setParameter("from", shift.getFrom() + offset)
+                    .setParameter("to", Math.min(shift.getTo(), top) + offset)
+                    .executeUpdate();
+        }
+        entityManager.clear();
+        cache.evictAll();
+        return shifted;
+    }
+
+    /**
+     * @param offset how far above the top the lowest shifted widget is parked
+     * @param z      lowest z shifted
+     * @throws ZIndexOutOfRangeException when the parked widgets would not fit into an int
+     */
+    private static int parkingOffset(int top, long offset, int z) {
+        if (top + offset > Integer.MAX_VALUE) {
+            throw new ZIndexOutOfRangeException(z);
+        }
+        return (int) offset;
+    }
+
+    /**
+     * @param z occupied z
+     * @return highest z of the contiguous run of occupied z indexes starting at the given one
+     */
+    private int endOfRun(Integer z) {
+        return entityManager
+                .createQuery("Select w.z FROM Widget w WHERE w.z >= :z " +
+                        "AND NOT EXISTS (Select n.id FROM Widget n WHERE n.z = w.z + 1) ORDER BY w.z", Integer.class)
                 .setParameter("z", z)
-                .getResultStream()
-                .findFirst()
-                .ifPresent( w -> incrementGreaterZs(w.getZ()));
+                .setMaxResults(1)
+                .getSingleResult();
+    }
+
+    /**
+     * keeps the number of bind parameters of a single IN query well below what databases accept
+     */
+    private static <T> List<List<T>> chunks(Collection<T> values) {
+        List<T> all = new ArrayList<>(values);
+        List<List<T>> chunks = new ArrayList<>();
+        for (int i = 0; i < all.size(); i += IN_CHUNK) {
+            chunks.add(all.subList(i, Math.min(i + IN_CHUNK, all.size())));
+        }
+        return chunks;
     }
 
-    private void incrementGreaterZs(Integer z) {
-        List<Widget> widgets = entityManager
-                .createQuery("Select w FROM Widget w WHERE w.z >= :z", Widget.class)
-                .setParameter("z", z).getResultList();
+    private class DatabaseStoredZ implements BatchPlacement.StoredZ {
 
-        widgets.forEach(w -> {
-                    w.incrementZ();
-                    w.setLastUpdated(LocalDateTime.now());
-                    entityManager.persist(w);
-                });
+        @Override
+        public Set<Integer> occupied(Collection<Integer> zs) {
+            Set<Integer> occupied = new HashSet<>();
+            for (List<Integer> chunk : chunks(zs)) {
+                occupied.addAll(entityManager
+                        .createQuery("Select w.z FROM Widget w WHERE w.z IN :zs", Integer.class)
+                        .setParameter("zs", chunk)
+                        .getResultList());
+            }
+            return occupied;
+        }
+
+        @Override
+        public Integer ceiling(int z) {
+            return entityManager
+                    .createQuery("Select min(w.z) FROM Widget w WHERE w.z >= :z", Integer.class)
+                    .setParameter("z", z)
+                    .getSingleResult();
+        }
+
+        @Override
+        public int endOfRun(int z) {
+            return CustomizedWidgetRepositoryImpl.this.endOfRun(z);
+        }
     }
 }
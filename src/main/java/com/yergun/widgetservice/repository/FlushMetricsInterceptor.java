@@ -0,0 +1,55 @@
+package com.yergun.widgetservice.repository;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long Hibernate flushes take and how many entities each one has to dirty check, a shift that loads
+ * the widgets above a collision shows up here as a flush over all of them. Registered for the whole session
+ * factory, so it is shared by every session and keeps its start times per thread.
+ */
+@Component
+class FlushMetricsInterceptor extends EmptyInterceptor implements HibernatePropertiesCustomizer {
+
+    private final transient DistributionSummary flushedEntities;
+    private final transient Timer flush;
+    private final transient ThreadLocal<Long> flushStart = new ThreadLocal<>();
+
+    FlushMetricsInterceptor(MeterRegistry meterRegistry) {
+        this.flushedEntities = RepositoryMetrics.flushedEntities(meterRegistry);
+        this.flush = RepositoryMetrics.flush(meterRegistry);
+    }
+
+    @Override
+    public void customize(Map<String, Object> hibernateProperties) {
+        hibernateProperties.put(AvailableSettings.INTERCEPTOR, this);
+    }
+
+    @Override
+    public void preFlush(Iterator entities) {
+        int count = 0;
+        for (; entities.hasNext(); entities.next()) {
+            count++;
+        }
+        flushedEntities.record(count);
+        flushStart.set(System.nanoTime());
+    }
+
+    @Override
+    public void postFlush(Iterator entities) {
+        Long start = flushStart.get();
+        if (start != null) {
+            flush.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            flushStart.remove();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Region;
+import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.util.PageUtils;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.repository.NoRepositoryBean;
+
+/**
+ * What the in memory repositories share, built on the reads each of them implements
+ */
+@NoRepositoryBean
+interface InMemoryWidgetRepository extends WidgetRepository {
+
+    /**
+     * counting is free in memory, the slice is the page without its total
+     */
+    @Override
+    default Slice<Widget> findSliceByOrderByZAsc(Pageable pageable) {
+        return PageUtils.slice(findByOrderByZAsc(pageable));
+    }
+
+    @Override
+    default Slice<Widget> findSliceInRegion(Region region, Pageable pageable) {
+        return PageUtils.slice(findInRegion(region, pageable));
+    }
+
+    /**
+     * exact, the total of a one widget page is the size of the store it was read from
+     */
+    @Override
+    default long approximateCount() {
+        return findByOrderByZAsc(PageRequest.of(0, 1)).getTotalElements();
+    }
+}
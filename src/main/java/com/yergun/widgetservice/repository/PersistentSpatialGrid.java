@@ -0,0 +1,110 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Widget;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Immutable counterpart of {@link SpatialGrid} holding widget ids, built on {@link PersistentTreap}
+ * so a write copies only the paths to the cells the widget touches.
+ */
+final class PersistentSpatialGrid {
+
+    private static final class Cell {
+        private final long key;
+        private final PersistentTreap<UUID, UUID> ids;
+
+        private Cell(long key, PersistentTreap<UUID, UUID> ids) {
+            this.key = key;
+            this.ids = ids;
+        }
+    }
+
+    private static final PersistentTreap<UUID, UUID> NO_IDS =
+            PersistentTreap.empty(Function.<UUID>identity(), Comparator.naturalOrder());
+
+    private final int cellSize;
+    private final PersistentTreap<Long, Cell> cells;
+    private final PersistentTreap<UUID, UUID> oversized;
+
+    private PersistentSpatialGrid(int cellSize, PersistentTreap<Long, Cell> cells,
+                                  PersistentTreap<UUID, UUID> oversized) {
+        this.cellSize = cellSize;
+        this.cells = cells;
+        this.oversized = oversized;
+    }
+
+    static PersistentSpatialGrid empty(int cellSize) {
+        return new PersistentSpatialGrid(cellSize,
+                PersistentTreap.empty(cell -> cell.key, Comparator.naturalOrder()), NO_IDS);
+    }
+
+    PersistentSpatialGrid add(Widget widget) {
+        int[] range = SpatialGrid.cellRange(widget, cellSize);
+        if (range == null) {
+            return new PersistentSpatialGrid(cellSize, cells, oversized.put(widget.getId()));
+        }
+        PersistentTreap<Long, Cell> result = cells;
+        for (int column = range[0]; column <= range[2]; column++) {
+            for (int row = range[1]; row <= range[3]; row++) {
+                long key = SpatialGrid.key(column, row);
+                Cell cell = result.get(key);
+                result = result.put(new Cell(key, (cell == null ? NO_IDS : cell.ids).put(widget.getId())));
+            }
+        }
+        return new PersistentSpatialGrid(cellSize, result, oversized);
+    }
+
+    /**
+     * @param widget with the bounds it was added with
+     */
+    PersistentSpatialGrid remove(Widget widget) {
+        int[] range = SpatialGrid.cellRange(widget, cellSize);
+        if (range == null) {
+            return new PersistentSpatialGrid(cellSize, cells, oversized.remove(widget.getId()));
+        }
+        PersistentTreap<Long, Cell> result = cells;
+        for (int column = range[0]; column <= range[2]; column++) {
+            for (int row = range[1]; row <= range[3]; row++) {
+                long key = SpatialGrid.key(column, row);
+                PersistentTreap<UUID, UUID> ids = result.get(key).ids.remove(widget.getId());
+                result = ids.size() == 0 ? result.remove(key) : result.put(new Cell(key, ids));
+            }
+        }
+        return new PersistentSpatialGrid(cellSize, result, oversized);
+    }
+
+    /**
+     * same bounds as {@link SpatialGrid#candidates}
+     */
+    Set<UUID> candidates(int x1, int y1, int x2, int y2) {
+        int fromColumn = SpatialGrid.cell(x1, cellSize);
+        int fromRow = SpatialGrid.cell(y1, cellSize);
+        int toColumn = SpatialGrid.cell(x2, cellSize);
+        int toRow = SpatialGrid.cell(y2, cellSize);
+        Set<UUID> result = new HashSet<>(oversized.page(0, oversized.size()));
+        if ((long) (toColumn - fromColumn + 1) * (toRow - fromRow + 1) > cells.size()) {
+            for (Cell cell : cells.page(0, cells.size())) {
+                int column = (int) (cell.key >> 32);
+                int row = (int) cell.key;
+                if (column >= fromColumn && column <= toColumn && row >= fromRow && row <= toRow) {
+                    result.addAll(cell.ids.page(0, cell.ids.size()));
+                }
+            }
+            return result;
+        }
+        for (int column = fromColumn; column <= toColumn; column++) {
+            for (int row = fromRow; row <= toRow; row++) {
+                Cell cell = cells.get(SpatialGrid.key(column, row));
+                if (cell != null) {
+                    result.addAll(cell.ids.page(0, cell.ids.size()));
+                }
+            }
+        }
+        return result;
+    }
+}
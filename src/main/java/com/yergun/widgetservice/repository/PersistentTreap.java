@@ -0,0 +1,361 @@
+package com.yergun.widgetservice.repository;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Immutable treap with subtree sizes and lazy {@link Shift} tags. Every write returns a new treap that shares
+ * all untouched nodes with the old one, copying only the O(log n) nodes on the path, so a reference to a treap
+ * is a snapshot that can be read from any thread without locking.
+ * Values must not be mutated once they are in a treap, their key is read from them on every comparison.
+ *
+ * A node's pending shift is owed to its children only, like in {@link ZIndexTree}. Writes push it one level down
+ * on every node they copy, reads apply what they collected on their way down and never copy anything.
+ * Besides their key, values can be looked up by any predicate that holds for a prefix of them in key order.
+ */
+final class PersistentTreap<K, V> {
+
+    /**
+     * Change owed to every value of a subtree. It must keep the key of a value and the order of the values,
+     * and combining two shifts must give the same whatever order they are combined in.
+     */
+    interface Shift<V> {
+
+        V applyTo(V value);
+
+        Shift<V> and(Shift<V> other);
+    }
+
+    private static final class Node<V> {
+        private final V value;
+        private final int priority;
+        private final int size;
+        private final Node<V> left;
+        private final Node<V> right;
+        private final Shift<V> pending;
+
+        private Node(V value, int priority, Node<V> left, Node<V> right, Shift<V> pending) {
+            this.value = value;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.pending = pending;
+            this.size = 1 + size(left) + size(right);
+        }
+
+        /**
+         * only called on nodes with nothing pending, see {@link #pushed}
+         */
+        private Node<V> with(Node<V> left, Node<V> right) {
+            return new Node<>(value, priority, left, right, null);
+        }
+    }
+
+    private final Function<V, K> keyOf;
+    private final Comparator<? super K> order;
+    private final Node<V> root;
+
+    private PersistentTreap(Function<V, K> keyOf, Comparator<? super K> order, Node<V> root) {
+        this.keyOf = keyOf;
+        this.order = order;
+        this.root = root;
+    }
+
+    static <K, V> PersistentTreap<K, V> empty(Function<V, K> keyOf, Comparator<? super K> order) {
+        return new PersistentTreap<>(keyOf, order, null);
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    V get(K key) {
+        Node<V> node = root;
+        Shift<V> shift = null;
+        while (node != null) {
+            // shifts keep the keys, the stored value compares the same as the shifted one
+            int comparison = compare(node, key);
+            if (comparison == 0) {
+                return shifted(node.value, shift);
+            }
+            shift = and(shift, node.pending);
+            node = comparison > 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    V last() {
+        if (root == null) {
+            return null;
+        }
+        Node<V> node = root;
+        Shift<V> shift = null;
+        while (node.right != null) {
+            shift = and(shift, node.pending);
+            node = node.right;
+        }
+        return shifted(node.value, shift);
+    }
+
+    /**
+     * @param before holds for a prefix of the values, and for none after it
+     * @return the first value it does not hold for, null if it holds for every value
+     */
+    V first(Predicate<V> before) {
+        Node<V> node = root;
+        Shift<V> shift = null;
+        V first = null;
+        while (node != null) {
+            V value = shifted(node.value, shift);
+            shift = and(shift, node.pending);
+            if (before.test(value)) {
+                node = node.right;
+            } else {
+                first = value;
+                node = node.left;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * @param before holds for a prefix of the values, and for none after it
+     * @return the last value of the prefix, null if it is empty
+     */
+    V lastOf(Predicate<V> before) {
+        Node<V> node = root;
+        Shift<V> shift = null;
+        V last = null;
+        while (node != null) {
+            V value = shifted(node.value, shift);
+            shift = and(shift, node.pending);
+            if (before.test(value)) {
+                last = value;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * O(log n)
+     * @param before holds for a prefix of the values, and for none after it
+     * @return how many values the prefix holds
+     */
+    int count(Predicate<V> before) {
+        Node<V> node = root;
+        Shift<V> shift = null;
+        int count = 0;
+        while (node != null) {
+            V value = shifted(node.value, shift);
+            shift = and(shift, node.pending);
+            if (before.test(value)) {
+                count += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * inserts the value, replacing the one with the same key if there is one
+     */
+    PersistentTreap<K, V> put(V value) {
+        K key = keyOf.apply(value);
+        Node<V>[] parts = split(root, below(key, false));
+        Node<V>[] rest = split(parts[1], below(key, true));
+        Node<V> node = new Node<>(value, ThreadLocalRandom.current().nextInt(), null, null, null);
+        return with(merge(merge(parts[0], node), rest[1]));
+    }
+
+    PersistentTreap<K, V> remove(K key) {
+        Node<V>[] parts = split(root, below(key, false));
+        Node<V>[] rest = split(parts[1], below(key, true));
+        return rest[0] == null ? this : with(merge(parts[0], rest[1]));
+    }
+
+    /**
+     * O(log n) whatever the number of values shifted, the shift is left pending on the root of their subtree.
+     * The shifted values must stay in order with the values around them.
+     * @param before holds for the values in front of the range and for none after them
+     * @param through holds for the values up to the end of the range and for none after them
+     */
+    PersistentTreap<K, V> shift(Predicate<V> before, Predicate<V> through, Shift<V> shift) {
+        Node<V>[] parts = split(root, before);
+        Node<V>[] rest = split(parts[1], through);
+        return with(merge(parts[0], merge(shifted(rest[0], shift), rest[1])));
+    }
+
+    /**
+     * O(log n + m), replaces the values with keys from the first one, inclusive, to the second one, exclusive
+     * @param values in key order, all of them with keys in the range
+     */
+    PersistentTreap<K, V> replace(K from, K to, List<V> values) {
+        Node<V>[] parts = split(root, below(from, false));
+        Node<V>[] rest = split(parts[1], below(to, false));
+        Node<V> range = null;
+        for (V value : values) {
+            range = merge(range, new Node<>(value, ThreadLocalRandom.current().nextInt(), null, null, null));
+        }
+        return with(merge(parts[0], merge(range, rest[1])));
+    }
+
+    /**
+     * O(log n + limit), skips whole subtrees by their size
+     */
+    List<V> page(long offset, int limit) {
+        List<V> result = new ArrayList<>(Math.min(limit, size()));
+        collectPage(root, null, offset, limit, result);
+        return result;
+    }
+
+    /**
+     * O(log n + limit), values with keys greater than the given one (or equal when inclusive) in order
+     */
+    List<V> from(K key, boolean inclusive, int limit) {
+        return after(below(key, !inclusive), limit);
+    }
+
+    /**
+     * O(log n + limit), the values after the prefix the predicate holds for, in order
+     */
+    List<V> after(Predicate<V> before, int limit) {
+        List<V> result = new ArrayList<>();
+        walkAfter(before, value -> {
+            result.add(value);
+            return result.size() < limit;
+        });
+        return result;
+    }
+
+    /**
+     * visits the values after the prefix the predicate holds for in order, until the visitor returns false
+     */
+    void walkAfter(Predicate<V> before, Predicate<V> visitor) {
+        walkAfter(root, null, before, visitor);
+    }
+
+    private void collectPage(Node<V> node, Shift<V> shift, long offset, int limit, List<V> out) {
+        if (node == null || out.size() >= limit) {
+            return;
+        }
+        Shift<V> childShift = and(shift, node.pending);
+        int leftSize = size(node.left);
+        if (offset < leftSize) {
+            collectPage(node.left, childShift, offset, limit, out);
+        }
+        if (offset <= leftSize && out.size() < limit) {
+            out.add(shifted(node.value, shift));
+        }
+        collectPage(node.right, childShift, Math.max(0, offset - leftSize - 1), limit, out);
+    }
+
+    /**
+     * @return false once the visitor asked to stop
+     */
+    private boolean walkAfter(Node<V> node, Shift<V> shift, Predicate<V> before, Predicate<V> visitor) {
+        if (node == null) {
+            return true;
+        }
+        V value = shifted(node.value, shift);
+        Shift<V> childShift = and(shift, node.pending);
+        if (!before.test(value)) {
+            if (!walkAfter(node.left, childShift, before, visitor) || !visitor.test(value)) {
+                return false;
+            }
+        }
+        return walkAfter(node.right, childShift, before, visitor);
+    }
+
+    /**
+     * splits into the prefix the predicate holds for and the rest
+     */
+    @SuppressWarnings("unchecked")
+    private Node<V>[] split(Node<V> node, Predicate<V> before) {
+        if (node == null) {
+            return new Node[2];
+        }
+        node = pushed(node);
+        if (before.test(node.value)) {
+            Node<V>[] parts = split(node.right, before);
+            parts[0] = node.with(node.left, parts[0]);
+            return parts;
+        }
+        Node<V>[] parts = split(node.left, before);
+        parts[1] = node.with(parts[1], node.right);
+        return parts;
+    }
+
+    /**
+     * every key in lower must be less than every key in upper
+     */
+    private Node<V> merge(Node<V> lower, Node<V> upper) {
+        if (lower == null) {
+            return upper;
+        }
+        if (upper == null) {
+            return lower;
+        }
+        if (lower.priority > upper.priority) {
+            lower = pushed(lower);
+            return lower.with(lower.left, merge(lower.right, upper));
+        }
+        upper = pushed(upper);
+        return upper.with(merge(lower, upper.left), upper.right);
+    }
+
+    /**
+     * the node with its pending shift handed down to its children, which are copied for it
+     */
+    private static <V> Node<V> pushed(Node<V> node) {
+        if (node.pending == null) {
+            return node;
+        }
+        return new Node<>(node.value, node.priority,
+                shifted(node.left, node.pending), shifted(node.right, node.pending), null);
+    }
+
+    private static <V> Node<V> shifted(Node<V> node, Shift<V> shift) {
+        if (node == null) {
+            return null;
+        }
+        return new Node<>(shift.applyTo(node.value), node.priority, node.left, node.right, and(node.pending, shift));
+    }
+
+    private static <V> V shifted(V value, Shift<V> shift) {
+        return shift == null ? value : shift.applyTo(value);
+    }
+
+    private static <V> Shift<V> and(Shift<V> shift, Shift<V> other) {
+        if (shift == null) {
+            return other;
+        }
+        return other == null ? shift : shift.and(other);
+    }
+
+    private Predicate<V> below(K key, boolean inclusive) {
+        return inclusive
+                ? value -> order.compare(keyOf.apply(value), key) <= 0
+                : value -> order.compare(keyOf.apply(value), key) < 0;
+    }
+
+    private int compare(Node<V> node, K key) {
+        return order.compare(keyOf.apply(node.value), key);
+    }
+
+    private PersistentTreap<K, V> with(Node<V> root) {
+        return new PersistentTreap<>(keyOf, order, root);
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+}
@@ -0,0 +1,87 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Collection;
+import java.util.concurrent.locks.Lock;
+
+final class RepositoryMetrics {
+
+    private RepositoryMetrics() {
+    }
+
+    /**
+     * recorded once per insert, update or batch, zero when nothing collided, so the mean is widgets touched per write
+     */
+    static DistributionSummary shiftedWidgets(MeterRegistry meterRegistry, CollisionPolicy collisionPolicy) {
+        return DistributionSummary.builder("widgets.shifted")
+                .description("Widgets moved up by one to make room for a written widget")
+                .tag("policy", collisionPolicy.name().toLowerCase())
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param repository type of the repository owning the lock, as configured
+     * @param mode       read or write
+     * @return the lock itself when lock metrics are turned off
+     */
+    static Lock timed(Lock lock, RepositoryProperties properties, MeterRegistry meterRegistry, String repository,
+                      String mode) {
+        if (!properties.isLockMetrics()) {
+            return lock;
+        }
+        return new TimedLock(lock,
+                Timer.builder("widgets.lock.wait")
+                        .description("Time spent waiting to acquire the repository lock")
+                        .tags("repository", repository, "mode", mode)
+                        .register(meterRegistry),
+                Timer.builder("widgets.lock.held")
+                        .description("Time the repository lock is held from acquisition to release")
+                        .tags("repository", repository, "mode", mode)
+                        .register(meterRegistry));
+    }
+
+    /**
+     * time of a call to the repository, what it waited for included
+     */
+    static Timer operation(MeterRegistry meterRegistry, String repository, String operation, String exception) {
+        return Timer.builder("widgets.repository")
+                .description("Calls to the widget repository")
+                .tags("repository", repository, "operation", operation, "exception", exception)
+                .register(meterRegistry);
+    }
+
+    /**
+     * entities in the persistence context when it is flushed, whether they turn out dirty or not
+     */
+    static DistributionSummary flushedEntities(MeterRegistry meterRegistry) {
+        return DistributionSummary.builder("widgets.flush.entities")
+                .description("Entities in the persistence context checked by a Hibernate flush")
+                .register(meterRegistry);
+    }
+
+    static Timer flush(MeterRegistry meterRegistry) {
+        return Timer.builder("widgets.flush")
+                .description("Hibernate flushes, dirty checking and the statements they send")
+                .register(meterRegistry);
+    }
+
+    /**
+     * writes applied by the single writer per hold of the write lock
+     */
+    static DistributionSummary writeBatchSize(MeterRegistry meterRegistry) {
+        return DistributionSummary.builder("widgets.write.batch")
+                .description("Writes applied by the single writer under one hold of the write lock")
+                .register(meterRegistry);
+    }
+
+    static void pendingWrites(MeterRegistry meterRegistry, Collection<?> queue) {
+        Gauge.builder("widgets.write.pending", queue, Collection::size)
+                .description("Writes waiting for the single writer")
+                .register(meterRegistry);
+    }
+}
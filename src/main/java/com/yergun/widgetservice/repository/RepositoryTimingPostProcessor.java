@@ -0,0 +1,74 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every call to the {@link WidgetRepository} bean, whichever implementation it is, as `widgets.repository`
+ * tagged by repository type, operation and the exception thrown if any. The advice is added in front of the
+ * existing one when the bean is already a Spring proxy, like the database repository, and wraps it otherwise.
+ */
+@Component
+class RepositoryTimingPostProcessor implements BeanPostProcessor {
+
+    // looked up once the repository is created, so the registry is post processed like any other bean
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+    private final ObjectProvider<RepositoryProperties> properties;
+
+    RepositoryTimingPostProcessor(ObjectProvider<MeterRegistry> meterRegistry,
+                                  ObjectProvider<RepositoryProperties> properties) {
+        this.meterRegistry = meterRegistry;
+        this.properties = properties;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof WidgetRepository)) {
+            return bean;
+        }
+        MethodInterceptor timing = timing(meterRegistry.getObject(), properties.getObject().getType());
+        if (bean instanceof Advised && !((Advised) bean).isFrozen()) {
+            ((Advised) bean).addAdvice(0, timing);
+            return bean;
+        }
+        ProxyFactory proxyFactory = new ProxyFactory(bean);
+        proxyFactory.addAdvice(timing);
+        return proxyFactory.getProxy();
+    }
+
+    private static MethodInterceptor timing(MeterRegistry meterRegistry, String repository) {
+        // timers of the successful calls are registered upfront, the rest when first thrown
+        Map<String, Timer> timers = new HashMap<>();
+        for (Method method : WidgetRepository.class.getMethods()) {
+            timers.put(method.getName(), RepositoryMetrics.operation(meterRegistry, repository, method.getName(), "none"));
+        }
+        return invocation -> {
+            Timer timer = timers.get(invocation.getMethod().getName());
+            if (timer == null) {
+                return invocation.proceed();
+            }
+            long start = System.nanoTime();
+            try {
+                Object result = invocation.proceed();
+                timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return result;
+            } catch (Throwable e) {
+                RepositoryMetrics.operation(meterRegistry, repository, invocation.getMethod().getName(),
+                        e.getClass().getSimpleName()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                throw e;
+            }
+        };
+    }
+}
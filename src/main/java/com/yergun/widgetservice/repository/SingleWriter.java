@@ -0,0 +1,192 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.exception.RepositoryClosedException;
+import com.yergun.widgetservice.exception.WriteQueueFullException;
+import com.yergun.widgetservice.model.Widget;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs the writes of a repository on one dedicated thread. Callers enqueue into a bounded queue and wait on a future,
+ * the writer drains whatever is pending and applies it under a single hold of the write lock, so writers never hand
+ * the lock to each other. A full queue is rejected right away instead of piling up waiting threads.
+ * Consecutive saves whose requested z do not increase are placed in one pass, which gives the same result as
+ * saving them one by one.
+ * On shutdown the writes already queued are applied, later ones are rejected.
+ */
+final class SingleWriter {
+
+    private static final class Write {
+        // set for saves, the only writes that are coalesced
+        private final Widget saved;
+        private final Supplier<?> action;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        private Write(Widget saved, Supplier<?> action) {
+            this.saved = saved;
+            this.action = action;
+        }
+    }
+
+    // queued on shutdown, the writer stops once it gets there
+    private static final Write STOP = new Write(null, () -> null);
+
+    private final BlockingQueue<Write> queue;
+    private final Lock lock;
+    private final Function<List<Widget>, List<Widget>> saveAll;
+    private final DistributionSummary batchSize;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * @param lock    held by the writer thread while it applies a batch
+     * @param saveAll places the given widgets in one pass and returns what to hand back for each, called under the lock
+     */
+    SingleWriter(int capacity, Lock lock, Function<List<Widget>, List<Widget>> saveAll,
+                 MeterRegistry meterRegistry) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.lock = lock;
+        this.saveAll = saveAll;
+        this.batchSize = RepositoryMetrics.writeBatchSize(meterRegistry);
+        RepositoryMetrics.pendingWrites(meterRegistry, queue);
+        this.thread = new Thread(this::run, "widget-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @param action saves the widget alone, used when it cannot be coalesced with its neighbours
+     */
+    Widget save(Widget widget, Supplier<Widget> action) {
+        return (Widget) submit(new Write(widget, action));
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> T submit(Supplier<T> action) {
+        return (T) submit(new Write(null, action));
+    }
+
+    /**
+     * applies the writes queued so far and waits for the writer thread to end
+     */
+    void shutdown() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(STOP);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Object submit(Write write) {
+        if (closed) {
+            throw new RepositoryClosedException();
+        }
+        if (!queue.offer(write)) {
+            throw new WriteQueueFullException();
+        }
+        // closed meanwhile, the writer may have stopped before getting to it, whoever removes it answers it
+        if (closed && queue.remove(write)) {
+            throw new RepositoryClosedException();
+        }
+        try {
+            return write.result.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private void run() {
+        List<Write> batch = new ArrayList<>();
+        boolean stopped = false;
+        while (!stopped) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            queue.drainTo(batch);
+            int stop = batch.indexOf(STOP);
+            if (stop >= 0) {
+                stopped = true;
+                reject(batch.subList(stop, batch.size()));
+                batch.subList(stop, batch.size()).clear();
+            }
+            if (!batch.isEmpty()) {
+                batchSize.record(batch.size());
+                lock.lock();
+                try {
+                    apply(batch);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            batch.clear();
+        }
+        queue.drainTo(batch);
+        reject(batch);
+    }
+
+    private static void reject(List<Write> writes) {
+        writes.forEach(write -> write.result.completeExceptionally(new RepositoryClosedException()));
+    }
+
+    private void apply(List<Write> batch) {
+        for (int i = 0, j; i < batch.size(); i = j) {
+            j = i + 1;
+            if (batch.get(i).saved != null) {
+                while (j < batch.size() && batch.get(j).saved != null
+                        && batch.get(j).saved.getZ() <= batch.get(j - 1).saved.getZ()) {
+                    j++;
+                }
+            }
+            if (j - i > 1) {
+                saveRun(batch.subList(i, j));
+            } else {
+                applyOne(batch.get(i));
+            }
+        }
+    }
+
+    /**
+     * from the highest requested z down, exactly the order {@link BatchPlacement} assumes
+     */
+    private void saveRun(List<Write> run) {
+        List<Widget> widgets = new ArrayList<>(run.size());
+        run.forEach(write -> widgets.add(write.saved));
+        List<Widget> saved;
+        try {
+            saved = saveAll.apply(widgets);
+        } catch (RuntimeException | Error e) {
+            run.forEach(write -> write.result.completeExceptionally(e));
+            return;
+        }
+        for (int i = 0; i < run.size(); i++) {
+            run.get(i).result.complete(saved.get(i));
+        }
+    }
+
+    private void applyOne(Write write) {
+        try {
+            write.result.complete(write.action.get());
+        } catch (RuntimeException | Error e) {
+            // the writer thread must survive whatever a single write throws
+            write.result.completeExceptionally(e);
+        }
+    }
+}
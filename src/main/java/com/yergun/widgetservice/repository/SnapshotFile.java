@@ -0,0 +1,62 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Widget;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Every widget in {@link WidgetCodec} form behind a small header, written and read through a memory mapped file.
+ * A snapshot is written next to its final name and moved in place once forced, so one that exists is complete.
+ */
+final class SnapshotFile {
+
+    private static final int MAGIC = 0x5753_4E50;
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES;
+
+    private SnapshotFile() {
+    }
+
+    static void write(Path path, Collection<Widget> widgets) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        long size = HEADER_BYTES + (long) widgets.size() * WidgetCodec.BYTES;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putLong(widgets.size());
+            widgets.forEach(widget -> WidgetCodec.write(buffer, widget));
+            buffer.force();
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return the widgets in the order they were written
+     */
+    static List<Widget> read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a widget snapshot: " + path);
+            }
+            long count = buffer.getLong();
+            if (channel.size() != HEADER_BYTES + count * WidgetCodec.BYTES) {
+                throw new IOException("Truncated widget snapshot: " + path);
+            }
+            List<Widget> widgets = new ArrayList<>((int) count);
+            for (long i = 0; i < count; i++) {
+                widgets.add(WidgetCodec.read(buffer));
+            }
+            return widgets;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Widget;
+
+import java.util.*;
+
+/**
+ * Uniform grid over widget bounds, an item is registered in every cell its bounds touch.
+ * Items touching more than {@link #MAX_CELLS_PER_ITEM} cells are kept aside and returned by every query,
+ * so a few huge widgets do not flood the grid.
+ * Queries return candidates only, the caller checks the exact bounds.
+ *
+ * Not thread safe, writes need exclusive access.
+ */
+class SpatialGrid<T> {
+
+    static final int MAX_CELLS_PER_ITEM = 64;
+
+    private final int cellSize;
+    private final Map<Long, Set<T>> cells = new HashMap<>();
+    // cell range of every item, from column, from row, to column, to row, null for the oversized ones
+    private final Map<T, int[]> cellsOf = new HashMap<>();
+    private final Set<T> oversized = new HashSet<>();
+
+    SpatialGrid(int cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * @param bounds current bounds of the item, only read here
+     */
+    void add(T item, Widget bounds) {
+        int[] range = cellRange(bounds, cellSize);
+        if (range == null) {
+            oversized.add(item);
+            cellsOf.put(item, null);
+            return;
+        }
+        cellsOf.put(item, range);
+        for (int column = range[0]; column <= range[2]; column++) {
+            for (int row = range[1]; row <= range[3]; row++) {
+                cells.computeIfAbsent(key(column, row), k -> new HashSet<>()).add(item);
+            }
+        }
+    }
+
+    void remove(T item) {
+        if (!cellsOf.containsKey(item)) {
+            return;
+        }
+        int[] range = cellsOf.remove(item);
+        if (range == null) {
+            oversized.remove(item);
+            return;
+        }
+        for (int column = range[0]; column <= range[2]; column++) {
+            for (int row = range[1]; row <= range[3]; row++) {
+                Set<T> cell = cells.get(key(column, row));
+                cell.remove(item);
+                if (cell.isEmpty()) {
+                    cells.remove(key(column, row));
+                }
+            }
+        }
+    }
+
+    void clear() {
+        cells.clear();
+        cellsOf.clear();
+        oversized.clear();
+    }
+
+    /**
+     * O(cells covered by the region + candidates), or O(non empty cells) when that is fewer
+     * @return items whose cells touch the closed rectangle from (x1, y1) to (x2, y2)
+     */
+    Set<T> candidates(int x1, int y1, int x2, int y2) {
+        int fromColumn = cell(x1, cellSize);
+        int fromRow = cell(y1, cellSize);
+        int toColumn = cell(x2, cellSize);
+        int toRow = cell(y2, cellSize);
+        Set<T> result = new HashSet<>(oversized);
+        if ((long) (toColumn - fromColumn + 1) * (toRow - fromRow + 1) > cells.size()) {
+            cells.forEach((key, items) -> {
+                int column = (int) (key >> 32);
+                int row = (int) (long) key;
+                if (column >= fromColumn && column <= toColumn && row >= fromRow && row <= toRow) {
+                    result.addAll(items);
+                }
+            });
+            return result;
+        }
+        for (int column = fromColumn; column <= toColumn; column++) {
+            for (int row = fromRow; row <= toRow; row++) {
+                result.addAll(cells.getOrDefault(key(column, row), Collections.emptySet()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return from column, from row, to column and to row of the cells the bounds touch,
+     * null when that is more than {@link #MAX_CELLS_PER_ITEM} cells. A far edge past the int range is cut at
+     * {@link Integer#MAX_VALUE}, no region or point reaches further.
+     */
+    static int[] cellRange(Widget bounds, int cellSize) {
+        int[] range = {
+                cell(bounds.getX(), cellSize), cell(bounds.getY(), cellSize),
+                cell(farEdge(bounds.getX(), bounds.getWidth()), cellSize),
+                cell(farEdge(bounds.getY(), bounds.getHeight()), cellSize)
+        };
+        return (long) (range[2] - range[0] + 1) * (range[3] - range[1] + 1) > MAX_CELLS_PER_ITEM ? null : range;
+    }
+
+    static int cell(int coordinate, int cellSize) {
+        return Math.floorDiv(coordinate, cellSize);
+    }
+
+    static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xffffffffL);
+    }
+
+    private static int farEdge(int coordinate, Integer size) {
+        return (int) Math.min((long) coordinate + (size == null ? 0 : size), Integer.MAX_VALUE);
+    }
+}
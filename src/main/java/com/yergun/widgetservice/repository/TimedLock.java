@@ -0,0 +1,84 @@
+package com.yergun.widgetservice.repository;
+
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Lock recording how long threads wait to acquire it and how long they hold it. Reentrant acquisitions count once,
+ * from the outermost lock to the matching unlock. Times are kept per thread, so it works for shared read locks too.
+ * Waiting on one of its conditions counts as holding it.
+ */
+final class TimedLock implements Lock {
+
+    private final Lock lock;
+    private final Timer wait;
+    private final Timer held;
+    // nanoTime of the outermost acquisition and the reentrancy depth of the current thread
+    private final ThreadLocal<long[]> holds = ThreadLocal.withInitial(() -> new long[2]);
+
+    TimedLock(Lock lock, Timer wait, Timer held) {
+        this.lock = lock;
+        this.wait = wait;
+        this.held = held;
+    }
+
+    @Override
+    public void lock() {
+        long start = System.nanoTime();
+        lock.lock();
+        acquired(start);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lockInterruptibly();
+        acquired(start);
+    }
+
+    @Override
+    public boolean tryLock() {
+        long start = System.nanoTime();
+        if (!lock.tryLock()) {
+            return false;
+        }
+        acquired(start);
+        return true;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        if (!lock.tryLock(time, unit)) {
+            return false;
+        }
+        acquired(start);
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        long[] hold = holds.get();
+        long heldFor = --hold[1] == 0 ? System.nanoTime() - hold[0] : -1;
+        lock.unlock();
+        if (heldFor >= 0) {
+            held.record(heldFor, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public Condition newCondition() {
+        return lock.newCondition();
+    }
+
+    private void acquired(long start) {
+        long[] hold = holds.get();
+        if (hold[1]++ == 0) {
+            hold[0] = System.nanoTime();
+            wait.record(hold[0] - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
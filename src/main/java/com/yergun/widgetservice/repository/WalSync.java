@@ -0,0 +1,20 @@
+package com.yergun.widgetservice.repository;
+
+/**
+ * When a write of the durable memory repository is forced to disk before it is acknowledged
+ */
+public enum WalSync {
+    /**
+     * never forced, left to the operating system, a crash of the machine may lose the last writes
+     */
+    NONE,
+    /**
+     * every write is forced under the write lock before the next one starts
+     */
+    EVERY_WRITE,
+    /**
+     * writers wait for a force that covers their write, one force covers every write appended while
+     * the previous one was running
+     */
+    GROUP
+}
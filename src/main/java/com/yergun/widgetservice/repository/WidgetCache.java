@@ -0,0 +1,161 @@
+package com.yergun.widgetservice.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.model.Widget;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of widgets by id and of the top widget in front of the database, does nothing when
+ * `application.repository.cache-maximum-size` is 0. Entries are copies, so what callers do to a returned widget
+ * never reaches the cache.
+ * A write evicts what it touched right away and again once its transaction completes. Every eviction starts a new
+ * generation, and a reader only caches what it loaded if no eviction came in between, so an old row loaded while a
+ * write commits is handed out once but never kept. A transaction that wrote bypasses the cache until it completes,
+ * it must see its own writes and the rows it reads are not committed yet.
+ */
+final class WidgetCache {
+
+    private static final class Evicted {
+        private final Set<UUID> ids = new HashSet<>();
+        private boolean all;
+    }
+
+    private final Cache<UUID, Widget> byId;
+    private final Cache<Boolean, Optional<Widget>> top;
+    // bumped before every eviction, a load is only cached when no eviction started since it began
+    private final AtomicLong generation = new AtomicLong();
+
+    private WidgetCache(Cache<UUID, Widget> byId, Cache<Boolean, Optional<Widget>> top) {
+        this.byId = byId;
+        this.top = top;
+    }
+
+    static WidgetCache create(RepositoryProperties properties, MeterRegistry meterRegistry) {
+        if (properties.getCacheMaximumSize() <= 0) {
+            return new WidgetCache(null, null);
+        }
+        Cache<UUID, Widget> byId = Caffeine.newBuilder()
+                .maximumSize(properties.getCacheMaximumSize())
+                .expireAfterWrite(properties.getCacheExpireAfterWrite().toNanos(), TimeUnit.NANOSECONDS)
+                .recordStats()
+                .build();
+        Cache<Boolean, Optional<Widget>> top = Caffeine.newBuilder()
+                .maximumSize(1)
+                .expireAfterWrite(properties.getCacheExpireAfterWrite().toNanos(), TimeUnit.NANOSECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, byId, "widgets.by-id");
+        CaffeineCacheMetrics.monitor(meterRegistry, top, "widgets.top");
+        return new WidgetCache(byId, top);
+    }
+
+    Optional<Widget> findById(UUID id, Function<UUID, Widget> load) {
+        if (bypassed()) {
+            return Optional.ofNullable(load.apply(id));
+        }
+        Widget cached = byId.getIfPresent(id);
+        if (cached == null) {
+            long loadedIn = generation.get();
+            // absent widgets are not cached, they are not looked up often enough to be worth an eviction path
+            cached = load.apply(id);
+            if (cached == null) {
+                return Optional.empty();
+            }
+            Widget loaded = copy(cached);
+            byId.asMap().compute(id, (key, present) -> generation.get() == loadedIn ? loaded : present);
+            cached = loaded;
+        }
+        return Optional.of(copy(cached));
+    }
+
+    Optional<Widget> findTop(Supplier<Optional<Widget>> load) {
+        if (bypassed()) {
+            return load.get();
+        }
+        Optional<Widget> cached = top.getIfPresent(Boolean.TRUE);
+        if (cached == null) {
+            long loadedIn = generation.get();
+            Optional<Widget> loaded = load.get().map(WidgetCache::copy);
+            top.asMap().compute(Boolean.TRUE, (key, present) -> generation.get() == loadedIn ? loaded : present);
+            cached = loaded;
+        }
+        return cached.map(WidgetCache::copy);
+    }
+
+    /**
+     * the widget changed or is gone, and with it maybe the top
+     */
+    void evict(UUID id) {
+        if (byId == null) {
+            return;
+        }
+        generation.incrementAndGet();
+        byId.invalidate(id);
+        top.invalidateAll();
+        evicted().ids.add(id);
+    }
+
+    /**
+     * z values were changed in bulk, any cached widget may be stale
+     */
+    void evictAll() {
+        if (byId == null) {
+            return;
+        }
+        generation.incrementAndGet();
+        byId.invalidateAll();
+        top.invalidateAll();
+        evicted().all = true;
+    }
+
+    private boolean bypassed() {
+        return byId == null || TransactionSynchronizationManager.hasResource(this);
+    }
+
+    /**
+     * what the current transaction evicted, evicted again once it completes
+     */
+    private Evicted evicted() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return new Evicted();
+        }
+        Evicted evicted = (Evicted) TransactionSynchronizationManager.getResource(this);
+        if (evicted == null) {
+            Evicted pending = new Evicted();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(WidgetCache.this);
+                    generation.incrementAndGet();
+                    if (pending.all) {
+                        byId.invalidateAll();
+                    } else {
+                        byId.invalidateAll(pending.ids);
+                    }
+                    top.invalidateAll();
+                }
+            });
+            evicted = pending;
+        }
+        return evicted;
+    }
+
+    private static Widget copy(Widget widget) {
+        return widget.toBuilder().build();
+    }
+}
@@ -0,0 +1,65 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Widget;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+/**
+ * Fixed size binary form of a widget shared by the write ahead log and the snapshots
+ */
+final class WidgetCodec {
+
+    static final int ID_BYTES = 2 * Long.BYTES;
+    static final int TIME_BYTES = Long.BYTES + Integer.BYTES;
+    static final int BYTES = ID_BYTES + 5 * Integer.BYTES + TIME_BYTES;
+
+    // stands for a missing width or height, never a valid one
+    private static final int ABSENT = Integer.MIN_VALUE;
+
+    private WidgetCodec() {
+    }
+
+    static void write(ByteBuffer buffer, Widget widget) {
+        writeId(buffer, widget.getId());
+        buffer.putInt(widget.getX());
+        buffer.putInt(widget.getY());
+        buffer.putInt(widget.getZ());
+        buffer.putInt(widget.getWidth() == null ? ABSENT : widget.getWidth());
+        buffer.putInt(widget.getHeight() == null ? ABSENT : widget.getHeight());
+        writeTime(buffer, widget.getLastUpdated());
+    }
+
+    static Widget read(ByteBuffer buffer) {
+        UUID id = readId(buffer);
+        int x = buffer.getInt();
+        int y = buffer.getInt();
+        int z = buffer.getInt();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        return new Widget(id, x, y, width == ABSENT ? null : width, height == ABSENT ? null : height, z,
+                readTime(buffer));
+    }
+
+    static void writeId(ByteBuffer buffer, UUID id) {
+        buffer.putLong(id.getMostSignificantBits());
+        buffer.putLong(id.getLeastSignificantBits());
+    }
+
+    static UUID readId(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    static void writeTime(ByteBuffer buffer, LocalDateTime time) {
+        buffer.putLong(time == null ? Long.MIN_VALUE : time.toEpochSecond(ZoneOffset.UTC));
+        buffer.putInt(time == null ? 0 : time.getNano());
+    }
+
+    static LocalDateTime readTime(ByteBuffer buffer) {
+        long seconds = buffer.getLong();
+        int nanos = buffer.getInt();
+        return seconds == Long.MIN_VALUE ? null : LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+}
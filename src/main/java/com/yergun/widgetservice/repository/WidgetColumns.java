@@ -0,0 +1,214 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Point;
+import com.yergun.widgetservice.model.Region;
+import com.yergun.widgetservice.model.Widget;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Widgets kept as primitive columns indexed by slot, about 60 bytes a widget with the id index and no object
+ * per widget for the collector to trace. Widgets are only materialized when they leave the repository.
+ * Slots of removed widgets are reused. Ids are found through an open addressing table of slots probed
+ * against the id columns.
+ *
+ * Not thread safe, writes need exclusive access.
+ */
+final class WidgetColumns {
+
+    // stands for a missing width or height, never a valid one
+    private static final int ABSENT = Integer.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private long[] idHigh = new long[INITIAL_CAPACITY];
+    private long[] idLow = new long[INITIAL_CAPACITY];
+    private int[] x = new int[INITIAL_CAPACITY];
+    private int[] y = new int[INITIAL_CAPACITY];
+    private int[] width = new int[INITIAL_CAPACITY];
+    private int[] height = new int[INITIAL_CAPACITY];
+    private int[] z = new int[INITIAL_CAPACITY];
+    // epoch nanos at UTC
+    private long[] lastUpdated = new long[INITIAL_CAPACITY];
+    private int used;
+    private int[] free = new int[16];
+    private int freeCount;
+    // slot + 1 per bucket, 0 for an empty bucket, linear probing, never more than half full
+    private int[] ids = new int[2 * INITIAL_CAPACITY];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the slot the widget is stored in
+     */
+    int add(Widget widget) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            if (used == z.length) {
+                grow();
+            }
+            slot = used++;
+        }
+        idHigh[slot] = widget.getId().getMostSignificantBits();
+        idLow[slot] = widget.getId().getLeastSignificantBits();
+        set(slot, widget);
+        index(slot);
+        size++;
+        return slot;
+    }
+
+    /**
+     * overwrites everything but the id
+     */
+    void set(int slot, Widget widget) {
+        x[slot] = widget.getX();
+        y[slot] = widget.getY();
+        width[slot] = widget.getWidth() == null ? ABSENT : widget.getWidth();
+        height[slot] = widget.getHeight() == null ? ABSENT : widget.getHeight();
+        z[slot] = widget.getZ();
+        lastUpdated[slot] = toNanos(widget.getLastUpdated());
+    }
+
+    void remove(int slot) {
+        unindex(slot);
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = slot;
+        size--;
+    }
+
+    /**
+     * @return slot of the widget, -1 if there is none
+     */
+    int slotOf(UUID id) {
+        long high = id.getMostSignificantBits();
+        long low = id.getLeastSignificantBits();
+        int mask = ids.length - 1;
+        for (int bucket = hash(high, low) & mask; ids[bucket] != 0; bucket = (bucket + 1) & mask) {
+            int slot = ids[bucket] - 1;
+            if (idHigh[slot] == high && idLow[slot] == low) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    Widget get(int slot) {
+        return new Widget(new UUID(idHigh[slot], idLow[slot]), x[slot], y[slot],
+                width[slot] == ABSENT ? null : width[slot], height[slot] == ABSENT ? null : height[slot],
+                z[slot], fromNanos(lastUpdated[slot]));
+    }
+
+    int z(int slot) {
+        return z[slot];
+    }
+
+    void shift(int slot, int by, LocalDateTime at) {
+        z[slot] += by;
+        lastUpdated[slot] = toNanos(at);
+    }
+
+    /**
+     * same closed bounds as {@link Widget#intersects}
+     */
+    boolean intersects(int slot, Region region) {
+        return x[slot] <= region.getX2() && (long) x[slot] + extent(width[slot]) >= region.getX1()
+                && y[slot] <= region.getY2() && (long) y[slot] + extent(height[slot]) >= region.getY1();
+    }
+
+    /**
+     * same closed bounds as {@link Widget#contains}
+     */
+    boolean contains(int slot, Point point) {
+        return x[slot] <= point.getX() && (long) x[slot] + extent(width[slot]) >= point.getX()
+                && y[slot] <= point.getY() && (long) y[slot] + extent(height[slot]) >= point.getY();
+    }
+
+    private void index(int slot) {
+        if (2 * (size + 1) > ids.length) {
+            rehash(ids.length * 2);
+        }
+        int mask = ids.length - 1;
+        int bucket = hash(idHigh[slot], idLow[slot]) & mask;
+        while (ids[bucket] != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        ids[bucket] = slot + 1;
+    }
+
+    /**
+     * backward shift deletion, so probing never needs tombstones
+     */
+    private void unindex(int slot) {
+        int mask = ids.length - 1;
+        int bucket = hash(idHigh[slot], idLow[slot]) & mask;
+        while (ids[bucket] != slot + 1) {
+            bucket = (bucket + 1) & mask;
+        }
+        int hole = bucket;
+        for (int next = (hole + 1) & mask; ids[next] != 0; next = (next + 1) & mask) {
+            int home = hash(idHigh[ids[next] - 1], idLow[ids[next] - 1]) & mask;
+            // the entry may move into the hole only if the hole lies on its probe path
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                ids[hole] = ids[next];
+                hole = next;
+            }
+        }
+        ids[hole] = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] previous = ids;
+        ids = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry : previous) {
+            if (entry != 0) {
+                int bucket = hash(idHigh[entry - 1], idLow[entry - 1]) & mask;
+                while (ids[bucket] != 0) {
+                    bucket = (bucket + 1) & mask;
+                }
+                ids[bucket] = entry;
+            }
+        }
+    }
+
+    private void grow() {
+        int capacity = z.length + (z.length >> 1);
+        idHigh = Arrays.copyOf(idHigh, capacity);
+        idLow = Arrays.copyOf(idLow, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+        z = Arrays.copyOf(z, capacity);
+        lastUpdated = Arrays.copyOf(lastUpdated, capacity);
+    }
+
+    private static int hash(long high, long low) {
+        long mixed = (high ^ low) * 0x9E37_79B9_7F4A_7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    private static int extent(int size) {
+        return size == ABSENT ? 0 : size;
+    }
+
+    private static long toNanos(LocalDateTime time) {
+        return time == null ? Long.MIN_VALUE
+                : time.toEpochSecond(ZoneOffset.UTC) * NANOS_PER_SECOND + time.getNano();
+    }
+
+    private static LocalDateTime fromNanos(long nanos) {
+        return nanos == Long.MIN_VALUE ? null : LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, NANOS_PER_SECOND),
+                (int) Math.floorMod(nanos, NANOS_PER_SECOND), ZoneOffset.UTC);
+    }
+}
@@ -5,6 +5,7 @@ import com.yergun.widgetservice.model.WidgetPatchRequest;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.Repository;
 
@@ -20,9 +21,11 @@ public interface WidgetRepository extends Repository<Widget, UUID>, CustomizedWi
     @Query("select w from Widget w where w.z >= :#{#widget.z} order by w.z asc")
     Collection<Widget> findByZGreaterThanEqualOrderByZAsc(Widget widget);
     Page<Widget> findByOrderByZAsc(Pageable pageable);
-    Optional<Widget> findFirstByOrderByZDesc();
+
+    /**
+     * {@link #findByOrderByZAsc} without counting, one widget more than the page is fetched to tell if there is a
+     * next one
+     */
+    Slice<Widget> findSliceByOrderByZAsc(Pageable pageable);
     Optional<Widget> findFirstByZ(Integer z);
-    Optional<Widget> findById(UUID id);
-    void deleteById(UUID id);
-    void delete(Widget widget);
 }
@@ -0,0 +1,273 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.exception.WidgetNotFoundException;
+import com.yergun.widgetservice.model.*;
+import com.yergun.widgetservice.util.PageUtils;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In memory implementation for boards of millions of widgets. Widgets live in primitive {@link WidgetColumns},
+ * ordered by a {@link ColumnarZIndex} of slots, so the heap holds a few dozen arrays whatever the number of widgets.
+ * Widgets are materialized only when they are handed out, every read returns new instances.
+ * There is no spatial index, region queries and hit tests scan the columns.
+ */
+@ConditionalOnProperty(name = "application.repository.type", havingValue = "columnar")
+@Repository
+public class WidgetRepositoryColumnar implements InMemoryWidgetRepository {
+
+    private final WidgetColumns columns = new WidgetColumns();
+    private final ColumnarZIndex zIndex = new ColumnarZIndex(columns);
+    private final Lock readLock;
+    private final Lock writeLock;
+    private final CollisionPolicy collisionPolicy;
+    private final DistributionSummary shiftedWidgets;
+    // writes that moved a stored widget to another z, an export in chunks is only valid while it stays the same
+    private volatile long moves;
+
+    public WidgetRepositoryColumnar(RepositoryProperties properties, MeterRegistry meterRegistry) {
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+        this.readLock = RepositoryMetrics.timed(lock.readLock(), properties, meterRegistry, "columnar", "read");
+        this.writeLock = RepositoryMetrics.timed(lock.writeLock(), properties, meterRegistry, "columnar", "write");
+        this.collisionPolicy = properties.getCollisionPolicy();
+        this.shiftedWidgets = RepositoryMetrics.shiftedWidgets(meterRegistry, collisionPolicy);
+    }
+
+    @Override
+    public Widget save(Widget widget) {
+        return saveAll(List.of(widget)).get(0);
+    }
+
+    @Override
+    public List<Widget> saveAll(List<Widget> widgets) {
+        List<Widget> copies = widgets.stream().map(widget -> widget.toBuilder().build()).collect(Collectors.toList());
+        return write(() -> {
+            insertAll(copies);
+            return copies;
+        });
+    }
+
+    @Override
+    public Optional<Widget> findFirstByOrderByZDesc() {
+        return read(() -> Optional.of(zIndex.last()).filter(slot -> slot != -1).map(columns::get));
+    }
+
+    @Override
+    public Page<Widget> findByOrderByZAsc(Pageable pageable) {
+        return read(() -> {
+            List<Widget> widgets = new ArrayList<>();
+            zIndex.walkFromRank(pageable.getOffset(), slot -> {
+                widgets.add(columns.get(slot));
+                return widgets.size() < pageable.getPageSize();
+            });
+            return new PageImpl<>(widgets, pageable, zIndex.size());
+        });
+    }
+
+    @Override
+    public Page<Widget> findInRegion(Region region, Pageable pageable) {
+        List<Widget> widgets = read(() -> {
+            List<Widget> matching = new ArrayList<>();
+            zIndex.walkFromRank(0, slot -> {
+                if (columns.intersects(slot, region)) {
+                    matching.add(columns.get(slot));
+                }
+                return true;
+            });
+            return matching;
+        });
+        return PageUtils.page(widgets, pageable);
+    }
+
+    @Override
+    public List<Widget> findTopmostAt(List<Point> points) {
+        return read(() -> {
+            List<Widget> widgets = new ArrayList<>(points.size());
+            for (Point point : points) {
+                int slot = zIndex.findLast(candidate -> columns.contains(candidate, point));
+                widgets.add(slot == -1 ? null : columns.get(slot));
+            }
+            return widgets;
+        });
+    }
+
+    @Override
+    public Collection<Widget> findByZGreaterThanEqualOrderByZAsc(Widget widget) {
+        return read(() -> from(widget.getZ(), true, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public Optional<Widget> findFirstByZ(Integer zIndex) {
+        return read(() -> Optional.of(this.zIndex.get(zIndex)).filter(slot -> slot != -1).map(columns::get));
+    }
+
+    @Override
+    public List<Widget> findAfterZ(Integer afterZ, int limit) {
+        return read(() -> afterZ == null ? page(limit) : from(afterZ, false, limit));
+    }
+
+    /**
+     * fetched in chunks of {@link #findAfterZ} without holding the lock in between, fails once a write moved widgets
+     */
+    @Override
+    public Stream<Widget> streamByOrderByZAsc() {
+        return ZOrderChunks.stream(this::findAfterZ, () -> moves);
+    }
+
+    @Override
+    public Optional<Widget> findById(UUID id) {
+        return read(() -> Optional.of(columns.slotOf(id)).filter(slot -> slot != -1).map(columns::get));
+    }
+
+    @Override
+    public void deleteById(UUID id) {
+        write(() -> {
+            int slot = columns.slotOf(id);
+            if (slot == -1) {
+                throw new WidgetNotFoundException(id);
+            }
+            remove(slot);
+            return slot;
+        });
+    }
+
+    @Override
+    public void delete(Widget widget) {
+        write(() -> {
+            int slot = columns.slotOf(widget.getId());
+            if (slot != -1) {
+                remove(slot);
+            }
+            return slot;
+        });
+    }
+
+    @Override
+    public Widget update(UUID id, WidgetPatchRequest patchRequest) {
+        return updateAll(List.of(new WidgetBatchPatchRequest(id, patchRequest))).get(0);
+    }
+
+    @Override
+    public List<Widget> updateAll(List<WidgetBatchPatchRequest> patchRequests) {
+        return write(() -> {
+            int[] slots = new int[patchRequests.size()];
+            for (int i = 0; i < slots.length; i++) {
+                UUID id = patchRequests.get(i).getId();
+                slots[i] = columns.slotOf(id);
+                if (slots[i] == -1) {
+                    throw new WidgetNotFoundException(id);
+                }
+            }
+            LocalDateTime now = LocalDateTime.now();
+            List<Widget> widgets = new ArrayList<>(slots.length);
+            boolean movesZ = false;
+            for (int i = 0; i < slots.length; i++) {
+                Widget widget = columns.get(slots[i]);
+                movesZ |= patchRequests.get(i).applyTo(widget);
+                widget.setLastUpdated(now);
+                widgets.add(widget);
+            }
+            if (!movesZ) {
+                // every widget would be placed back at its own z, only the other columns change
+                for (int i = 0; i < slots.length; i++) {
+                    columns.set(slots[i], widgets.get(i));
+                }
+                return widgets;
+            }
+            for (int slot : slots) {
+                remove(slot);
+            }
+            moves++;
+            insertAll(widgets);
+            return widgets;
+        });
+    }
+
+    /**
+     * used only under writeLock, places the widgets at their z in one pass and stores them
+     * @param widgets not stored, their z is replaced by the one they are placed at
+     */
+    private void insertAll(List<Widget> widgets) {
+        List<BatchPlacement.Shift> shifts = BatchPlacement.place(widgets, collisionPolicy, zIndex);
+        LocalDateTime now = LocalDateTime.now();
+        int shifted = 0;
+        // highest first, so the slots stay in z order after every step
+        for (int i = shifts.size() - 1; i >= 0; i--) {
+            BatchPlacement.Shift shift = shifts.get(i);
+            shifted += zIndex.shift(shift.getFrom(), shift.getTo(), shift.getBy(), now);
+        }
+        shiftedWidgets.record(shifted);
+        if (shifted > 0) {
+            moves++;
+        }
+        widgets.forEach(widget -> zIndex.insert(columns.add(widget)));
+    }
+
+    /**
+     * used only under writeLock
+     */
+    private void remove(int slot) {
+        zIndex.remove(columns.z(slot));
+        columns.remove(slot);
+    }
+
+    /**
+     * used only under readLock
+     */
+    private List<Widget> page(int limit) {
+        List<Widget> widgets = new ArrayList<>();
+        if (limit > 0) {
+            zIndex.walkFromRank(0, slot -> {
+                widgets.add(columns.get(slot));
+                return widgets.size() < limit;
+            });
+        }
+        return widgets;
+    }
+
+    /**
+     * used only under readLock
+     */
+    private List<Widget> from(int z, boolean inclusive, int limit) {
+        List<Widget> widgets = new ArrayList<>();
+        if (limit > 0) {
+            zIndex.walkFrom(z, inclusive, slot -> {
+                widgets.add(columns.get(slot));
+                return widgets.size() < limit;
+            });
+        }
+        return widgets;
+    }
+
+    private <T> T read(Supplier<T> action) {
+        readLock.lock();
+        try {
+            return action.get();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private <T> T write(Supplier<T> action) {
+        writeLock.lock();
+        try {
+            return action.get();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * The memory repository, reads and z placement included, loaded from the database on startup and writing the widgets
+ * it changes back to it in the background. On shutdown whatever was not written yet is written before the
+ * datasource closes.
+ */
+@ConditionalOnProperty(name = "application.repository.type", havingValue = "hybrid")
+@Repository
+// the schema is migrated before the entity manager factory starts
+@DependsOn("entityManagerFactory")
+public class WidgetRepositoryHybrid extends WidgetRepositoryInMemory {
+
+    public WidgetRepositoryHybrid(RepositoryProperties properties, MeterRegistry meterRegistry,
+                                  JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        super(properties, meterRegistry, "hybrid", new WriteBehind(jdbcTemplate,
+                new TransactionTemplate(transactionManager), properties.getWriteBehindInterval(),
+                properties.getWriteBehindMaxPending(), meterRegistry));
+    }
+
+    /**
+     * writes every widget changed so far to the database, done on its own every write behind interval
+     */
+    void flush() {
+        getWriteBehind().flush();
+    }
+}
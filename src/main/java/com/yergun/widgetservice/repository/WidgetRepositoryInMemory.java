@@ -1,164 +1,550 @@
 package com.yergun.widgetservice.repository;
 
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.exception.RepositoryClosedException;
 import com.yergun.widgetservice.exception.WidgetNotFoundException;
+import com.yergun.widgetservice.model.Point;
+import com.yergun.widgetservice.model.Region;
 import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetBatchPatchRequest;
 import com.yergun.widgetservice.model.WidgetPatchRequest;
-import com.yergun.widgetservice.util.ObjectUtils;
+import com.yergun.widgetservice.util.PageUtils;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AccessLevel;
 import lombok.Getter;
-import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Repository;
 
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @ConditionalOnProperty(name = "application.repository.type", havingValue = "memory")
 @Repository
 @Getter
-public class WidgetRepositoryInMemory implements WidgetRepository {
+public class WidgetRepositoryInMemory implements InMemoryWidgetRepository, DisposableBean {
 
-    private final SortedSet<Widget> storage = new TreeSet<>(Comparator.comparingInt(Widget::getZ));
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    // order statistic tree so pages are found by rank, never shifted lazily as its widgets are shifted in place
+    private final ZIndexTree storage = new ZIndexTree(ZIndexTree.View.SHARED);
+    // secondary index sharing the same instances as `storage`, kept in lockstep on every write
+    private final Map<UUID, Widget> idIndex = new HashMap<>();
+    // bounds of the same instances, z is not part of it so shifts never touch the grid
+    private final SpatialGrid<Widget> grid;
+    private final Lock readLock;
+    private final Lock writeLock;
+    private final CollisionPolicy collisionPolicy;
+    private final DistributionSummary shiftedWidgets;
+    // writes that moved a stored widget to another z, an export in chunks is only valid while it stays the same
+    @Getter(AccessLevel.NONE)
+    private volatile long moves;
+    // null unless writes are funnelled through a single thread instead of contending on the lock
+    @Getter(AccessLevel.NONE)
+    private final SingleWriter singleWriter;
+    // null unless widgets are persisted, every write is recorded there before it is acknowledged
+    @Getter(AccessLevel.PACKAGE)
+    private final WriteAheadLog wal;
+    // set once a write could not be committed to the log, what follows could not be replayed on top of what it has
+    @Getter(AccessLevel.NONE)
+    private RuntimeException walFailure;
+    // null unless widgets are persisted to the database, every write marks the widgets it changed there
+    @Getter(AccessLevel.PACKAGE)
+    private final WriteBehind writeBehind;
+
+    @Autowired
+    public WidgetRepositoryInMemory(RepositoryProperties properties, MeterRegistry meterRegistry) {
+        this(properties, meterRegistry, "memory", null);
+    }
+
+    /**
+     * @param repository  type of the repository, as configured
+     * @param writeBehind widgets are loaded from there and written back to it, null for none
+     */
+    WidgetRepositoryInMemory(RepositoryProperties properties, MeterRegistry meterRegistry, String repository,
+                             WriteBehind writeBehind) {
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+        this.readLock = RepositoryMetrics.timed(lock.readLock(), properties, meterRegistry, repository, "read");
+        this.writeLock = RepositoryMetrics.timed(lock.writeLock(), properties, meterRegistry, repository, "write");
+        this.grid = new SpatialGrid<>(properties.getGridCellSize());
+        this.collisionPolicy = properties.getCollisionPolicy();
+        this.shiftedWidgets = RepositoryMetrics.shiftedWidgets(meterRegistry, collisionPolicy);
+        // the database is where written behind widgets are kept, a log next to it would be replayed on top of them
+        this.wal = properties.getWalDirectory() == null || writeBehind != null ? null
+                : WriteAheadLog.open(Paths.get(properties.getWalDirectory()), properties.getWalSync(),
+                properties.getWalSnapshotBytes(), new Recovery(), () -> storage.page(0, storage.size()));
+        this.singleWriter = properties.isSingleWriter()
+                ? new SingleWriter(properties.getWriteQueueCapacity(), writeLock, widgets -> logged(() -> {
+                    insertAll(widgets);
+                    return copies(widgets);
+                }), meterRegistry)
+                : null;
+        this.writeBehind = writeBehind;
+        if (writeBehind != null) {
+            new Recovery().load(writeBehind.load());
+            writeBehind.start(readLock, idIndex::get);
+        }
+    }
 
     @Override
     public Widget save(Widget widget) {
-        lock.writeLock().lock();
-        try {
-            moveIfZIndexCollision(widget);
-            storage.add(widget);
-            return widget;
-        } finally {
-            lock.writeLock().unlock();
+        Widget stored = copy(widget);
+        if (singleWriter == null) {
+            return write(() -> saveOne(stored));
         }
+        awaitWriteBehind();
+        Widget saved = singleWriter.save(stored, () -> logged(() -> saveOne(stored)));
+        syncWal();
+        return saved;
+    }
+
+    @Override
+    public List<Widget> saveAll(List<Widget> widgets) {
+        List<Widget> stored = copies(widgets);
+        return write(() -> {
+            insertAll(stored);
+            return copies(stored);
+        });
     }
 
     @Override
     public Optional<Widget> findFirstByOrderByZDesc() {
-        lock.readLock().lock();
+        readLock.lock();
         try {
-            return storage.isEmpty() ? Optional.empty() : Optional.of(storage.last());
+            return Optional.ofNullable(storage.last()).map(WidgetRepositoryInMemory::copy);
         } finally {
-            lock.readLock().unlock();
+            readLock.unlock();
         }
     }
 
     @Override
     public Page<Widget> findByOrderByZAsc(Pageable pageable) {
-        lock.readLock().lock();
+        readLock.lock();
+        try {
+            return new PageImpl<>(copies(storage.page(pageable.getOffset(), pageable.getPageSize())), pageable,
+                    storage.size());
+        } finally {
+            readLock.unlock();
+        }
+
+    }
+
+    @Override
+    public Page<Widget> findInRegion(Region region, Pageable pageable) {
+        readLock.lock();
         try {
-            List<Widget> list = storage.stream()
-                    .skip(pageable.getOffset())
-                    .limit(pageable.getPageSize())
+            List<Widget> widgets = grid.candidates(region.getX1(), region.getY1(), region.getX2(), region.getY2())
+                    .stream()
+                    .filter(widget -> widget.intersects(region))
+                    .sorted(Comparator.comparing(Widget::getZ))
+                    .map(WidgetRepositoryInMemory::copy)
                     .collect(Collectors.toList());
-            return new PageImpl<>(list, pageable, storage.size());
+            return PageUtils.page(widgets, pageable);
         } finally {
-            lock.readLock().unlock();
+            readLock.unlock();
         }
+    }
 
+    @Override
+    public List<Widget> findTopmostAt(List<Point> points) {
+        readLock.lock();
+        try {
+            List<Widget> widgets = new ArrayList<>(points.size());
+            for (Point point : points) {
+                widgets.add(grid.candidates(point.getX(), point.getY(), point.getX(), point.getY())
+                        .stream()
+                        .filter(widget -> widget.contains(point))
+                        .max(Comparator.comparing(Widget::getZ))
+                        .map(WidgetRepositoryInMemory::copy)
+                        .orElse(null));
+            }
+            return widgets;
+        } finally {
+            readLock.unlock();
+        }
     }
 
     @Override
     public Collection<Widget> findByZGreaterThanEqualOrderByZAsc(Widget widget) {
-        lock.readLock().lock();
+        readLock.lock();
         try {
-            return storage.tailSet(widget);
+            return copies(storage.tail(widget.getZ()));
         } finally {
-            lock.readLock().unlock();
+            readLock.unlock();
         }
     }
 
     public Optional<Widget> findFirstByZ(Integer zIndex) {
-        lock.readLock().lock();
+        readLock.lock();
+        try {
+            return Optional.ofNullable(storage.get(zIndex)).map(WidgetRepositoryInMemory::copy);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Widget> findAfterZ(Integer afterZ, int limit) {
+        readLock.lock();
         try {
-            return storage.stream()
-                    .filter(w -> w.getZ().equals(zIndex))
-                    .findFirst();
+            return copies(afterZ == null ? storage.page(0, limit) : storage.from(afterZ, false, limit));
         } finally {
-            lock.readLock().unlock();
+            readLock.unlock();
         }
     }
 
+    /**
+     * fetched in chunks of {@link #findAfterZ} without holding the lock in between, fails once a write moved widgets
+     */
+    @Override
+    public Stream<Widget> streamByOrderByZAsc() {
+        return ZOrderChunks.stream(this::findAfterZ, () -> moves);
+    }
+
     @Override
     public Optional<Widget> findById(UUID id) {
-        lock.readLock().lock();
+        readLock.lock();
         try {
-            return storage.stream()
-                    .filter(w -> w.getId().equals(id))
-                    .findFirst();
+            return Optional.ofNullable(idIndex.get(id)).map(WidgetRepositoryInMemory::copy);
         } finally {
-            lock.readLock().unlock();
+            readLock.unlock();
         }
     }
 
     @Override
     public void deleteById(UUID id) {
-        lock.writeLock().lock();
-        try {
-            boolean deleted = storage.removeIf(w -> w.getId().equals(id));
-            if (!deleted) {
+        write(() -> {
+            Widget widget = idIndex.remove(id);
+            if (widget == null) {
                 throw new WidgetNotFoundException(id);
             }
-        } finally {
-            lock.writeLock().unlock();
-        }
+            storage.remove(widget.getZ());
+            grid.remove(widget);
+            logRemove(id);
+            return widget;
+        });
     }
 
     @Override
     public void delete(Widget widget) {
-        lock.writeLock().lock();
-        try {
-            storage.remove(widget);
-        } finally {
-            lock.writeLock().unlock();
-        }
+        write(() -> {
+            Widget stored = idIndex.remove(widget.getId());
+            if (stored != null) {
+                storage.remove(stored.getZ());
+                grid.remove(stored);
+                logRemove(stored.getId());
+            }
+            return stored;
+        });
     }
 
     @Override
     public Widget update(UUID id, WidgetPatchRequest patchRequest) {
-        lock.writeLock().lock();
-        try {
-            Widget widget = storage.stream()
-                    .filter(w -> w.getId().equals(id))
-                    .findFirst()
+        return write(() -> {
+            Widget widget = Optional.ofNullable(idIndex.get(id))
                     .orElseThrow(() -> new WidgetNotFoundException(id));
-            storage.remove(widget);
-            BeanUtils.copyProperties(patchRequest, widget, ObjectUtils.getNullPropertyNames(patchRequest));
+            // a widget keeping its z keeps its place in the storage, nothing collides
+            boolean movesZ = patchRequest.movesZ(widget);
+            if (movesZ) {
+                storage.remove(widget.getZ());
+                moves++;
+            }
+            grid.remove(widget);
+            logRemove(id);
+            patchRequest.applyTo(widget);
             widget.setLastUpdated(LocalDateTime.now());
-            moveIfZIndexCollision(widget);
-            storage.add(widget);
-            return widget;
+            if (movesZ) {
+                moveIfZIndexCollision(widget);
+                storage.insert(widget);
+            }
+            grid.add(widget, widget);
+            logPut(widget);
+            return copy(widget);
+        });
+    }
+
+    @Override
+    public List<Widget> updateAll(List<WidgetBatchPatchRequest> patchRequests) {
+        return write(() -> {
+            List<Widget> widgets = new ArrayList<>(patchRequests.size());
+            for (WidgetBatchPatchRequest patchRequest : patchRequests) {
+                widgets.add(Optional.ofNullable(idIndex.get(patchRequest.getId()))
+                        .orElseThrow(() -> new WidgetNotFoundException(patchRequest.getId())));
+            }
+            widgets.forEach(widget -> {
+                storage.remove(widget.getZ());
+                grid.remove(widget);
+                logRemove(widget.getId());
+            });
+            moves++;
+            LocalDateTime now = LocalDateTime.now();
+            for (int i = 0; i < widgets.size(); i++) {
+                patchRequests.get(i).applyTo(widgets.get(i));
+                widgets.get(i).setLastUpdated(now);
+            }
+            insertAll(widgets);
+            return copies(widgets);
+        });
+    }
+
+    @Override
+    public void destroy() {
+        if (singleWriter != null) {
+            singleWriter.shutdown();
+        }
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+        if (wal != null) {
+            writeLock.lock();
+            try {
+                wal.close();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * writes every widget to a new snapshot and starts a new write ahead log, done on its own once the log is due
+     */
+    void snapshot() {
+        writeLock.lock();
+        try {
+            wal.snapshot();
         } finally {
-            lock.writeLock().unlock();
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * runs the write on the single writer thread when there is one, under writeLock on the calling thread otherwise
+     */
+    private <T> T write(Supplier<T> action) {
+        awaitWriteBehind();
+        T result;
+        if (singleWriter != null) {
+            result = singleWriter.submit(() -> logged(action));
+        } else {
+            writeLock.lock();
+            try {
+                result = logged(action);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        syncWal();
+        return result;
+    }
+
+    /**
+     * used only under writeLock, commits what the write recorded as one entry of the write ahead log.
+     * A write is applied before it is committed, so once a commit fails the memory holds a change the log does not,
+     * every write after it is rejected and the repository recovers the committed state on its next start.
+     */
+    private <T> T logged(Supplier<T> action) {
+        if (wal == null) {
+            return action.get();
+        }
+        if (walFailure != null) {
+            throw new RepositoryClosedException(walFailure);
+        }
+        T result;
+        try {
+            result = action.get();
+        } catch (RuntimeException e) {
+            wal.discard();
+            throw e;
+        }
+        try {
+            wal.commit();
+        } catch (RuntimeException e) {
+            walFailure = e;
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * used outside of writeLock, so a group commit can cover the writes of other threads too
+     */
+    private void syncWal() {
+        if (wal != null) {
+            wal.sync();
+        }
+    }
+
+    /**
+     * used outside of writeLock, flushes to the database first when it is too far behind
+     */
+    private void awaitWriteBehind() {
+        if (writeBehind != null) {
+            writeBehind.awaitCapacity();
+        }
+    }
+
+    private void logPut(Widget widget) {
+        if (wal != null) {
+            wal.put(widget);
+        }
+        if (writeBehind != null) {
+            writeBehind.mark(widget.getId());
+        }
+    }
+
+    private void logRemove(UUID id) {
+        if (wal != null) {
+            wal.remove(id);
+        }
+        if (writeBehind != null) {
+            writeBehind.mark(id);
+        }
+    }
+
+    /**
+     * the write ahead log records a shift once for all the widgets it moved, the write behind needs each of them
+     */
+    private void logShifted(Widget widget) {
+        if (writeBehind != null) {
+            writeBehind.mark(widget.getId());
+        }
+    }
+
+    private void logShift(int from, int to, int by, LocalDateTime at) {
+        if (wal != null) {
+            wal.shift(from, to, by, at);
         }
     }
 
     /**
      * used only under writeLock
-     * @param widget
+     * @param widget owned by the repository from now on
+     * @return copy of the saved widget
      */
-    private void moveIfZIndexCollision(Widget widget) {
-        storage.stream()
-                .filter(w -> w.getZ().equals(widget.getZ()))
-                .findFirst()
-                .ifPresent(this::moveWidgetsGreaterThanToForegroundByOne);
+    private Widget saveOne(Widget widget) {
+        moveIfZIndexCollision(widget);
+        storage.insert(widget);
+        idIndex.put(widget.getId(), widget);
+        grid.add(widget, widget);
+        logPut(widget);
+        return copy(widget);
+    }
+
+    /**
+     * used only under writeLock, places the widgets at their z in one pass
+     * @param widgets not in the storage
+     */
+    private void insertAll(List<Widget> widgets) {
+        List<BatchPlacement.Shift> shifts = BatchPlacement.place(widgets, collisionPolicy, storage);
+        LocalDateTime now = LocalDateTime.now();
+        int shifted = 0;
+        // highest first, so the widgets stay in z order after every step
+        for (int i = shifts.size() - 1; i >= 0; i--) {
+            BatchPlacement.Shift shift = shifts.get(i);
+            logShift(shift.getFrom(), shift.getTo(), shift.getBy(), now);
+            for (Widget widget : storage.range(shift.getFrom(), shift.getTo())) {
+                widget.setZ(widget.getZ() + shift.getBy());
+                widget.setLastUpdated(now);
+                logShifted(widget);
+                shifted++;
+            }
+        }
+        shiftedWidgets.record(shifted);
+        if (shifted > 0) {
+            moves++;
+        }
+        widgets.forEach(widget -> {
+            storage.insert(widget);
+            idIndex.put(widget.getId(), widget);
+            grid.add(widget, widget);
+            logPut(widget);
+        });
     }
 
     /**
      * used only under writeLock
      * @param widget
      */
-    private void moveWidgetsGreaterThanToForegroundByOne(Widget widget) {
-        this.findByZGreaterThanEqualOrderByZAsc(widget)
-                .forEach(w -> {
-                    w.incrementZ();
-                    w.setLastUpdated(LocalDateTime.now());
-                    storage.add(w);
-                });
+    private void moveIfZIndexCollision(Widget widget) {
+        int shifted = storage.containsZ(widget.getZ()) ? moveWidgetsGreaterThanToForegroundByOne(widget.getZ()) : 0;
+        shiftedWidgets.record(shifted);
+    }
+
+    /**
+     * used only under writeLock, shifting the whole tail or a run ending at a gap by one keeps the order
+     * so z is incremented in place
+     * @param z
+     * @return number of widgets shifted
+     */
+    private int moveWidgetsGreaterThanToForegroundByOne(Integer z) {
+        List<Widget> widgets = collisionPolicy == CollisionPolicy.SHIFT_UNTIL_GAP ? storage.run(z) : storage.tail(z);
+        LocalDateTime now = LocalDateTime.now();
+        if (!widgets.isEmpty()) {
+            moves++;
+            logShift(z, collisionPolicy == CollisionPolicy.SHIFT_UNTIL_GAP ? widgets.get(widgets.size() - 1).getZ()
+                    : Integer.MAX_VALUE, 1, now);
+        }
+        widgets.forEach(w -> {
+            w.incrementZ();
+            w.setLastUpdated(now);
+            logShifted(w);
+        });
+        return widgets.size();
+    }
+
+    /**
+     * rebuilds the storage from the write ahead log while the repository is constructed
+     */
+    private class Recovery implements WriteAheadLog.Replay {
+        @Override
+        public void load(List<Widget> widgets) {
+            storage.appendAll(widgets);
+            widgets.forEach(widget -> {
+                idIndex.put(widget.getId(), widget);
+                grid.add(widget, widget);
+            });
+        }
+
+        @Override
+        public void put(Widget widget) {
+            storage.insert(widget);
+            idIndex.put(widget.getId(), widget);
+            grid.add(widget, widget);
+        }
+
+        @Override
+        public void remove(UUID id) {
+            Widget widget = idIndex.remove(id);
+            storage.remove(widget.getZ());
+            grid.remove(widget);
+        }
+
+        @Override
+        public void shift(int from, int to, int by, LocalDateTime at) {
+            for (Widget widget : storage.range(from, to)) {
+                widget.setZ(widget.getZ() + by);
+                widget.setLastUpdated(at);
+            }
+        }
+    }
+
+    private static List<Widget> copies(List<Widget> widgets) {
+        return widgets.stream().map(WidgetRepositoryInMemory::copy).collect(Collectors.toList());
+    }
+
+    /**
+     * stored widgets are shifted in place, only copies taken under the lock leave the repository
+     */
+    private static Widget copy(Widget widget) {
+        return widget.toBuilder().build();
     }
 }
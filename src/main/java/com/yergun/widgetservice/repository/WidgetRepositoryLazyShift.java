@@ -0,0 +1,310 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.exception.WidgetNotFoundException;
+import com.yergun.widgetservice.model.Point;
+import com.yergun.widgetservice.model.Region;
+import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetBatchPatchRequest;
+import com.yergun.widgetservice.model.WidgetPatchRequest;
+import com.yergun.widgetservice.util.PageUtils;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In memory implementation where a z collision shifts the widgets above it lazily,
+ * inserting at an occupied z costs O(log n) no matter how many widgets are above it.
+ * Stored widgets are never handed out, reads return copies with the effective z and lastUpdated.
+ * A shift always moves the whole tail, it refuses to start with any other collision policy.
+ */
+@ConditionalOnProperty(name = "application.repository.type", havingValue = "lazy-shift")
+@Repository
+@Getter(AccessLevel.PACKAGE)
+public class WidgetRepositoryLazyShift implements InMemoryWidgetRepository {
+
+    private final ZIndexTree storage = new ZIndexTree(ZIndexTree.View.COPY);
+    private final Map<UUID, ZIndexTree.Node> idIndex = new HashMap<>();
+    private final SpatialGrid<ZIndexTree.Node> grid;
+    private final Lock readLock;
+    private final Lock writeLock;
+    @Getter(AccessLevel.NONE)
+    private final DistributionSummary shiftedWidgets;
+    @Getter(AccessLevel.NONE)
+    // writes that moved a stored widget to another z, an export in chunks is only valid while it stays the same
+    private volatile long moves;
+
+    public WidgetRepositoryLazyShift(RepositoryProperties properties, MeterRegistry meterRegistry) {
+        if (properties.getCollisionPolicy() != CollisionPolicy.SHIFT_ALL) {
+            throw new IllegalStateException("The lazy-shift repository only supports the shift-all collision policy, "
+                    + "not " + properties.getCollisionPolicy());
+        }
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+        this.readLock = RepositoryMetrics.timed(lock.readLock(), properties, meterRegistry, "lazy-shift", "read");
+        this.writeLock = RepositoryMetrics.timed(lock.writeLock(), properties, meterRegistry, "lazy-shift", "write");
+        this.grid = new SpatialGrid<>(properties.getGridCellSize());
+        this.shiftedWidgets = RepositoryMetrics.shiftedWidgets(meterRegistry, CollisionPolicy.SHIFT_ALL);
+    }
+
+    @Override
+    public Widget save(Widget widget) {
+        writeLock.lock();
+        try {
+            return insert(widget.toBuilder().build(), LocalDateTime.now());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Widget> saveAll(List<Widget> widgets) {
+        writeLock.lock();
+        try {
+            return insertAll(widgets.stream().map(w -> w.toBuilder().build()).collect(Collectors.toList()),
+                    LocalDateTime.now());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<Widget> findFirstByOrderByZDesc() {
+        readLock.lock();
+        try {
+            return Optional.ofNullable(storage.last());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public Page<Widget> findByOrderByZAsc(Pageable pageable) {
+        readLock.lock();
+        try {
+            return new PageImpl<>(storage.page(pageable.getOffset(), pageable.getPageSize()), pageable, storage.size());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public Page<Widget> findInRegion(Region region, Pageable pageable) {
+        readLock.lock();
+        try {
+            List<Widget> widgets = grid.candidates(region.getX1(), region.getY1(), region.getX2(), region.getY2())
+                    .stream()
+                    .map(storage::widgetOf)
+                    .filter(widget -> widget.intersects(region))
+                    .sorted(Comparator.comparing(Widget::getZ))
+                    .collect(Collectors.toList());
+            return PageUtils.page(widgets, pageable);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Widget> findTopmostAt(List<Point> points) {
+        readLock.lock();
+        try {
+            List<Widget> widgets = new ArrayList<>(points.size());
+            for (Point point : points) {
+                widgets.add(grid.candidates(point.getX(), point.getY(), point.getX(), point.getY())
+                        .stream()
+                        .map(storage::widgetOf)
+                        .filter(widget -> widget.contains(point))
+                        .max(Comparator.comparing(Widget::getZ))
+                        .orElse(null));
+            }
+            return widgets;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Widget> findByZGreaterThanEqualOrderByZAsc(Widget widget) {
+        readLock.lock();
+        try {
+            return storage.tail(widget.getZ());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<Widget> findFirstByZ(Integer zIndex) {
+        readLock.lock();
+        try {
+            return Optional.ofNullable(storage.get(zIndex));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Widget> findAfterZ(Integer afterZ, int limit) {
+        readLock.lock();
+        try {
+            return afterZ == null ? storage.page(0, limit) : storage.from(afterZ, false, limit);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * fetched in chunks of {@link #findAfterZ} without holding the lock in between, fails once a write moved widgets
+     */
+    @Override
+    public Stream<Widget> streamByOrderByZAsc() {
+        return ZOrderChunks.stream(this::findAfterZ, () -> moves);
+    }
+
+    @Override
+    public Optional<Widget> findById(UUID id) {
+        readLock.lock();
+        try {
+            return Optional.ofNullable(idIndex.get(id)).map(storage::widgetOf);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public void deleteById(UUID id) {
+        writeLock.lock();
+        try {
+            ZIndexTree.Node node = idIndex.remove(id);
+            if (node == null) {
+                throw new WidgetNotFoundException(id);
+            }
+            storage.remove(storage.widgetOf(node).getZ());
+            grid.remove(node);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(Widget widget) {
+        writeLock.lock();
+        try {
+            ZIndexTree.Node node = idIndex.remove(widget.getId());
+            if (node != null) {
+                storage.remove(storage.widgetOf(node).getZ());
+                grid.remove(node);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Widget update(UUID id, WidgetPatchRequest patchRequest) {
+        writeLock.lock();
+        try {
+            ZIndexTree.Node node = Optional.ofNullable(idIndex.get(id))
+                    .orElseThrow(() -> new WidgetNotFoundException(id));
+            Widget widget = storage.widgetOf(node);
+            storage.remove(widget.getZ());
+            grid.remove(node);
+            if (patchRequest.applyTo(widget)) {
+                moves++;
+            }
+            LocalDateTime now = LocalDateTime.now();
+            widget.setLastUpdated(now);
+            return insert(widget, now);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Widget> updateAll(List<WidgetBatchPatchRequest> patchRequests) {
+        writeLock.lock();
+        try {
+            List<ZIndexTree.Node> nodes = new ArrayList<>(patchRequests.size());
+            for (WidgetBatchPatchRequest patchRequest : patchRequests) {
+                nodes.add(Optional.ofNullable(idIndex.get(patchRequest.getId()))
+                        .orElseThrow(() -> new WidgetNotFoundException(patchRequest.getId())));
+            }
+            List<Widget> widgets = nodes.stream().map(storage::widgetOf).collect(Collectors.toList());
+            widgets.forEach(widget -> storage.remove(widget.getZ()));
+            nodes.forEach(grid::remove);
+            LocalDateTime now = LocalDateTime.now();
+            boolean movesZ = false;
+            for (int i = 0; i < widgets.size(); i++) {
+                movesZ |= patchRequests.get(i).applyTo(widgets.get(i));
+                widgets.get(i).setLastUpdated(now);
+            }
+            if (movesZ) {
+                moves++;
+            }
+            return insertAll(widgets, now);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * used only under writeLock, always shifts all,
+     * stored widgets above the collisions are moved by a single tag per distinct colliding z
+     * @param widgets owned by the storage from now on
+     * @param now time of the shifts
+     * @return copies of the stored widgets
+     */
+    private List<Widget> insertAll(List<Widget> widgets, LocalDateTime now) {
+        List<BatchPlacement.Shift> shifts = BatchPlacement.place(widgets, CollisionPolicy.SHIFT_ALL, storage);
+        int shifted = 0;
+        // shifts run up to the top with a growing amount, the highest is applied first so lower z stay put,
+        // the lowest moves every widget any of them moves
+        for (int i = shifts.size() - 1; i >= 0; i--) {
+            int below = i == 0 ? 0 : shifts.get(i - 1).getBy();
+            shifted = storage.shiftFrom(shifts.get(i).getFrom(), shifts.get(i).getBy() - below, now);
+        }
+        shiftedWidgets.record(shifted);
+        if (shifted > 0) {
+            moves++;
+        }
+        List<ZIndexTree.Node> nodes = new ArrayList<>(widgets.size());
+        widgets.forEach(widget -> {
+            ZIndexTree.Node node = storage.insert(widget);
+            idIndex.put(widget.getId(), node);
+            grid.add(node, widget);
+            nodes.add(node);
+        });
+        return nodes.stream().map(storage::widgetOf).collect(Collectors.toList());
+    }
+
+    /**
+     * used only under writeLock
+     * @param widget owned by the storage from now on
+     * @param now time of the shift if the z collides
+     * @return copy of the stored widget
+     */
+    private Widget insert(Widget widget, LocalDateTime now) {
+        if (storage.containsZ(widget.getZ())) {
+            shiftedWidgets.record(storage.shiftFrom(widget.getZ(), now));
+            moves++;
+        } else {
+            shiftedWidgets.record(0);
+        }
+        ZIndexTree.Node node = storage.insert(widget);
+        idIndex.put(widget.getId(), node);
+        grid.add(node, widget);
+        return storage.widgetOf(node);
+    }
+}
@@ -0,0 +1,434 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.exception.WidgetNotFoundException;
+import com.yergun.widgetservice.model.*;
+import com.yergun.widgetservice.util.PageUtils;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In memory implementation where reads never lock. All the state is an immutable {@link Version}
+ * made of persistent trees, writers build the next version off the current one, sharing everything they
+ * do not touch, and publish it with a single volatile write. A read works on the version it started with,
+ * so a page and its total always agree.
+ * Writers are serialized by a plain lock, stored widgets are never mutated, reads hand out copies.
+ *
+ * The widgets are ordered by a label that never changes while they are stored, their z is a lazy
+ * {@link PersistentTreap.Shift} on top of it, so a z collision copies O(log n) nodes however many widgets it moves.
+ * Ids point at labels, which a shift does not touch. A widget placed between two labels with no room left
+ * between them relabels the smallest aligned range of labels that is sparse enough, evenly, which takes
+ * O(log n) relabels amortized (the order maintenance of Bender et al.).
+ */
+@ConditionalOnProperty(name = "application.repository.type", havingValue = "snapshot")
+@Repository
+public class WidgetRepositorySnapshot implements InMemoryWidgetRepository {
+
+    private static final int LABEL_BITS = 62;
+    private static final long NO_LABEL_ABOVE = 1L << LABEL_BITS;
+    private static final long LABEL_GAP = 1L << 32;
+    // a range of 2^j labels is sparse enough to relabel with fewer than (2 / DENSITY)^j widgets in it
+    private static final double DENSITY = 1.4;
+
+    /**
+     * A stored widget and its label, the widget is in z order with the others as long as it is stored
+     */
+    private static final class Entry {
+        private final long label;
+        private final Widget widget;
+
+        private Entry(long label, Widget widget) {
+            this.label = label;
+            this.widget = widget;
+        }
+
+        private int z() {
+            return widget.getZ();
+        }
+    }
+
+    private static final class Handle {
+        private final UUID id;
+        private final long label;
+
+        private Handle(UUID id, long label) {
+            this.id = id;
+            this.label = label;
+        }
+    }
+
+    /**
+     * moves a whole range of widgets up, the latest time they were shifted at wins
+     */
+    private static final class ZShift implements PersistentTreap.Shift<Entry> {
+        private final int by;
+        private final LocalDateTime at;
+
+        private ZShift(int by, LocalDateTime at) {
+            this.by = by;
+            this.at = at;
+        }
+
+        @Override
+        public Entry applyTo(Entry entry) {
+            return new Entry(entry.label,
+                    entry.widget.toBuilder().z(entry.z() + by).lastUpdated(at).build());
+        }
+
+        @Override
+        public PersistentTreap.Shift<Entry> and(PersistentTreap.Shift<Entry> other) {
+            ZShift shift = (ZShift) other;
+            return new ZShift(by + shift.by, at.isAfter(shift.at) ? at : shift.at);
+        }
+    }
+
+    private static final class Version {
+        private final PersistentTreap<Long, Entry> byZ;
+        private final PersistentTreap<UUID, Handle> byId;
+        private final PersistentSpatialGrid grid;
+
+        private Version(PersistentTreap<Long, Entry> byZ, PersistentTreap<UUID, Handle> byId,
+                        PersistentSpatialGrid grid) {
+            this.byZ = byZ;
+            this.byId = byId;
+            this.grid = grid;
+        }
+
+        private Widget get(UUID id) {
+            Handle handle = byId.get(id);
+            return handle == null ? null : byZ.get(handle.label).widget;
+        }
+    }
+
+    private volatile Version version;
+    private final Lock writeLock;
+    private final CollisionPolicy collisionPolicy;
+    private final DistributionSummary shiftedWidgets;
+
+    public WidgetRepositorySnapshot(RepositoryProperties properties, MeterRegistry meterRegistry) {
+        this.version = new Version(
+                PersistentTreap.empty(entry -> entry.label, Comparator.naturalOrder()),
+                PersistentTreap.empty(handle -> handle.id, Comparator.naturalOrder()),
+                PersistentSpatialGrid.empty(properties.getGridCellSize()));
+        this.collisionPolicy = properties.getCollisionPolicy();
+        this.shiftedWidgets = RepositoryMetrics.shiftedWidgets(meterRegistry, collisionPolicy);
+        this.writeLock = RepositoryMetrics.timed(new ReentrantLock(), properties, meterRegistry, "snapshot", "write");
+    }
+
+    @Override
+    public Widget save(Widget widget) {
+        return saveAll(List.of(widget)).get(0);
+    }
+
+    @Override
+    public List<Widget> saveAll(List<Widget> widgets) {
+        List<Widget> copies = widgets.stream().map(WidgetRepositorySnapshot::copy).collect(Collectors.toList());
+        writeLock.lock();
+        try {
+            Draft draft = new Draft(version);
+            draft.insertAll(copies);
+            version = draft.toVersion();
+        } finally {
+            writeLock.unlock();
+        }
+        return copies.stream().map(WidgetRepositorySnapshot::copy).collect(Collectors.toList());
+    }
+
+    @Override
+    public Optional<Widget> findFirstByOrderByZDesc() {
+        return Optional.ofNullable(version.byZ.last()).map(entry -> copy(entry.widget));
+    }
+
+    @Override
+    public Page<Widget> findByOrderByZAsc(Pageable pageable) {
+        PersistentTreap<Long, Entry> byZ = version.byZ;
+        return new PageImpl<>(copies(byZ.page(pageable.getOffset(), pageable.getPageSize())), pageable, byZ.size());
+    }
+
+    @Override
+    public Page<Widget> findInRegion(Region region, Pageable pageable) {
+        Version current = version;
+        List<Widget> widgets = current.grid.candidates(region.getX1(), region.getY1(), region.getX2(), region.getY2())
+                .stream()
+                .map(current::get)
+                .filter(widget -> widget.intersects(region))
+                .sorted(Comparator.comparing(Widget::getZ))
+                .map(WidgetRepositorySnapshot::copy)
+                .collect(Collectors.toList());
+        return PageUtils.page(widgets, pageable);
+    }
+
+    @Override
+    public List<Widget> findTopmostAt(List<Point> points) {
+        Version current = version;
+        List<Widget> widgets = new ArrayList<>(points.size());
+        for (Point point : points) {
+            widgets.add(current.grid.candidates(point.getX(), point.getY(), point.getX(), point.getY())
+                    .stream()
+                    .map(current::get)
+                    .filter(widget -> widget.contains(point))
+                    .max(Comparator.comparing(Widget::getZ))
+                    .map(WidgetRepositorySnapshot::copy)
+                    .orElse(null));
+        }
+        return widgets;
+    }
+
+    @Override
+    public Collection<Widget> findByZGreaterThanEqualOrderByZAsc(Widget widget) {
+        return copies(version.byZ.after(below(widget.getZ()), Integer.MAX_VALUE));
+    }
+
+    @Override
+    public Optional<Widget> findFirstByZ(Integer zIndex) {
+        return Optional.ofNullable(at(version.byZ, zIndex)).map(WidgetRepositorySnapshot::copy);
+    }
+
+    @Override
+    public List<Widget> findAfterZ(Integer afterZ, int limit) {
+        return after(version.byZ, afterZ, limit);
+    }
+
+    /**
+     * every chunk is read from the version current when the stream was opened, so the whole stream is one point in time
+     */
+    @Override
+    public Stream<Widget> streamByOrderByZAsc() {
+        PersistentTreap<Long, Entry> byZ = version.byZ;
+        return ZOrderChunks.stream((afterZ, limit) -> after(byZ, afterZ, limit));
+    }
+
+    @Override
+    public Optional<Widget> findById(UUID id) {
+        return Optional.ofNullable(version.get(id)).map(WidgetRepositorySnapshot::copy);
+    }
+
+    @Override
+    public void deleteById(UUID id) {
+        writeLock.lock();
+        try {
+            Draft draft = new Draft(version);
+            draft.remove(draft.get(id));
+            version = draft.toVersion();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(Widget widget) {
+        writeLock.lock();
+        try {
+            Draft draft = new Draft(version);
+            Widget stored = draft.find(widget.getId());
+            if (stored != null) {
+                draft.remove(stored);
+                version = draft.toVersion();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Widget update(UUID id, WidgetPatchRequest patchRequest) {
+        return updateAll(List.of(new WidgetBatchPatchRequest(id, patchRequest))).get(0);
+    }
+
+    @Override
+    public List<Widget> updateAll(List<WidgetBatchPatchRequest> patchRequests) {
+        List<Widget> widgets = new ArrayList<>(patchRequests.size());
+        writeLock.lock();
+        try {
+            Draft draft = new Draft(version);
+            List<Widget> stored = patchRequests.stream()
+                    .map(patchRequest -> draft.get(patchRequest.getId()))
+                    .collect(Collectors.toList());
+            stored.forEach(draft::remove);
+            LocalDateTime now = LocalDateTime.now();
+            for (int i = 0; i < stored.size(); i++) {
+                Widget widget = copy(stored.get(i));
+                patchRequests.get(i).applyTo(widget);
+                widget.setLastUpdated(now);
+                widgets.add(widget);
+            }
+            draft.insertAll(widgets);
+            version = draft.toVersion();
+        } finally {
+            writeLock.unlock();
+        }
+        return widgets.stream().map(WidgetRepositorySnapshot::copy).collect(Collectors.toList());
+    }
+
+    /**
+     * Next version under construction, only touched by the writer holding the lock
+     */
+    private class Draft implements BatchPlacement.StoredZ {
+        private PersistentTreap<Long, Entry> byZ;
+        private PersistentTreap<UUID, Handle> byId;
+        private PersistentSpatialGrid grid;
+
+        private Draft(Version version) {
+            this.byZ = version.byZ;
+            this.byId = version.byId;
+            this.grid = version.grid;
+        }
+
+        private Version toVersion() {
+            return new Version(byZ, byId, grid);
+        }
+
+        private Widget find(UUID id) {
+            Handle handle = byId.get(id);
+            return handle == null ? null : byZ.get(handle.label).widget;
+        }
+
+        private Widget get(UUID id) {
+            return Optional.ofNullable(find(id)).orElseThrow(() -> new WidgetNotFoundException(id));
+        }
+
+        private void remove(Widget widget) {
+            byZ = byZ.remove(byId.get(widget.getId()).label);
+            byId = byId.remove(widget.getId());
+            grid = grid.remove(widget);
+        }
+
+        /**
+         * @param widgets owned by the version from now on, their z is replaced by the one they are placed at
+         */
+        private void insertAll(List<Widget> widgets) {
+            List<BatchPlacement.Shift> shifts = BatchPlacement.place(widgets, collisionPolicy, this);
+            LocalDateTime now = LocalDateTime.now();
+            int shifted = 0;
+            // highest first, so the widgets stay in z order after every step
+            for (int i = shifts.size() - 1; i >= 0; i--) {
+                BatchPlacement.Shift shift = shifts.get(i);
+                Predicate<Entry> before = below(shift.getFrom());
+                Predicate<Entry> through = below(shift.getTo() + 1L);
+                shifted += byZ.count(through) - byZ.count(before);
+                byZ = byZ.shift(before, through, new ZShift(shift.getBy(), now));
+            }
+            shiftedWidgets.record(shifted);
+            for (Widget widget : widgets) {
+                long label = labelFor(widget.getZ());
+                byZ = byZ.put(new Entry(label, widget));
+                byId = byId.put(new Handle(widget.getId(), label));
+                grid = grid.add(widget);
+            }
+        }
+
+        /**
+         * @param z free
+         * @return an unused label between the labels of the widgets below and above the z
+         */
+        private long labelFor(int z) {
+            Entry lower = byZ.lastOf(below(z));
+            Entry upper = byZ.first(below(z));
+            long from = lower == null ? -1 : lower.label;
+            long to = upper == null ? NO_LABEL_ABOVE : upper.label;
+            if (to - from < 2) {
+                relabel(lower == null ? upper.label : lower.label);
+                return labelFor(z);
+            }
+            if (lower == null && upper == null) {
+                return NO_LABEL_ABOVE / 2;
+            }
+            // on top or at the bottom a wide gap is left, the next widget put there likely goes on the same side
+            if (upper == null) {
+                return from + Math.min(LABEL_GAP, (to - from) / 2);
+            }
+            if (lower == null) {
+                return to - Math.min(LABEL_GAP, (to - from) / 2);
+            }
+            return from + (to - from) / 2;
+        }
+
+        /**
+         * spreads the labels of the smallest aligned range around the given label sparse enough for one more
+         */
+        private void relabel(long label) {
+            for (int bits = 1; bits <= LABEL_BITS; bits++) {
+                long from = label >> bits << bits;
+                long to = from + (1L << bits);
+                int count = byZ.count(entry -> entry.label < to) - byZ.count(entry -> entry.label < from);
+                if (count + 1 < Math.min(Math.pow(2 / DENSITY, bits), 1L << (bits - 1))) {
+                    long step = (1L << bits) / (count + 1);
+                    List<Entry> relabeled = new ArrayList<>(count);
+                    byZ.walkAfter(entry -> entry.label < from, entry -> {
+                        if (entry.label >= to) {
+                            return false;
+                        }
+                        Entry moved = new Entry(from + (relabeled.size() + 1) * step, entry.widget);
+                        relabeled.add(moved);
+                        byId = byId.put(new Handle(moved.widget.getId(), moved.label));
+                        return true;
+                    });
+                    byZ = byZ.replace(from, to, relabeled);
+                    return;
+                }
+            }
+            throw new IllegalStateException("No room left for another widget");
+        }
+
+        @Override
+        public Set<Integer> occupied(Collection<Integer> zs) {
+            return zs.stream().filter(z -> at(byZ, z) != null).collect(Collectors.toSet());
+        }
+
+        @Override
+        public Integer ceiling(int z) {
+            Entry entry = byZ.first(below(z));
+            return entry == null ? null : entry.z();
+        }
+
+        @Override
+        public int endOfRun(int z) {
+            int[] end = {z};
+            byZ.walkAfter(below(z + 1L), entry -> {
+                if (entry.z() != end[0] + 1) {
+                    return false;
+                }
+                end[0]++;
+                return true;
+            });
+            return end[0];
+        }
+    }
+
+    /**
+     * holds for the widgets below the given z
+     */
+    private static Predicate<Entry> below(long z) {
+        return entry -> entry.z() < z;
+    }
+
+    private static Widget at(PersistentTreap<Long, Entry> byZ, int z) {
+        Entry entry = byZ.first(below(z));
+        return entry == null || entry.z() != z ? null : entry.widget;
+    }
+
+    private static List<Widget> after(PersistentTreap<Long, Entry> byZ, Integer afterZ, int limit) {
+        return copies(afterZ == null ? byZ.page(0, limit) : byZ.after(below(afterZ + 1L), limit));
+    }
+
+    private static List<Widget> copies(List<Entry> entries) {
+        return entries.stream().map(entry -> copy(entry.widget)).collect(Collectors.toList());
+    }
+
+    private static Widget copy(Widget widget) {
+        return widget.toBuilder().build();
+    }
+}
@@ -0,0 +1,382 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Widget;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of the changes a write made to the memory repository, next to snapshots of all the widgets.
+ * A write records what it removed, shifted and put, and {@link #commit}s it as one entry, length and checksum first,
+ * so a torn entry at the end is found and dropped on recovery. Replaying the entries in order rebuilds the exact
+ * state, timestamps included, without placing anything again.
+ * Once the log outgrows the configured size all the widgets go to a new snapshot and a new log starts. Files of
+ * generation g are snapshot-g.bin, holding everything before wal-g.log. A snapshot that fails leaves the current
+ * generation as it was, the log keeps growing and the snapshot is tried again once it grew by as much again.
+ *
+ * Not thread safe except {@link #sync}, everything else runs under the write lock of the repository.
+ */
+@Slf4j
+final class WriteAheadLog implements Closeable {
+
+    /**
+     * applies recovered changes, never called once the log is open
+     */
+    interface Replay {
+        /**
+         * every widget of a snapshot in z order, before any other change
+         */
+        void load(List<Widget> widgets);
+
+        void put(Widget widget);
+
+        void remove(UUID id);
+
+        void shift(int from, int to, int by, LocalDateTime at);
+    }
+
+    private static final Pattern FILE_NAME = Pattern.compile("(snapshot|wal)-(\\d+)\\.(bin|log)");
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte SHIFT = 3;
+    private static final int ENTRY_HEADER_BYTES = 2 * Integer.BYTES;
+
+    private final Path directory;
+    private final WalSync walSync;
+    private final long snapshotBytes;
+    private final Supplier<Collection<Widget>> widgets;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer pending = ByteBuffer.allocate(4096);
+    private long generation;
+    private FileChannel channel;
+    // size of the current log at which the next snapshot is taken
+    private long snapshotAt;
+
+    // group commit, bytes appended and forced so far over every generation
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition forced = syncLock.newCondition();
+    private volatile long appended;
+    private long synced;
+    private boolean syncing;
+
+    private WriteAheadLog(Path directory, WalSync walSync, long snapshotBytes, Supplier<Collection<Widget>> widgets) {
+        this.directory = directory;
+        this.walSync = walSync;
+        this.snapshotBytes = snapshotBytes;
+        this.snapshotAt = snapshotBytes;
+        this.widgets = widgets;
+    }
+
+    /**
+     * loads the latest snapshot, replays the logs written after it and opens the last one for appending
+     * @param widgets every stored widget in z order, read under the write lock when a snapshot is taken
+     */
+    static WriteAheadLog open(Path directory, WalSync walSync, long snapshotBytes, Replay replay,
+                              Supplier<Collection<Widget>> widgets) {
+        WriteAheadLog wal = new WriteAheadLog(directory, walSync, snapshotBytes, widgets);
+        try {
+            Files.createDirectories(directory);
+            wal.recover(replay);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return wal;
+    }
+
+    void put(Widget widget) {
+        ensureCapacity(1 + WidgetCodec.BYTES);
+        pending.put(PUT);
+        WidgetCodec.write(pending, widget);
+    }
+
+    void remove(UUID id) {
+        ensureCapacity(1 + WidgetCodec.ID_BYTES);
+        pending.put(REMOVE);
+        WidgetCodec.writeId(pending, id);
+    }
+
+    void shift(int from, int to, int by, LocalDateTime at) {
+        ensureCapacity(1 + 3 * Integer.BYTES + WidgetCodec.TIME_BYTES);
+        pending.put(SHIFT);
+        pending.putInt(from);
+        pending.putInt(to);
+        pending.putInt(by);
+        WidgetCodec.writeTime(pending, at);
+    }
+
+    /**
+     * appends what was recorded since the last commit as one entry, taking a snapshot when the log is due.
+     * Only an entry that could not be appended fails it, the entry is in the log whether the snapshot is taken or not
+     */
+    void commit() {
+        if (pending.position() == 0) {
+            return;
+        }
+        pending.flip();
+        crc.reset();
+        crc.update(pending.duplicate());
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_BYTES);
+        header.putInt(pending.remaining());
+        header.putInt((int) crc.getValue());
+        header.flip();
+        long bytes = header.remaining() + pending.remaining();
+        long size;
+        try {
+            writeFully(channel, header, pending);
+            if (walSync == WalSync.EVERY_WRITE) {
+                channel.force(false);
+            }
+            appended += bytes;
+            size = channel.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            pending.clear();
+        }
+        if (size >= snapshotAt) {
+            try {
+                snapshot();
+            } catch (UncheckedIOException e) {
+                snapshotAt = size + snapshotBytes;
+                log.warn("Snapshot {} failed, appending to {} until it is tried again at {} bytes",
+                        file("snapshot", generation + 1), file("wal", generation), snapshotAt, e);
+            }
+        }
+    }
+
+    /**
+     * drops what was recorded by a write that failed halfway
+     */
+    void discard() {
+        pending.clear();
+    }
+
+    /**
+     * called outside of the write lock, returns once everything committed before the call is forced.
+     * Only {@link WalSync#GROUP} waits, the caller arriving first forces for everyone waiting behind it.
+     */
+    void sync() {
+        if (walSync != WalSync.GROUP) {
+            return;
+        }
+        long target = appended;
+        syncLock.lock();
+        try {
+            while (synced < target) {
+                if (syncing) {
+                    forced.awaitUninterruptibly();
+                    continue;
+                }
+                syncing = true;
+                long upTo = appended;
+                FileChannel current = channel;
+                boolean done = false;
+                syncLock.unlock();
+                try {
+                    current.force(false);
+                    done = true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    syncLock.lock();
+                    syncing = false;
+                    if (done) {
+                        synced = Math.max(synced, upTo);
+                    }
+                    forced.signalAll();
+                }
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * writes every widget to the snapshot of the next generation and starts its log, dropping the older files.
+     * When it fails the current generation is left as it was, appending to it is still safe
+     */
+    void snapshot() {
+        syncLock.lock();
+        try {
+            // a group force may still be running on the channel about to be closed
+            while (syncing) {
+                forced.awaitUninterruptibly();
+            }
+            long next = generation + 1;
+            FileChannel nextChannel = openNext(next);
+            FileChannel previous = channel;
+            long previousGeneration = generation;
+            channel = nextChannel;
+            generation = next;
+            snapshotAt = snapshotBytes;
+            // the snapshot is forced, it covers everything appended so far
+            synced = appended;
+            dropGeneration(previous, previousGeneration);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * the files of a generation a newer snapshot covers, recovery deletes them if they cannot be deleted now
+     */
+    private void dropGeneration(FileChannel channel, long generation) {
+        try {
+            channel.close();
+            Files.deleteIfExists(file("wal", generation));
+            Files.deleteIfExists(file("snapshot", generation));
+        } catch (IOException e) {
+            log.warn("Generation {} left for recovery to delete", generation, e);
+        }
+    }
+
+    /**
+     * a snapshot of the next generation without its log would hide the entries appended to the current one from
+     * recovery, so it is removed again when the log cannot be opened
+     */
+    private FileChannel openNext(long next) throws IOException {
+        Path snapshot = file("snapshot", next);
+        SnapshotFile.write(snapshot, widgets.get());
+        try {
+            return openForAppend(file("wal", next));
+        } catch (IOException e) {
+            try {
+                Files.delete(snapshot);
+            } catch (IOException deleteFailure) {
+                e.addSuppressed(deleteFailure);
+                throw new IllegalStateException("Snapshot without its log left behind: " + snapshot, e);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void recover(Replay replay) throws IOException {
+        TreeMap<Long, Path> snapshots = new TreeMap<>();
+        TreeMap<Long, Path> logs = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(path -> {
+                Matcher matcher = FILE_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    (matcher.group(1).equals("snapshot") ? snapshots : logs).put(Long.parseLong(matcher.group(2)), path);
+                }
+            });
+        }
+        if (!snapshots.isEmpty()) {
+            generation = snapshots.lastKey();
+            replay.load(SnapshotFile.read(snapshots.lastEntry().getValue()));
+        }
+        for (Map.Entry<Long, Path> log : logs.tailMap(generation, true).entrySet()) {
+            generation = log.getKey();
+            replay(log.getValue(), replay);
+        }
+        for (Path stale : snapshots.headMap(generation, false).values()) {
+            Files.delete(stale);
+        }
+        for (Path stale : logs.headMap(generation, false).values()) {
+            Files.delete(stale);
+        }
+        channel = openForAppend(file("wal", generation));
+    }
+
+    /**
+     * applies the entries of the log, cutting the file at the first entry that was not written completely
+     */
+    private void replay(Path log, Replay replay) throws IOException {
+        try (FileChannel file = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            long valid = 0;
+            while (buffer.remaining() >= ENTRY_HEADER_BYTES) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer entry = buffer.slice();
+                entry.limit(length);
+                crc.reset();
+                crc.update(entry.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                apply(entry, replay);
+                buffer.position(buffer.position() + length);
+                valid = buffer.position();
+            }
+            if (valid < file.size()) {
+                file.truncate(valid);
+            }
+        }
+    }
+
+    private static void apply(ByteBuffer entry, Replay replay) throws IOException {
+        while (entry.hasRemaining()) {
+            byte type = entry.get();
+            switch (type) {
+                case PUT:
+                    replay.put(WidgetCodec.read(entry));
+                    break;
+                case REMOVE:
+                    replay.remove(WidgetCodec.readId(entry));
+                    break;
+                case SHIFT:
+                    replay.shift(entry.getInt(), entry.getInt(), entry.getInt(), WidgetCodec.readTime(entry));
+                    break;
+                default:
+                    throw new IOException("Unknown write ahead log record: " + type);
+            }
+        }
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+    }
+
+    private Path file(String kind, long generation) {
+        return directory.resolve(kind + "-" + generation + (kind.equals("wal") ? ".log" : ".bin"));
+    }
+
+    private static FileChannel openForAppend(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer... buffers) throws IOException {
+        long remaining = Arrays.stream(buffers).mapToLong(ByteBuffer::remaining).sum();
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+}
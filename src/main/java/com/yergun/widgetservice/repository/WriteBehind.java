@@ -0,0 +1,223 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Widget;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Writes the widgets of a memory repository to the database behind its back. Writes mark the ids of the widgets they
+ * put, moved or removed, and a flush takes the widgets marked since the previous one as they are right then, under
+ * the read lock, and replaces their rows in one transaction of batched statements. A widget written many times
+ * between two flushes is written to the database once, and the database always holds a state the memory held at
+ * some point.
+ * Flushes run every interval on their own thread, and a writer flushes itself before writing once too many widgets
+ * are waiting, so the database is never more than an interval or that many widgets behind. A failed flush leaves its
+ * widgets marked for the next one.
+ *
+ * {@link #mark} runs under the write lock of the repository, everything else outside of it.
+ */
+@Slf4j
+final class WriteBehind {
+
+    private static final String SELECT = "select id, x, y, width, height, z, last_updated from widget order by z";
+    private static final String DELETE = "delete from widget where id = ?";
+    private static final String INSERT =
+            "insert into widget (id, x, y, width, height, z, last_updated) values (?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration interval;
+    private final int maxPending;
+    private final Timer flushes;
+    private final Counter failures;
+    // one flush at a time, whether on the flushing thread, a writer over the limit or on close
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private Set<UUID> marked = new HashSet<>();
+    private volatile int pending;
+    private Lock readLock;
+    private Function<UUID, Widget> stored;
+    private ScheduledExecutorService flusher;
+
+    /**
+     * @param maxPending marked widgets above which writers flush before writing
+     */
+    WriteBehind(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, Duration interval,
+                int maxPending, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.interval = interval;
+        this.maxPending = maxPending;
+        this.flushes = Timer.builder("widgets.write-behind.flush")
+                .description("Flushes of the widgets changed in memory to the database")
+                .register(meterRegistry);
+        this.failures = Counter.builder("widgets.write-behind.failures")
+                .description("Flushes to the database that failed and are retried by the next one")
+                .register(meterRegistry);
+        Gauge.builder("widgets.write-behind.pending", this, writeBehind -> writeBehind.pending)
+                .description("Widgets changed in memory and not written to the database yet")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return every widget in the database in z order
+     */
+    List<Widget> load() {
+        return jdbcTemplate.query(SELECT, (resultSet, row) -> new Widget(
+                resultSet.getObject(1, UUID.class),
+                resultSet.getObject(2, Integer.class),
+                resultSet.getObject(3, Integer.class),
+                resultSet.getObject(4, Integer.class),
+                resultSet.getObject(5, Integer.class),
+                resultSet.getObject(6, Integer.class),
+                resultSet.getTimestamp(7).toLocalDateTime()));
+    }
+
+    /**
+     * starts flushing every interval
+     * @param readLock held while the marked widgets are read
+     * @param stored   the stored widget by id, null once it is removed, called under the read lock
+     */
+    void start(Lock readLock, Function<UUID, Widget> stored) {
+        this.readLock = readLock;
+        this.stored = stored;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "widget-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long nanos = interval.toNanos();
+        flusher.scheduleWithFixedDelay(this::flushInBackground, nanos, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * the widget was put, moved or removed by the current write
+     */
+    void mark(UUID id) {
+        if (marked.add(id)) {
+            pending = marked.size();
+        }
+    }
+
+    /**
+     * called by writers before they take the write lock, flushes right away when too many widgets are waiting
+     * @throws DataAccessException when that flush fails, the write is not applied then
+     */
+    void awaitCapacity() {
+        if (pending >= maxPending) {
+            flush();
+        }
+    }
+
+    /**
+     * writes every widget marked so far, called by the flushing thread and by writers over the limit
+     * @throws DataAccessException when the database refused it, the widgets stay marked
+     */
+    void flush() {
+        flushLock.lock();
+        try {
+            // a writer waiting for the lock may find the flush it waited for already done
+            if (pending == 0) {
+                return;
+            }
+            Set<UUID> ids;
+            List<Widget> widgets = new ArrayList<>();
+            readLock.lock();
+            try {
+                ids = marked;
+                marked = new HashSet<>();
+                pending = 0;
+                for (UUID id : ids) {
+                    Widget widget = stored.apply(id);
+                    if (widget != null) {
+                        widgets.add(widget.toBuilder().build());
+                    }
+                }
+            } finally {
+                readLock.unlock();
+            }
+            try {
+                flushes.record(() -> write(ids, widgets));
+            } catch (RuntimeException e) {
+                failures.increment();
+                remark(ids);
+                throw e;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * stops flushing in the background and flushes what is left, called once no more writes come
+     */
+    void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    private void flushInBackground() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Flushing widgets to the database failed, retrying in {}", interval, e);
+        }
+    }
+
+    /**
+     * every row of the marked widgets is replaced, so a widget inserted, moved or removed takes the same two
+     * statements and no row is read first
+     */
+    private void write(Set<UUID> ids, List<Widget> widgets) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.batchUpdate(DELETE, ids.stream()
+                    .map(id -> new Object[]{id})
+                    .collect(Collectors.toList()));
+            jdbcTemplate.batchUpdate(INSERT, widgets.stream()
+                    .map(widget -> new Object[]{widget.getId(), widget.getX(), widget.getY(), widget.getWidth(),
+                            widget.getHeight(), widget.getZ(), Timestamp.valueOf(widget.getLastUpdated())})
+                    .collect(Collectors.toList()));
+        });
+    }
+
+    /**
+     * marks again what a failed flush took, next to whatever was written since
+     */
+    private void remark(Set<UUID> ids) {
+        // the read lock is enough against writers, they mark under the write lock
+        readLock.lock();
+        try {
+            marked.addAll(ids);
+            pending = marked.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+}
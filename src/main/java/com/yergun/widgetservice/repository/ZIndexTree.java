@@ -0,0 +1,419 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Widget;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Treap of widgets ordered by z, augmented with subtree sizes and lazy "shift by one" tags,
+ * so shifting every widget above a z, inserting, removing and selecting by rank are all O(log n).
+ *
+ * A node's pending shift is owed to its children only, the node's own widget is already up to date
+ * with everything above it. Reads accumulate pending shifts on their way down (or up through parents)
+ * instead of pushing them, so they never mutate the tree and can share a read lock.
+ * What reads hand out is decided by the {@link View} the tree is created with.
+ *
+ * Not thread safe, writes need exclusive access.
+ */
+class ZIndexTree implements BatchPlacement.StoredZ {
+
+    @FunctionalInterface
+    interface View {
+        /**
+         * copies carrying the effective z and lastUpdated
+         */
+        View COPY = ZIndexTree::materialize;
+        /**
+         * the stored instances, only valid for trees that are never shifted lazily.
+         * Their z may then be shifted in place as long as the order of the widgets is kept.
+         */
+        View SHARED = (widget, pendingShift, pendingShiftedAt) -> widget;
+
+        Widget of(Widget stored, int pendingShift, LocalDateTime pendingShiftedAt);
+    }
+
+    static final class Node {
+        private final Widget widget;
+        private final int priority;
+        private int size = 1;
+        private Node left;
+        private Node right;
+        private Node parent;
+        private int pendingShift;
+        private LocalDateTime pendingShiftedAt;
+
+        private Node(Widget widget, int priority) {
+            this.widget = widget;
+            this.priority = priority;
+        }
+    }
+
+    private final View view;
+    private Node root;
+
+    ZIndexTree(View view) {
+        this.view = view;
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    void clear() {
+        root = null;
+    }
+
+    boolean containsZ(int z) {
+        return get(z) != null;
+    }
+
+    Widget get(int z) {
+        Node node = root;
+        int shift = 0;
+        LocalDateTime shiftedAt = null;
+        while (node != null) {
+            int key = node.widget.getZ() + shift;
+            if (key == z) {
+                return view.of(node.widget, shift, shiftedAt);
+            }
+            shift += node.pendingShift;
+            shiftedAt = later(shiftedAt, node.pendingShiftedAt);
+            node = z < key ? node.left : node.right;
+        }
+        return null;
+    }
+
+    @Override
+    public Set<Integer> occupied(Collection<Integer> zs) {
+        return zs.stream().filter(this::containsZ).collect(Collectors.toSet());
+    }
+
+    @Override
+    public Integer ceiling(int z) {
+        List<Widget> widgets = from(z, true, 1);
+        return widgets.isEmpty() ? null : widgets.get(0).getZ();
+    }
+
+    @Override
+    public int endOfRun(int z) {
+        List<Widget> widgets = run(z);
+        return widgets.get(widgets.size() - 1).getZ();
+    }
+
+    Widget last() {
+        if (root == null) {
+            return null;
+        }
+        Node node = root;
+        int shift = 0;
+        LocalDateTime shiftedAt = null;
+        while (node.right != null) {
+            shift += node.pendingShift;
+            shiftedAt = later(shiftedAt, node.pendingShiftedAt);
+            node = node.right;
+        }
+        return view.of(node.widget, shift, shiftedAt);
+    }
+
+    /**
+     * O(depth), walks up the parents to collect the shifts still pending for the node
+     */
+    Widget widgetOf(Node node) {
+        int shift = 0;
+        LocalDateTime shiftedAt = null;
+        for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+            shift += ancestor.pendingShift;
+            shiftedAt = later(shiftedAt, ancestor.pendingShiftedAt);
+        }
+        return view.of(node.widget, shift, shiftedAt);
+    }
+
+    /**
+     * the widget is kept as is, its z must not collide with a widget already in the tree
+     */
+    Node insert(Widget widget) {
+        Node node = new Node(widget, ThreadLocalRandom.current().nextInt());
+        Node[] parts = split(root, widget.getZ(), false);
+        setRoot(merge(merge(parts[0], node), parts[1]));
+        return node;
+    }
+
+    /**
+     * O(n), builds the treap in one pass, the widgets must be in z order and above every widget in the tree
+     */
+    void appendAll(List<Widget> widgets) {
+        // right spine of the treap built so far, lowest node first
+        Deque<Node> spine = new ArrayDeque<>();
+        for (Widget widget : widgets) {
+            Node node = new Node(widget, ThreadLocalRandom.current().nextInt());
+            Node lastPopped = null;
+            while (!spine.isEmpty() && spine.peek().priority < node.priority) {
+                lastPopped = spine.pop();
+                update(lastPopped);
+            }
+            node.left = lastPopped;
+            if (!spine.isEmpty()) {
+                spine.peek().right = node;
+            }
+            spine.push(node);
+        }
+        Node built = spine.peekLast();
+        // deepest first, so every child is complete before its parent
+        while (!spine.isEmpty()) {
+            update(spine.pop());
+        }
+        setRoot(merge(root, built));
+    }
+
+    Widget remove(int z) {
+        Node[] parts = split(root, z, false);
+        Node[] rest = split(parts[1], z, true);
+        setRoot(merge(parts[0], rest[1]));
+        return rest[0] == null ? null : rest[0].widget;
+    }
+
+    /**
+     * increments z of every widget with z greater than or equal to the given one, touching O(log n) nodes
+     * @return how many widgets were shifted
+     */
+    int shiftFrom(int z, LocalDateTime shiftedAt) {
+        return shiftFrom(z, 1, shiftedAt);
+    }
+
+    /**
+     * adds the given amount to z of every widget with z greater than or equal to the given one
+     * @return how many widgets were shifted, read off the size of their subtree
+     */
+    int shiftFrom(int z, int by, LocalDateTime shiftedAt) {
+        Node[] parts = split(root, z, false);
+        apply(parts[1], by, shiftedAt);
+        // read before the merge, which may hang the lower part under the same node
+        int shifted = size(parts[1]);
+        setRoot(merge(parts[0], parts[1]));
+        return shifted;
+    }
+
+    /**
+     * O(log n + limit), skips whole subtrees by their size
+     */
+    List<Widget> page(long offset, int limit) {
+        List<Widget> result = new ArrayList<>(Math.min(limit, size()));
+        collectPage(root, offset, limit, 0, null, result);
+        return result;
+    }
+
+    List<Widget> tail(int z) {
+        return from(z, true, Integer.MAX_VALUE);
+    }
+
+    /**
+     * O(log n + limit), widgets with z greater than the given one (or equal when inclusive) in z order
+     */
+    List<Widget> from(int z, boolean inclusive, int limit) {
+        List<Widget> result = new ArrayList<>();
+        collectFrom(root, z, inclusive, limit, 0, null, result);
+        return result;
+    }
+
+    /**
+     * O(log n + k), widgets with z between the given ones, both inclusive, in z order
+     */
+    List<Widget> range(int from, int to) {
+        List<Widget> result = new ArrayList<>();
+        collectRange(root, from, to, 0, null, result);
+        return result;
+    }
+
+    /**
+     * O(log n + k), the widget at z and the ones right above it up to the first free z
+     */
+    List<Widget> run(int z) {
+        List<Widget> result = new ArrayList<>();
+        collectRun(root, z, 0, null, result);
+        return result;
+    }
+
+    private void collectPage(Node node, long offset, int limit, int shift, LocalDateTime shiftedAt, List<Widget> out) {
+        if (node == null || out.size() >= limit) {
+            return;
+        }
+        int leftSize = size(node.left);
+        int childShift = shift + node.pendingShift;
+        LocalDateTime childShiftedAt = later(shiftedAt, node.pendingShiftedAt);
+
+        if (offset < leftSize) {
+            collectPage(node.left, offset, limit, childShift, childShiftedAt, out);
+        }
+        if (offset <= leftSize && out.size() < limit) {
+            out.add(view.of(node.widget, shift, shiftedAt));
+        }
+        collectPage(node.right, Math.max(0, offset - leftSize - 1), limit, childShift, childShiftedAt, out);
+    }
+
+    private void collectFrom(Node node, int z, boolean inclusive, int limit,
+                             int shift, LocalDateTime shiftedAt, List<Widget> out) {
+        if (node == null || out.size() >= limit) {
+            return;
+        }
+        int childShift = shift + node.pendingShift;
+        LocalDateTime childShiftedAt = later(shiftedAt, node.pendingShiftedAt);
+
+        int key = node.widget.getZ() + shift;
+        if (key > z || (inclusive && key == z)) {
+            collectFrom(node.left, z, inclusive, limit, childShift, childShiftedAt, out);
+            if (out.size() < limit) {
+                out.add(view.of(node.widget, shift, shiftedAt));
+            }
+        }
+        collectFrom(node.right, z, inclusive, limit, childShift, childShiftedAt, out);
+    }
+
+    private void collectRange(Node node, int from, int to, int shift, LocalDateTime shiftedAt, List<Widget> out) {
+        if (node == null) {
+            return;
+        }
+        int childShift = shift + node.pendingShift;
+        LocalDateTime childShiftedAt = later(shiftedAt, node.pendingShiftedAt);
+
+        int key = node.widget.getZ() + shift;
+        if (key > from) {
+            collectRange(node.left, from, to, childShift, childShiftedAt, out);
+        }
+        if (key >= from && key <= to) {
+            out.add(view.of(node.widget, shift, shiftedAt));
+        }
+        if (key < to) {
+            collectRange(node.right, from, to, childShift, childShiftedAt, out);
+        }
+    }
+
+    /**
+     * @return false once a gap is found, to stop the walk
+     */
+    private boolean collectRun(Node node, int z, int shift, LocalDateTime shiftedAt, List<Widget> out) {
+        if (node == null) {
+            return true;
+        }
+        int childShift = shift + node.pendingShift;
+        LocalDateTime childShiftedAt = later(shiftedAt, node.pendingShiftedAt);
+
+        int key = node.widget.getZ() + shift;
+        if (key >= z) {
+            if (!collectRun(node.left, z, childShift, childShiftedAt, out)) {
+                return false;
+            }
+            if (key != z + out.size()) {
+                return false;
+            }
+            out.add(view.of(node.widget, shift, shiftedAt));
+        }
+        return collectRun(node.right, z, childShift, childShiftedAt, out);
+    }
+
+    /**
+     * splits into widgets with z lower than the given one (or equal when inclusive) and the rest
+     */
+    private Node[] split(Node node, int z, boolean inclusive) {
+        if (node == null) {
+            return new Node[2];
+        }
+        push(node);
+        int key = node.widget.getZ();
+        if (key < z || (inclusive && key == z)) {
+            Node[] parts = split(node.right, z, inclusive);
+            node.right = parts[0];
+            update(node);
+            parts[0] = node;
+            return parts;
+        }
+        Node[] parts = split(node.left, z, inclusive);
+        node.left = parts[1];
+        update(node);
+        parts[1] = node;
+        return parts;
+    }
+
+    /**
+     * every z in lower must be less than every z in upper
+     */
+    private Node merge(Node lower, Node upper) {
+        if (lower == null) {
+            return upper;
+        }
+        if (upper == null) {
+            return lower;
+        }
+        if (lower.priority > upper.priority) {
+            push(lower);
+            lower.right = merge(lower.right, upper);
+            update(lower);
+            return lower;
+        }
+        push(upper);
+        upper.left = merge(lower, upper.left);
+        update(upper);
+        return upper;
+    }
+
+    private void setRoot(Node node) {
+        root = node;
+        if (root != null) {
+            root.parent = null;
+        }
+    }
+
+    private static void push(Node node) {
+        if (node.pendingShift != 0) {
+            apply(node.left, node.pendingShift, node.pendingShiftedAt);
+            apply(node.right, node.pendingShift, node.pendingShiftedAt);
+            node.pendingShift = 0;
+            node.pendingShiftedAt = null;
+        }
+    }
+
+    private static void apply(Node node, int shift, LocalDateTime shiftedAt) {
+        if (node == null) {
+            return;
+        }
+        node.widget.setZ(node.widget.getZ() + shift);
+        node.widget.setLastUpdated(later(node.widget.getLastUpdated(), shiftedAt));
+        node.pendingShift += shift;
+        node.pendingShiftedAt = later(node.pendingShiftedAt, shiftedAt);
+    }
+
+    private static void update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        if (node.left != null) {
+            node.left.parent = node;
+        }
+        if (node.right != null) {
+            node.right.parent = node;
+        }
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static Widget materialize(Widget widget, int shift, LocalDateTime shiftedAt) {
+        return widget.toBuilder()
+                .z(widget.getZ() + shift)
+                .lastUpdated(later(widget.getLastUpdated(), shiftedAt))
+                .build();
+    }
+
+    private static LocalDateTime later(LocalDateTime first, LocalDateTime second) {
+        if (first == null) {
+            return second;
+        }
+        return second == null || first.isAfter(second) ? first : second;
+    }
+}
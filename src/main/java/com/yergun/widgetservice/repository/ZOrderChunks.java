@@ -0,0 +1,47 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.exception.ExportInterruptedException;
+import com.yergun.widgetservice.model.Widget;
+
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Streams widgets in z order by fetching them a chunk at a time after the last z seen, so only one chunk is
+ * held at once and nothing stays locked while the stream is consumed.
+ */
+final class ZOrderChunks {
+
+    static final int CHUNK_SIZE = 500;
+
+    private ZOrderChunks() {
+    }
+
+    /**
+     * @param findAfterZ widgets above the given z, from the bottom for null, in z order and at most the given number
+     */
+    static Stream<Widget> stream(BiFunction<Integer, Integer, List<Widget>> findAfterZ) {
+        return Stream.iterate(findAfterZ.apply(null, CHUNK_SIZE), chunk -> !chunk.isEmpty(),
+                chunk -> chunk.size() < CHUNK_SIZE ? List.of()
+                        : findAfterZ.apply(chunk.get(chunk.size() - 1).getZ(), CHUNK_SIZE))
+                .flatMap(List::stream);
+    }
+
+    /**
+     * for stores that are not one point in time across chunks. A widget moved between two chunks could show up
+     * twice or not at all, so the stream fails with {@link ExportInterruptedException} once a move is seen
+     * @param moves writes so far that moved a stored widget to another z, read after every chunk
+     */
+    static Stream<Widget> stream(BiFunction<Integer, Integer, List<Widget>> findAfterZ, LongSupplier moves) {
+        long opened = moves.getAsLong();
+        return stream((afterZ, limit) -> {
+            List<Widget> chunk = findAfterZ.apply(afterZ, limit);
+            if (moves.getAsLong() != opened) {
+                throw new ExportInterruptedException();
+            }
+            return chunk;
+        });
+    }
+}
@@ -1,21 +1,29 @@
 package com.yergun.widgetservice.service;
 
+import com.yergun.widgetservice.exception.InvalidBatchException;
 import com.yergun.widgetservice.exception.WidgetNotFoundException;
+import com.yergun.widgetservice.model.Point;
+import com.yergun.widgetservice.model.Region;
 import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetBatchPatchRequest;
+import com.yergun.widgetservice.model.WidgetCursorPage;
 import com.yergun.widgetservice.model.WidgetPatchRequest;
+import com.yergun.widgetservice.model.WidgetSlice;
 import com.yergun.widgetservice.repository.WidgetRepository;
-import com.yergun.widgetservice.util.ObjectUtils;
+import com.yergun.widgetservice.util.CursorUtils;
 import lombok.RequiredArgsConstructor;
-import org.springframework.beans.BeanUtils;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
-import java.util.UUID;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @RequiredArgsConstructor
 @Service
@@ -35,14 +43,97 @@ public class WidgetService {
         return widgetRepository.save(widget);
     }
 
+    /**
+     * Widgets without z are put on top in the given order, the rest take their z as if created one by one
+     * from the highest requested z down
+     */
+    @Transactional(isolation= Isolation.READ_COMMITTED)
+    public List<Widget> createAll(List<Widget> widgets) {
+        LocalDateTime now = LocalDateTime.now();
+        int top = widgetRepository.findFirstByOrderByZDesc().map(Widget::getZ).orElse(-1);
+        int requestedTop = widgets.stream().map(Widget::getZ).filter(Objects::nonNull)
+                .max(Integer::compare).orElse(top);
+        int foreground = Math.max(top, requestedTop) + 1;
+        for (Widget widget : widgets) {
+            widget.setId(UUID.randomUUID());
+            widget.setLastUpdated(now);
+            if (widget.getZ() == null) {
+                widget.setZ(foreground++);
+            }
+        }
+        return widgetRepository.saveAll(widgets);
+    }
+
     public Page<Widget> findAll(int pageCount, int size) {
         return widgetRepository.findByOrderByZAsc(PageRequest.of(pageCount, size, Sort.by(Sort.Direction.ASC, "z")));
     }
 
+    public Page<Widget> findInRegion(Region region, int pageCount, int size) {
+        return widgetRepository.findInRegion(region, PageRequest.of(pageCount, size));
+    }
+
+    /**
+     * {@link #findAll} without counting every widget, one more is fetched to tell if there is a next page
+     * @param approximateTotal whether to add an estimate of the total, much cheaper than the count on a database
+     */
+    public WidgetSlice findSlice(int pageCount, int size, boolean approximateTotal) {
+        Slice<Widget> slice = widgetRepository.findSliceByOrderByZAsc(PageRequest.of(pageCount, size));
+        return new WidgetSlice(slice.getContent(), pageCount, size, slice.hasNext(),
+                approximateTotal ? widgetRepository.approximateCount() : null);
+    }
+
+    /**
+     * {@link #findInRegion} without counting the widgets in the region
+     */
+    public WidgetSlice findSliceInRegion(Region region, int pageCount, int size) {
+        Slice<Widget> slice = widgetRepository.findSliceInRegion(region, PageRequest.of(pageCount, size));
+        return new WidgetSlice(slice.getContent(), pageCount, size, slice.hasNext(), null);
+    }
+
+    public Widget findTopmostAt(Point point) {
+        return Optional.ofNullable(widgetRepository.findTopmostAt(List.of(point)).get(0))
+                .orElseThrow(() -> new WidgetNotFoundException(point));
+    }
+
+    /**
+     * @return aligned with the points, null where no widget contains the point
+     */
+    public List<Widget> findTopmostAt(List<Point> points) {
+        return widgetRepository.findTopmostAt(points);
+    }
+
+    /**
+     * Keyset paging by z, one extra widget is fetched to tell if there is a next page
+     * @param cursor from the previous page, null for the first page
+     * @param limit max widgets in the page
+     */
+    public WidgetCursorPage findAfter(String cursor, int limit) {
+        Integer afterZ = cursor == null ? null : CursorUtils.decode(cursor);
+        List<Widget> widgets = widgetRepository.findAfterZ(afterZ, limit + 1);
+
+        boolean hasNext = widgets.size() > limit;
+        List<Widget> content = hasNext ? widgets.subList(0, limit) : widgets;
+        String nextCursor = hasNext && !content.isEmpty()
+                ? CursorUtils.encode(content.get(content.size() - 1).getZ())
+                : null;
+        return new WidgetCursorPage(content, nextCursor);
+    }
+
+    /**
+     * Hands every widget to the consumer in z order, only a chunk of them is held in memory at a time
+     */
+    @Transactional(readOnly = true)
+    public void forEachInZOrder(Consumer<Widget> consumer) {
+        try (Stream<Widget> widgets = widgetRepository.streamByOrderByZAsc()) {
+            widgets.forEach(consumer);
+        }
+    }
+
     public Widget findById(UUID id) {
         return widgetRepository.findById(id).orElseThrow(() -> new WidgetNotFoundException(id));
     }
 
+    @Transactional(isolation= Isolation.READ_COMMITTED)
     public void deleteById(UUID id) {
         widgetRepository.deleteById(id);
     }
@@ -52,6 +143,17 @@ public class WidgetService {
         return widgetRepository.update(id, widgetPatchRequest);
     }
 
+    @Transactional(isolation= Isolation.READ_COMMITTED)
+    public List<Widget> updateAll(List<WidgetBatchPatchRequest> patchRequests) {
+        Set<UUID> ids = new HashSet<>();
+        for (WidgetBatchPatchRequest patchRequest : patchRequests) {
+            if (!ids.add(patchRequest.getId())) {
+                throw new InvalidBatchException("Widget patched more than once:[" + patchRequest.getId() + "]");
+            }
+        }
+        return widgetRepository.updateAll(patchRequests);
+    }
+
     private void setWidgetToForeground(Widget widget) {
         widgetRepository
                 .findFirstByOrderByZDesc()
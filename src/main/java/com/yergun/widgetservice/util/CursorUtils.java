@@ -0,0 +1,39 @@
+package com.yergun.widgetservice.util;
+
+import com.yergun.widgetservice.exception.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+public class CursorUtils {
+
+    private static final String Z_PREFIX = "z:";
+
+    /**
+     * Opaque cursor pointing right after the given z
+     * @param z of the last widget returned
+     * @return url safe cursor
+     */
+    public static String encode(int z) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((Z_PREFIX + z).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param cursor created by {@link #encode(int)}
+     * @return z the cursor points after
+     * @throws InvalidCursorException if the cursor is not one of ours
+     */
+    public static int decode(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!decoded.startsWith(Z_PREFIX)) {
+                throw new InvalidCursorException(cursor);
+            }
+            return Integer.parseInt(decoded.substring(Z_PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException(cursor);
+        }
+    }
+
+}
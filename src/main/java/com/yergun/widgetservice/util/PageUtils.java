@@ -0,0 +1,40 @@
+package com.yergun.widgetservice.util;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+
+import java.util.List;
+
+public class PageUtils {
+
+    /**
+     * Cuts the page out of everything that matched
+     * @param all matching elements in page order
+     * @param pageable
+     * @return page with the total number of matching elements
+     */
+    public static <T> Page<T> page(List<T> all, Pageable pageable) {
+        int from = (int) Math.min(pageable.getOffset(), all.size());
+        int to = Math.min(from + pageable.getPageSize(), all.size());
+        return new PageImpl<>(all.subList(from, to), pageable, all.size());
+    }
+
+    /**
+     * @param fetched up to one element past the page, which is only there to tell if a next page exists
+     */
+    public static <T> Slice<T> slice(List<T> fetched, Pageable pageable) {
+        boolean hasNext = fetched.size() > pageable.getPageSize();
+        return new SliceImpl<>(hasNext ? fetched.subList(0, pageable.getPageSize()) : fetched, pageable, hasNext);
+    }
+
+    /**
+     * the page without its total, for repositories that count for free
+     */
+    public static <T> Slice<T> slice(Page<T> page) {
+        return new SliceImpl<>(page.getContent(), page.getPageable(), page.hasNext());
+    }
+
+}
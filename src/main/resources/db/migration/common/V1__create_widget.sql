@@ -0,0 +1,15 @@
+CREATE TABLE widget (
+    id           uuid    NOT NULL,
+    x            integer NOT NULL,
+    y            integer NOT NULL,
+    width        integer,
+    height       integer,
+    -- null only while a batch update places the widgets it patched
+    z            integer,
+    last_updated timestamp,
+    CONSTRAINT widget_pkey PRIMARY KEY (id)
+);
+
+-- region queries range over x, and max(width) bounds how far left of a region an intersecting widget can start
+CREATE INDEX widget_x_idx ON widget (x);
+CREATE INDEX widget_width_idx ON widget (width);
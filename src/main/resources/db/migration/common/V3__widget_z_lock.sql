@@ -0,0 +1,8 @@
+-- a single row every write placing a z locks first, so the collision check, the top a shift parks above and the
+-- insert of one transaction never interleave with those of another
+CREATE TABLE widget_z_lock (
+    id integer NOT NULL,
+    CONSTRAINT widget_z_lock_pkey PRIMARY KEY (id)
+);
+
+INSERT INTO widget_z_lock (id) VALUES (1);
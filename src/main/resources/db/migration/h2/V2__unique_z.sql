@@ -0,0 +1,3 @@
+-- H2 has no deferrable constraints and checks every row as it is updated, shifts get by because they park the
+-- range they move above the top first
+ALTER TABLE widget ADD CONSTRAINT widget_z_key UNIQUE (z);
@@ -0,0 +1,3 @@
+-- backs every lookup, range and ordering by z. Deferrable, so it is checked once the statement is done instead of
+-- row by row, and a shift moving a range of z up by one never trips over the row it is about to vacate.
+ALTER TABLE widget ADD CONSTRAINT widget_z_key UNIQUE (z) DEFERRABLE INITIALLY IMMEDIATE;
@@ -45,6 +45,13 @@ public interface TestUtils {
             "  \"x\": 555\n" +
             "}";
 
+    /**
+     * a 1 by 1 widget at (1, 1) with a new id
+     */
+    static Widget widget(int z) {
+        return new Widget(UUID.randomUUID(), 1, 1, 1, 1, z, LocalDateTime.now());
+    }
+
     static void fillWidgets(int count, WidgetRepository repository) {
         for (int i = 0; i < count; i++) {
             repository.save(new Widget(UUID.randomUUID(),
@@ -1,6 +1,10 @@
 package com.yergun.widgetservice.controller;
 
+import com.yergun.widgetservice.exception.InvalidCursorException;
 import com.yergun.widgetservice.exception.WidgetNotFoundException;
+import com.yergun.widgetservice.exception.WriteQueueFullException;
+import com.yergun.widgetservice.model.Point;
+import com.yergun.widgetservice.model.Region;
 import com.yergun.widgetservice.model.Widget;
 import com.yergun.widgetservice.service.WidgetService;
 import org.junit.jupiter.api.Test;
@@ -12,10 +16,15 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.util.UUID;
+import java.util.function.Consumer;
 
 import static com.yergun.widgetservice.TestUtils.*;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(controllers = WidgetController.class)
@@ -37,6 +46,35 @@ class WidgetControllerTest {
                 .andExpect(status().isCreated());
     }
 
+    @Test
+    void whenWriteQueueIsFullOnPostWidgets_thenReturns503() throws Exception {
+        Mockito.when(widgetService.create(any())).thenThrow(WriteQueueFullException.class);
+
+        mockMvc.perform(post(BASE_WIDGETS_URL)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(POST_WIDGET_JSON_VALID))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    void whenValidRequestOnGetWidgetsStream_thenWritesOneWidgetPerLine() throws Exception {
+        Mockito.doAnswer(invocation -> {
+            Consumer<Widget> consumer = invocation.getArgument(0);
+            consumer.accept(Widget.builder().id(UUID.randomUUID()).x(1).y(1).z(0).width(10).height(10).build());
+            consumer.accept(Widget.builder().id(UUID.randomUUID()).x(2).y(2).z(1).width(10).height(10).build());
+            return null;
+        }).when(widgetService).forEachInZOrder(any());
+
+        String body = mockMvc.perform(get(BASE_WIDGETS_URL + "/stream"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(WidgetController.NDJSON))
+                .andReturn().getResponse().getContentAsString();
+
+        assertThat(body).endsWith("\n");
+        assertThat(body.split("\n")).hasSize(2);
+        assertThat(body.split("\n")[1]).contains("\"x\":2", "\"z\":1");
+    }
+
     @Test
     void whenInvalidRequestWithNoXParameterPostWidgets_thenReturns400() throws Exception {
         mockMvc.perform(post(BASE_WIDGETS_URL)
@@ -69,6 +107,24 @@ class WidgetControllerTest {
                 .andExpect(status().is4xxClientError());
     }
 
+    @Test
+    void createAll_whenValidRequest_thenReturns201() throws Exception {
+        mockMvc.perform(post(BASE_WIDGETS_URL + "/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[" + POST_WIDGET_JSON_VALID + "," + POST_WIDGET_JSON_VALID + "]"))
+                .andExpect(status().isCreated());
+    }
+
+    @Test
+    void createAll_whenAnInvalidWidget_thenReturns400() throws Exception {
+        mockMvc.perform(post(BASE_WIDGETS_URL + "/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[" + POST_WIDGET_JSON_VALID + "," + POST_WIDGET_JSON_INVALID_NO_X + "]"))
+                .andExpect(status().isBadRequest());
+
+        Mockito.verifyNoInteractions(widgetService);
+    }
+
     @Test
     void findAll_whenValidRequest_thenReturns200() throws Exception {
         mockMvc.perform(get(BASE_WIDGETS_URL)
@@ -85,6 +141,181 @@ class WidgetControllerTest {
                 .andExpect(status().isOk());
     }
 
+    @Test
+    void findSlice_whenTotalIsNoneOrApproximate_thenSkipsTheCount() throws Exception {
+        mockMvc.perform(get(BASE_WIDGETS_URL)
+                .param("total", "none")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+        mockMvc.perform(get(BASE_WIDGETS_URL)
+                .param("page", "2").param("size", "50").param("total", "approximate")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        Mockito.verify(widgetService).findSlice(0, 10, false);
+        Mockito.verify(widgetService).findSlice(2, 50, true);
+        Mockito.verify(widgetService, Mockito.never()).findAll(anyInt(), anyInt());
+    }
+
+    @Test
+    void findSlice_whenTotalIsExact_thenCountsLikeWithoutIt() throws Exception {
+        mockMvc.perform(get(BASE_WIDGETS_URL)
+                .param("total", "exact")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        Mockito.verify(widgetService).findAll(0, 10);
+    }
+
+    @Test
+    void findSlice_whenTotalIsUnknown_thenReturns400() throws Exception {
+        mockMvc.perform(get(BASE_WIDGETS_URL)
+                .param("total", "some")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void findSliceInRegion_whenTotalIsNone_thenSkipsTheCount() throws Exception {
+        mockMvc.perform(get(BASE_WIDGETS_URL)
+                .param("x1", "0").param("y1", "0").param("x2", "100").param("y2", "150").param("total", "none")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        Mockito.verify(widgetService).findSliceInRegion(new Region(0, 0, 100, 150), 0, 10);
+    }
+
+    @Test
+    void findInRegion_whenValidRegion_thenReturns200() throws Exception {
+        mockMvc.perform(get(BASE_WIDGETS_URL)
+                .param("x1", "0").param("y1", "0").param("x2", "100").param("y2", "150")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        Mockito.verify(widgetService).findInRegion(new Region(0, 0, 100, 150), 0, 10);
+    }
+
+    @Test
+    void findInRegion_whenCornersSwapped_thenReturns400() throws Exception {
+        mockMvc.perform(get(BASE_WIDGETS_URL)
+                .param("x1", "100").param("y1", "0").param("x2", "0").param("y2", "150")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void findInRegion_whenTotalIsApproximate_thenReturns400() throws Exception {
+        mockMvc.perform(get(BASE_WIDGETS_URL)
+                .param("x1", "0").param("y1", "0").param("x2", "100").param("y2", "150")
+                .param("total", "approximate")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        Mockito.verifyNoInteractions(widgetService);
+    }
+
+    @Test
+    void findInRegion_whenOnlySomeCornersGiven_thenReturns400() throws Exception {
+        mockMvc.perform(get(BASE_WIDGETS_URL)
+                .param("x1", "0").param("y1", "0")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get(BASE_WIDGETS_URL)
+                .param("x1", "0").param("y1", "0").param("x2", "100").param("total", "none")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get(BASE_WIDGETS_URL)
+                .param("y2", "150").param("limit", "50")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        Mockito.verifyNoInteractions(widgetService);
+    }
+
+    @Test
+    void findAfter_whenValidRequestWithLimit_thenReturns200() throws Exception {
+        mockMvc.perform(get(BASE_WIDGETS_URL)
+                .param("limit", "50")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        Mockito.verify(widgetService).findAfter(null, 50);
+    }
+
+    @Test
+    void findAfter_whenTotalIsNone_thenPagesByCursorInsteadOfFindSlice() throws Exception {
+        mockMvc.perform(get(BASE_WIDGETS_URL)
+                .param("limit", "5").param("cursor", "abc").param("total", "none")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+        mockMvc.perform(get(BASE_WIDGETS_URL)
+                .param("limit", "5").param("total", "approximate")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        Mockito.verify(widgetService).findAfter("abc", 5);
+        Mockito.verify(widgetService, Mockito.never()).findSlice(anyInt(), anyInt(), anyBoolean());
+    }
+
+    @Test
+    void findAfter_whenLimitBelowOne_thenReturns400() throws Exception {
+        for (String limit : new String[]{"0", "-1"}) {
+            mockMvc.perform(get(BASE_WIDGETS_URL)
+                    .param("limit", limit)
+                    .contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isBadRequest());
+        }
+
+        Mockito.verify(widgetService, Mockito.never()).findAfter(any(), anyInt());
+    }
+
+    @Test
+    void findAfter_whenInvalidCursor_thenReturns400() throws Exception {
+        Mockito.when(widgetService.findAfter(any(), anyInt())).thenThrow(InvalidCursorException.class);
+
+        mockMvc.perform(get(BASE_WIDGETS_URL)
+                .param("cursor", "garbage")
+                .param("limit", "50")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void findTopmostAt_whenValidPoint_thenReturns200() throws Exception {
+        mockMvc.perform(get(BASE_WIDGETS_URL + "/at")
+                .param("x", "10").param("y", "20")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        Mockito.verify(widgetService).findTopmostAt(new Point(10, 20));
+    }
+
+    @Test
+    void findTopmostAt_whenNothingAtPoint_thenReturns404() throws Exception {
+        Mockito.when(widgetService.findTopmostAt(any(Point.class))).thenThrow(WidgetNotFoundException.class);
+
+        mockMvc.perform(get(BASE_WIDGETS_URL + "/at")
+                .param("x", "10").param("y", "20")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void findTopmostAt_whenYMissing_thenReturns400() throws Exception {
+        mockMvc.perform(get(BASE_WIDGETS_URL + "/at")
+                .param("x", "10")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void findTopmostAtAll_whenValidRequest_thenReturns200() throws Exception {
+        mockMvc.perform(post(BASE_WIDGETS_URL + "/at/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"x\": 1, \"y\": 2}, {\"x\": 3, \"y\": 4}]"))
+                .andExpect(status().isOk());
+    }
+
     @Test
     void findById_whenValidId_thenReturns200() throws Exception {
         UUID uuid = UUID.randomUUID();
@@ -147,5 +378,19 @@ class WidgetControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    void patchAll_whenValidRequest_thenReturns200() throws Exception {
+        mockMvc.perform(patch(BASE_WIDGETS_URL + "/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"id\": \"" + UUID.randomUUID() + "\", \"z\": 3}]"))
+                .andExpect(status().isOk());
+    }
 
-}
\ No newline at end of file
+    @Test
+    void patchAll_whenIdMissing_thenReturns400() throws Exception {
+        mockMvc.perform(patch(BASE_WIDGETS_URL + "/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"z\": 3}]"))
+                .andExpect(status().isBadRequest());
+    }
+}
@@ -2,6 +2,7 @@ package com.yergun.widgetservice.integration;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetCursorPage;
 import com.yergun.widgetservice.model.WidgetPatchRequest;
 import com.yergun.widgetservice.repository.WidgetRepository;
 import org.junit.jupiter.api.Test;
@@ -12,11 +13,14 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.http.MediaType;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static com.yergun.widgetservice.TestUtils.fillWidgets;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -80,4 +84,46 @@ public class WidgetScenariosIntegrationTests {
         assertThat(widgets.get(2).getX()).isEqualTo(expectedX); // patched widget should be on nr.3
         assertThat(widgets.get(4).getZ()).isEqualTo(5); //last widget should have its z incremented
     }
+
+    @Test
+    void widgetCursorPaging_scanWholeStack_returnsEveryWidgetOnce() throws Exception {
+        fillWidgets(25, repository);
+
+        List<Widget> scanned = new ArrayList<>();
+        String cursor = null;
+        do {
+            MockHttpServletRequestBuilder request = get("/widgets").param("limit", "10");
+            if (cursor != null) {
+                request.param("cursor", cursor);
+            }
+            String body = mockMvc.perform(request)
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            WidgetCursorPage page = objectMapper.readValue(body, WidgetCursorPage.class);
+            scanned.addAll(page.getContent());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertThat(scanned).extracting(Widget::getZ).containsExactlyElementsOf(
+                repository.findByOrderByZAsc(PageRequest.of(0, 25)).map(Widget::getZ).getContent());
+    }
+
+    @Test
+    void prometheusScrape_afterWidgetCreation_exposesRepositoryAndLockTimings() throws Exception {
+        Widget widget = Widget.builder().x(1).y(1).z(0).height(10).width(10).build();
+        mockMvc.perform(post("/widgets")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(widget)))
+                .andExpect(status().isCreated());
+
+        String scrape = mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        assertThat(scrape)
+                .contains("widgets_repository_seconds_count{exception=\"none\",operation=\"save\",repository=\"memory\",}")
+                .contains("widgets_lock_wait_seconds_bucket{mode=\"write\",repository=\"memory\",")
+                .contains("widgets_lock_held_seconds_count{mode=\"write\",repository=\"memory\",}")
+                .contains("widgets_shifted_count{policy=\"shift_all\",}");
+    }
 }
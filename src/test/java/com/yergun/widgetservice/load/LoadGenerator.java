@@ -0,0 +1,268 @@
+package com.yergun.widgetservice.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open loop load against a running widget service. Requests are sent at a fixed rate whatever the response times,
+ * and each latency is taken from when the request was due rather than when it went out, so a stalled server
+ * shows up in the percentiles instead of slowing the generator down.
+ * The operation of each request is drawn from the configured mix. Ids to patch, get and delete come from the
+ * widgets created so far, a deleted id is never handed out again.
+ * Every error is also counted by its cause, the exception the server named in its error response or the one the
+ * client failed with, and the first body seen for each cause is kept so the report can show what went wrong.
+ */
+class LoadGenerator {
+
+    enum Operation {
+        CREATE, PATCH, GET, LIST, DELETE
+    }
+
+    private static final long MAX_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int PREFILL_BATCH = 10_000;
+    private static final int MAX_BODY_CHARS = 500;
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final URI widgets;
+    private final Map<Operation, Integer> mix;
+    private final int weights;
+    private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, Map<Integer, AtomicLong>> errors = new EnumMap<>(Operation.class);
+    private final Map<Operation, Map<String, AtomicLong>> causes = new EnumMap<>(Operation.class);
+    // first response body, or client exception, per operation and cause
+    private final Map<Operation, Map<String, String>> samples = new EnumMap<>(Operation.class);
+    // created widgets that were not picked for deletion yet
+    private final List<UUID> ids = new ArrayList<>();
+    private int live;
+
+    /**
+     * @param mix relative weight of each operation, missing ones are never sent
+     */
+    LoadGenerator(String baseUrl, Map<Operation, Integer> mix) {
+        this.widgets = URI.create(baseUrl + "/widgets");
+        this.mix = new EnumMap<>(mix);
+        this.weights = mix.values().stream().mapToInt(Integer::intValue).sum();
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new ConcurrentHistogram(MAX_LATENCY_NANOS, 3));
+            errors.put(operation, new ConcurrentHashMap<>());
+            causes.put(operation, new ConcurrentHashMap<>());
+            samples.put(operation, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * @param mix such as create=30,patch=20,get=30,list=15,delete=5
+     */
+    static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] operationAndWeight = entry.trim().split("=");
+            weights.put(Operation.valueOf(operationAndWeight[0].trim().toUpperCase()),
+                    Integer.parseInt(operationAndWeight[1].trim()));
+        }
+        return weights;
+    }
+
+    /**
+     * creates widgets through the batch endpoint before the measured run, none of it is recorded
+     */
+    void prefill(int count) throws IOException, InterruptedException {
+        Random random = new Random(count);
+        for (int created = 0; created < count; created += PREFILL_BATCH) {
+            List<Map<String, Object>> batch = new ArrayList<>();
+            for (int i = created; i < Math.min(count, created + PREFILL_BATCH); i++) {
+                batch.add(widget(random, null));
+            }
+            HttpResponse<String> response = client.send(json(HttpRequest.newBuilder(URI.create(widgets + "/batch")),
+                    "POST", batch).build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 201 && response.statusCode() != 200) {
+                throw new IllegalStateException("Prefill failed with " + response.statusCode() + ": " + response.body());
+            }
+            for (JsonNode widget : objectMapper.readTree(response.body())) {
+                addId(UUID.fromString(widget.get("id").asText()));
+            }
+        }
+    }
+
+    /**
+     * runs the load without keeping any of it, so the server is compiled and its pools are grown before measuring
+     */
+    void warmUp(int requestsPerSecond, Duration duration) throws InterruptedException {
+        run(requestsPerSecond, duration);
+        latencies.values().forEach(Histogram::reset);
+        errors.values().forEach(Map::clear);
+        causes.values().forEach(Map::clear);
+        samples.values().forEach(Map::clear);
+    }
+
+    /**
+     * sends requests at the given rate for the given time, then waits for the ones still in flight
+     */
+    LoadReport run(int requestsPerSecond, Duration duration) throws InterruptedException {
+        long interval = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+        long requests = duration.toNanos() / interval;
+        List<CompletableFuture<?>> inFlight = new ArrayList<>();
+        long start = System.nanoTime();
+        for (long i = 0; i < requests; i++) {
+            long due = start + i * interval;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            inFlight.add(send(pick(), due));
+        }
+        try {
+            CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Requests did not complete", e);
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        return new LoadReport(requestsPerSecond, requests, elapsed, mix, latencies, errors, causes, samples);
+    }
+
+    private CompletableFuture<?> send(Operation operation, long due) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        HttpRequest.Builder request;
+        UUID id = null;
+        switch (operation) {
+            case CREATE:
+                request = json(HttpRequest.newBuilder(widgets), "POST", widget(random, random.nextInt(live() + 1)));
+                break;
+            case PATCH:
+                id = anyId(random);
+                Map<String, Object> patch = new HashMap<>();
+                patch.put(random.nextBoolean() ? "z" : "x", random.nextInt(live() + 1));
+                request = json(HttpRequest.newBuilder(URI.create(widgets + "/" + id)), "PATCH", patch);
+                break;
+            case GET:
+                id = anyId(random);
+                request = HttpRequest.newBuilder(URI.create(widgets + "/" + id)).GET();
+                break;
+            case LIST:
+                request = HttpRequest.newBuilder(URI.create(widgets + "?size=50&page="
+                        + random.nextInt(Math.max(1, live() / 50)))).GET();
+                break;
+            default:
+                id = takeId(random);
+                request = HttpRequest.newBuilder(URI.create(widgets + "/" + id)).DELETE();
+                break;
+        }
+        if (id == null && operation != Operation.CREATE && operation != Operation.LIST) {
+            // nothing left to work on, counted as an error of its own
+            error(operation, 0, "no widget left", "");
+            return CompletableFuture.completedFuture(null);
+        }
+        return client.sendAsync(request.timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.ofString())
+                .handle((response, failure) -> {
+                    latencies.get(operation).recordValue(Math.min(System.nanoTime() - due, MAX_LATENCY_NANOS));
+                    if (failure != null) {
+                        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                                ? failure.getCause() : failure;
+                        error(operation, -1, cause.getClass().getName(), String.valueOf(cause.getMessage()));
+                    } else if (response.statusCode() >= 300) {
+                        error(operation, response.statusCode(),
+                                response.statusCode() + " " + exceptionOf(response.body()), response.body());
+                    } else if (operation == Operation.CREATE) {
+                        addId(createdId(response.body()));
+                    }
+                    return null;
+                });
+    }
+
+    private Operation pick() {
+        int weight = ThreadLocalRandom.current().nextInt(weights);
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            weight -= entry.getValue();
+            if (weight < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Empty mix");
+    }
+
+    private void error(Operation operation, int status, String cause, String sample) {
+        errors.get(operation).computeIfAbsent(status, key -> new AtomicLong()).incrementAndGet();
+        causes.get(operation).computeIfAbsent(cause, key -> new AtomicLong()).incrementAndGet();
+        samples.get(operation).putIfAbsent(cause,
+                sample.length() > MAX_BODY_CHARS ? sample.substring(0, MAX_BODY_CHARS) + "..." : sample);
+    }
+
+    /**
+     * the exception class of a Spring Boot error response, when the server includes it
+     */
+    private String exceptionOf(String body) {
+        try {
+            JsonNode exception = objectMapper.readTree(body).get("exception");
+            return exception == null ? "" : exception.asText();
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private UUID createdId(String body) {
+        try {
+            return UUID.fromString(objectMapper.readTree(body).get("id").asText());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized int live() {
+        return live;
+    }
+
+    private synchronized void addId(UUID id) {
+        ids.add(id);
+        live++;
+    }
+
+    private synchronized UUID anyId(Random random) {
+        return ids.isEmpty() ? null : ids.get(random.nextInt(ids.size()));
+    }
+
+    private synchronized UUID takeId(Random random) {
+        if (ids.isEmpty()) {
+            return null;
+        }
+        int index = random.nextInt(ids.size());
+        UUID id = ids.get(index);
+        ids.set(index, ids.get(ids.size() - 1));
+        ids.remove(ids.size() - 1);
+        live--;
+        return id;
+    }
+
+    private HttpRequest.Builder json(HttpRequest.Builder request, String method, Object body) {
+        try {
+            return request.header("Content-Type", "application/json")
+                    .method(method, HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map<String, Object> widget(Random random, Integer z) {
+        Map<String, Object> widget = new HashMap<>();
+        widget.put("x", random.nextInt(10_000));
+        widget.put("y", random.nextInt(10_000));
+        widget.put("width", 1 + random.nextInt(100));
+        widget.put("height", 1 + random.nextInt(100));
+        widget.put("z", z);
+        return widget;
+    }
+}
@@ -0,0 +1,114 @@
+package com.yergun.widgetservice.load;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Outcome of a {@link LoadGenerator} run, latency percentiles and errors by operation.
+ * Errors are counted by HTTP status, 0 when there was no widget left to work on and -1 when no response came back,
+ * and listed by cause with the first body or client exception seen for it.
+ */
+class LoadReport {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final int requestsPerSecond;
+    private final long sent;
+    private final Duration elapsed;
+    private final Map<LoadGenerator.Operation, Integer> mix;
+    private final Map<LoadGenerator.Operation, Histogram> latencies;
+    private final Map<LoadGenerator.Operation, Map<Integer, AtomicLong>> errors;
+    private final Map<LoadGenerator.Operation, Map<String, AtomicLong>> causes;
+    private final Map<LoadGenerator.Operation, Map<String, String>> samples;
+
+    LoadReport(int requestsPerSecond, long sent, Duration elapsed, Map<LoadGenerator.Operation, Integer> mix,
+               Map<LoadGenerator.Operation, Histogram> latencies,
+               Map<LoadGenerator.Operation, Map<Integer, AtomicLong>> errors,
+               Map<LoadGenerator.Operation, Map<String, AtomicLong>> causes,
+               Map<LoadGenerator.Operation, Map<String, String>> samples) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.sent = sent;
+        this.elapsed = elapsed;
+        this.mix = mix;
+        this.latencies = latencies;
+        this.errors = errors;
+        this.causes = causes;
+        this.samples = samples;
+    }
+
+    long sent() {
+        return sent;
+    }
+
+    /**
+     * requests that got a response or were given up on, whatever the status
+     */
+    long completed() {
+        return errors(0) + latencies.values().stream().mapToLong(Histogram::getTotalCount).sum();
+    }
+
+    long errors() {
+        return errors.values().stream().flatMap(byStatus -> byStatus.values().stream())
+                .mapToLong(AtomicLong::get).sum();
+    }
+
+    /**
+     * writes the summary table to {@code <name>.txt} and the percentile distribution of all the requests,
+     * in the HdrHistogram plotter format, to {@code <name>.hgrm}
+     */
+    void write(Path directory, String name) throws IOException {
+        Files.createDirectories(directory);
+        try (PrintStream out = new PrintStream(Files.newOutputStream(directory.resolve(name + ".txt")))) {
+            out.printf("%s: %d requests/s for %.1f s, mix %s%n", name, requestsPerSecond, sent / (double) requestsPerSecond,
+                    mix);
+            out.printf("sent %d, completed %d in %.1f s, %.1f requests/s, %d errors (%.2f%%)%n%n", sent, completed(),
+                    elapsed.toMillis() / 1000.0, completed() * 1000.0 / elapsed.toMillis(), errors(),
+                    sent == 0 ? 0 : errors() * 100.0 / sent);
+            out.printf("%-8s %8s %8s %8s %10s %10s %10s %10s %10s  %s%n", "op", "count", "errors", "error%",
+                    "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors by status");
+            for (Map.Entry<LoadGenerator.Operation, Histogram> entry : latencies.entrySet()) {
+                Histogram histogram = entry.getValue();
+                long count = histogram.getTotalCount();
+                long failed = errors.get(entry.getKey()).values().stream().mapToLong(AtomicLong::get).sum();
+                if (count == 0 && failed == 0) {
+                    continue;
+                }
+                out.printf("%-8s %8d %8d %8.2f %10.2f %10.2f %10.2f %10.2f %10.2f  %s%n",
+                        entry.getKey().name().toLowerCase(), count, failed, failed * 100.0 / Math.max(1, count),
+                        millis(histogram, 50), millis(histogram, 90), millis(histogram, 99), millis(histogram, 99.9),
+                        histogram.getMaxValue() / NANOS_PER_MILLI,
+                        errors.get(entry.getKey()).entrySet().stream()
+                                .map(status -> status.getKey() + "=" + status.getValue())
+                                .collect(Collectors.joining(" ")));
+            }
+            if (errors() > 0) {
+                out.printf("%nerrors by cause, with the first body seen%n");
+                causes.forEach((operation, byCause) -> byCause.forEach((cause, count) ->
+                        out.printf("%-8s %8d  %s%n%17s  %s%n", operation.name().toLowerCase(), count.get(), cause,
+                                "", samples.get(operation).get(cause))));
+            }
+        }
+        Histogram all = new Histogram(3);
+        latencies.values().forEach(all::add);
+        try (PrintStream out = new PrintStream(Files.newOutputStream(directory.resolve(name + ".hgrm")))) {
+            all.outputPercentileDistribution(out, NANOS_PER_MILLI);
+        }
+    }
+
+    private long errors(int status) {
+        return errors.values().stream().map(byStatus -> byStatus.get(status)).filter(count -> count != null)
+                .mapToLong(AtomicLong::get).sum();
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / NANOS_PER_MILLI;
+    }
+}
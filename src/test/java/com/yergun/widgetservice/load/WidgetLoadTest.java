@@ -0,0 +1,52 @@
+package com.yergun.widgetservice.load;
+
+import com.yergun.widgetservice.WidgetServiceApplication;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Drives the whole service over HTTP, one embedded server per repository type, H2 for db and hybrid, and writes a report
+ * per type to target/load. Not part of the regular build, run with
+ * {@code mvn test -P load-test} and tune with
+ * -Dload.rate (requests per second), -Dload.warmup and -Dload.duration (seconds), -Dload.prefill (widgets) and
+ * -Dload.mix (such as create=30,patch=20,get=30,list=15,delete=5).
+ */
+@Tag("load")
+class WidgetLoadTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"memory", "lazy-shift", "snapshot", "columnar", "db", "hybrid"})
+    void run_whenDrivenAtFixedRate_thenEveryRequestCompletes(String type) throws Exception {
+        // command line arguments, so they win over the application.yml of the test classpath
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(WidgetServiceApplication.class)
+                .run("--server.port=0",
+                        "--application.repository.type=" + type,
+                        "--spring.datasource.url=jdbc:h2:mem:load-" + type + ";DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+                        "--spring.main.banner-mode=off",
+                        // names the exception behind every error response in the report
+                        "--server.error.include-exception=true",
+                        "--logging.level.root=warn")) {
+            String port = context.getEnvironment().getProperty("local.server.port");
+            LoadGenerator generator = new LoadGenerator("http://localhost:" + port,
+                    LoadGenerator.parseMix(System.getProperty("load.mix", "create=30,patch=20,get=30,list=15,delete=5")));
+            generator.prefill(Integer.getInteger("load.prefill", 10_000));
+
+            int rate = Integer.getInteger("load.rate", 200);
+            generator.warmUp(rate, Duration.ofSeconds(Integer.getInteger("load.warmup", 5)));
+            LoadReport report = generator.run(rate, Duration.ofSeconds(Integer.getInteger("load.duration", 10)));
+            report.write(Paths.get("target", "load"), type);
+
+            assertThat(report.sent()).isPositive();
+            assertThat(report.completed()).isEqualTo(report.sent());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.yergun.widgetservice.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WidgetPatchRequestTest {
+
+    @Test
+    void applyTo_whenFieldsAreNull_thenKeepsThemAndReportsNoMove() {
+        UUID id = UUID.randomUUID();
+        LocalDateTime lastUpdated = LocalDateTime.now();
+        Widget widget = new Widget(id, 1, 2, 3, 4, 5, lastUpdated);
+        WidgetPatchRequest patchRequest = new WidgetPatchRequest();
+        patchRequest.setY(20);
+        patchRequest.setZ(5);
+
+        assertThat(patchRequest.applyTo(widget)).isFalse();
+        assertThat(widget).isEqualToComparingFieldByField(new Widget(id, 1, 20, 3, 4, 5, lastUpdated));
+    }
+
+    @Test
+    void applyTo_whenZDiffers_thenCopiesEveryFieldAndReportsTheMove() {
+        UUID id = UUID.randomUUID();
+        LocalDateTime lastUpdated = LocalDateTime.now();
+        Widget widget = new Widget(id, 1, 2, null, 4, 5, lastUpdated);
+        WidgetBatchPatchRequest patchRequest = new WidgetBatchPatchRequest(UUID.randomUUID(),
+                new WidgetPatchRequest(10, 20, 30, 40, 50));
+
+        assertThat(patchRequest.movesZ(widget)).isTrue();
+        assertThat(patchRequest.applyTo(widget)).isTrue();
+        assertThat(widget).isEqualToComparingFieldByField(new Widget(id, 10, 20, 30, 40, 50, lastUpdated));
+    }
+}
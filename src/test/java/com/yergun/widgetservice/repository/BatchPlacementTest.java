@@ -0,0 +1,105 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.model.Widget;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class BatchPlacementTest {
+
+    ZIndexTree stored = new ZIndexTree(ZIndexTree.View.SHARED);
+
+    @Test
+    void place_whenShiftingAll_thenShiftsStoredWidgetsAboveEachCollision() {
+        store(0, 1, 2, 5, 8);
+        List<Widget> batch = widgets(1, 4, 5);
+
+        List<BatchPlacement.Shift> shifts = BatchPlacement.place(batch, CollisionPolicy.SHIFT_ALL, stored);
+
+        assertThat(zs(batch)).containsExactly(1, 5, 6);
+        assertThat(shifts).containsExactly(
+                new BatchPlacement.Shift(1, 4, 1),
+                new BatchPlacement.Shift(5, Integer.MAX_VALUE, 2));
+    }
+
+    @Test
+    void place_whenSameZRequested_thenStacksInReverseRequestOrder() {
+        store(3);
+        List<Widget> batch = widgets(3, 3, 7);
+
+        List<BatchPlacement.Shift> shifts = BatchPlacement.place(batch, CollisionPolicy.SHIFT_ALL, stored);
+
+        assertThat(zs(batch)).containsExactly(4, 3, 9);
+        assertThat(shifts).containsExactly(new BatchPlacement.Shift(3, Integer.MAX_VALUE, 2));
+    }
+
+    @Test
+    void place_whenShiftingUntilGap_thenStopsEachPushAtAGap() {
+        store(0, 1, 2, 5, 6, 9);
+        List<Widget> batch = widgets(1, 1, 5);
+
+        List<BatchPlacement.Shift> shifts = BatchPlacement.place(batch, CollisionPolicy.SHIFT_UNTIL_GAP, stored);
+
+        assertThat(zs(batch)).containsExactly(2, 1, 5);
+        assertThat(shifts).containsExactly(
+                new BatchPlacement.Shift(1, 2, 2),
+                new BatchPlacement.Shift(5, 6, 1));
+    }
+
+    @Test
+    void place_whenRandomBatches_thenMatchesSavingOneByOneFromTheHighestZDown() {
+        Random random = new Random(7);
+        for (CollisionPolicy policy : CollisionPolicy.values()) {
+            for (int round = 0; round < 200; round++) {
+                List<Integer> storedZs = random.ints(random.nextInt(30), 0, 40).distinct().boxed()
+                        .collect(Collectors.toList());
+                List<Widget> batch = widgets(random.ints(1 + random.nextInt(10), 0, 45).toArray());
+
+                WidgetRepositoryInMemory expected = repository(policy, storedZs);
+                List<Widget> descending = new ArrayList<>(batch);
+                descending.sort(Comparator.comparing(Widget::getZ).reversed());
+                descending.forEach(widget -> expected.save(widget.toBuilder().build()));
+
+                WidgetRepositoryInMemory actual = repository(policy, storedZs);
+                actual.saveAll(batch);
+
+                assertThat(actual.getStorage().page(0, 100))
+                        .extracting(Widget::getId, Widget::getZ)
+                        .containsExactlyElementsOf(expected.getStorage().page(0, 100).stream()
+                                .map(w -> tuple(w.getId(), w.getZ()))
+                                .collect(Collectors.toList()));
+            }
+        }
+    }
+
+    private WidgetRepositoryInMemory repository(CollisionPolicy policy, List<Integer> storedZs) {
+        RepositoryProperties properties = new RepositoryProperties();
+        properties.setCollisionPolicy(policy);
+        WidgetRepositoryInMemory repository = new WidgetRepositoryInMemory(properties, new SimpleMeterRegistry());
+        storedZs.forEach(z -> repository.save(widget(new UUID(0, z), z)));
+        return repository;
+    }
+
+    private void store(int... zs) {
+        Arrays.stream(zs).forEach(z -> stored.insert(widget(UUID.randomUUID(), z)));
+    }
+
+    private static List<Widget> widgets(int... zs) {
+        return Arrays.stream(zs).mapToObj(z -> widget(UUID.randomUUID(), z)).collect(Collectors.toList());
+    }
+
+    private static Widget widget(UUID id, int z) {
+        return new Widget(id, 1, 1, 1, 1, z, LocalDateTime.now());
+    }
+
+    private static List<Integer> zs(List<Widget> widgets) {
+        return widgets.stream().map(Widget::getZ).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,58 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Widget;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ColumnarZIndexTest {
+
+    WidgetColumns columns = new WidgetColumns();
+    ColumnarZIndex zIndex = new ColumnarZIndex(columns);
+
+    @Test
+    void insertAndRemove_whenRandom_thenKeepsZOrderAndIdsLikeATreeMap() {
+        Random random = new Random(16);
+        TreeMap<Integer, UUID> expected = new TreeMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            int z = random.nextInt(5_000);
+            if (expected.containsKey(z)) {
+                int slot = zIndex.remove(z);
+                assertThat(columns.get(slot).getId()).isEqualTo(expected.remove(z));
+                columns.remove(slot);
+            } else {
+                UUID id = UUID.randomUUID();
+                zIndex.insert(columns.add(new Widget(id, 0, 0, 1, 1, z, LocalDateTime.now())));
+                expected.put(z, id);
+            }
+        }
+
+        List<Integer> zs = new ArrayList<>();
+        zIndex.walkFromRank(0, slot -> zs.add(columns.z(slot)));
+        assertThat(zs).containsExactlyElementsOf(expected.keySet());
+        assertThat(columns.size()).isEqualTo(expected.size());
+        expected.forEach((z, id) -> assertThat(columns.z(columns.slotOf(id))).isEqualTo(z));
+        assertThat(zIndex.ceiling(2_500)).isEqualTo(expected.ceilingKey(2_500));
+    }
+
+    @Test
+    void shift_whenRangeSpansBlocks_thenMovesOnlyThatRange() {
+        for (int z = 0; z < 2_000; z++) {
+            zIndex.insert(columns.add(new Widget(UUID.randomUUID(), 0, 0, 1, 1, z, LocalDateTime.now())));
+        }
+        LocalDateTime shiftedAt = LocalDateTime.now().plusDays(1);
+
+        int shifted = zIndex.shift(1_000, 1_999, 100, shiftedAt);
+
+        assertThat(shifted).isEqualTo(1_000);
+        assertThat(zIndex.get(1_050)).isEqualTo(-1);
+        assertThat(columns.get(zIndex.get(1_100)).getLastUpdated()).isEqualTo(shiftedAt);
+        assertThat(columns.get(zIndex.get(999)).getLastUpdated()).isBefore(shiftedAt);
+        assertThat(zIndex.endOfRun(0)).isEqualTo(999);
+        assertThat(zIndex.ceiling(1_000)).isEqualTo(1_100);
+        assertThat(columns.z(zIndex.last())).isEqualTo(2_099);
+    }
+}
@@ -0,0 +1,125 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.exception.WidgetNotFoundException;
+import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetPatchRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.function.Supplier;
+
+import static com.yergun.widgetservice.TestUtils.widget;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+@DataJpaTest(properties = {
+        "application.repository.type=db",
+        "application.repository.cache-maximum-size=100"
+})
+@Import(SimpleMeterRegistry.class)
+// every call commits on its own, like the service calls the cache is meant for
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class CustomizedWidgetRepositoryImplCacheTest {
+
+    @Autowired
+    private WidgetRepository repository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    void tearDown() {
+        inTransaction(() -> entityManager.createQuery("Delete FROM Widget").executeUpdate());
+    }
+
+    @Test
+    void findById_whenCalledAgain_thenServesACopyFromTheCache() {
+        Widget saved = inTransaction(() -> repository.save(widget(0)));
+        double hits = gets("widgets.by-id", "hit");
+        double misses = gets("widgets.by-id", "miss");
+
+        repository.findById(saved.getId()).get().setX(999);
+        Widget found = repository.findById(saved.getId()).get();
+
+        assertThat(found.getX()).isEqualTo(1);
+        assertThat(gets("widgets.by-id", "hit") - hits).isEqualTo(1);
+        assertThat(gets("widgets.by-id", "miss") - misses).isEqualTo(1);
+    }
+
+    @Test
+    void save_whenZCollides_thenNoShiftedWidgetIsServedStale() {
+        Widget atZ1 = inTransaction(() -> repository.save(widget(1)));
+        Widget atZ2 = inTransaction(() -> repository.save(widget(2)));
+        repository.findById(atZ1.getId());
+        repository.findById(atZ2.getId());
+        repository.findFirstByOrderByZDesc();
+
+        inTransaction(() -> repository.save(widget(1)));
+
+        assertThat(repository.findById(atZ1.getId()).get().getZ()).isEqualTo(2);
+        assertThat(repository.findById(atZ2.getId()).get().getZ()).isEqualTo(3);
+        assertThat(repository.findFirstByOrderByZDesc().get().getId()).isEqualTo(atZ2.getId());
+    }
+
+    @Test
+    void deleteById_whenTopIsCached_thenEvictsItAndTheTop() {
+        Widget bottom = inTransaction(() -> repository.save(widget(0)));
+        Widget top = inTransaction(() -> repository.save(widget(1)));
+        assertThat(repository.findFirstByOrderByZDesc().get().getId()).isEqualTo(top.getId());
+        repository.findById(top.getId());
+
+        inTransaction(() -> {
+            repository.deleteById(top.getId());
+            return null;
+        });
+
+        assertThat(repository.findById(top.getId())).isEmpty();
+        assertThat(repository.findFirstByOrderByZDesc().get().getId()).isEqualTo(bottom.getId());
+        assertThatExceptionOfType(WidgetNotFoundException.class)
+                .isThrownBy(() -> inTransaction(() -> {
+                    repository.deleteById(top.getId());
+                    return null;
+                }));
+    }
+
+    @Test
+    void update_whenTransactionReadsAfterWriting_thenBypassesTheCacheUntilItCompletes() {
+        Widget saved = inTransaction(() -> repository.save(widget(0)));
+        repository.findById(saved.getId());
+        WidgetPatchRequest patchRequest = new WidgetPatchRequest();
+        patchRequest.setX(5);
+
+        int seenInTransaction = inTransaction(() -> {
+            repository.update(saved.getId(), patchRequest);
+            entityManager.flush();
+            return repository.findById(saved.getId()).get().getX();
+        });
+
+        assertThat(seenInTransaction).isEqualTo(5);
+        assertThat(repository.findById(saved.getId()).get().getX()).isEqualTo(5);
+    }
+
+    private <T> T inTransaction(Supplier<T> action) {
+        return new TransactionTemplate(transactionManager).execute(status -> action.get());
+    }
+
+    private double gets(String cache, String result) {
+        return meterRegistry.get("cache.gets").tag("cache", cache).tag("result", result).functionCounter().count();
+    }
+}
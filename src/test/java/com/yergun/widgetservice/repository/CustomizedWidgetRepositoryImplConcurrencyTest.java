@@ -0,0 +1,89 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Widget;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.yergun.widgetservice.TestUtils.widget;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = "application.repository.type=db")
+@Import(SimpleMeterRegistry.class)
+// the writes run in transactions of their own threads, nothing is rolled back
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class CustomizedWidgetRepositoryImplConcurrencyTest {
+
+    @Autowired
+    private WidgetRepository repository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    void tearDown() {
+        inTransaction(() -> entityManager.createQuery("Delete FROM Widget").executeUpdate());
+    }
+
+    @Test
+    void save_whenAnotherTransactionShifts_thenWaitsForItAndShiftsWhatItCommitted() throws Exception {
+        for (int z = 0; z < 5; z++) {
+            Widget widget = widget(z);
+            inTransaction(() -> repository.save(widget));
+        }
+        CountDownLatch shifted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // moves the widgets at 0 to 4 up to 1 to 5 and keeps its transaction open
+        CompletableFuture<Widget> shifting = CompletableFuture.supplyAsync(() -> inTransaction(() -> {
+            Widget saved = repository.save(widget(0));
+            entityManager.flush();
+            shifted.countDown();
+            await(release);
+            return saved;
+        }));
+        assertThat(shifted.await(5, TimeUnit.SECONDS)).isTrue();
+        // 5 is free until the shift commits, without waiting both would take it
+        CompletableFuture<Widget> atTop = CompletableFuture.supplyAsync(() -> inTransaction(() ->
+                repository.save(widget(5))));
+
+        Thread.sleep(200);
+        assertThat(atTop).isNotDone();
+        release.countDown();
+        shifting.get(5, TimeUnit.SECONDS);
+        Widget saved = atTop.get(5, TimeUnit.SECONDS);
+
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(0, 10)).getContent())
+                .extracting(Widget::getZ).containsExactly(0, 1, 2, 3, 4, 5, 6);
+        assertThat(repository.findFirstByZ(5).get().getId()).isEqualTo(saved.getId());
+    }
+
+    private <T> T inTransaction(Supplier<T> action) {
+        return new TransactionTemplate(transactionManager).execute(status -> action.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetPatchRequest;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = {
+        "application.repository.type=db",
+        "application.repository.collision-policy=shift-until-gap"
+})
+@Import(SimpleMeterRegistry.class)
+class CustomizedWidgetRepositoryImplShiftUntilGapTest {
+
+    @Autowired
+    private WidgetRepository repository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void save_whenZCollides_thenShiftsOnlyTheRunAboveCollision() {
+        for (int z : new int[]{0, 1, 2, 5, 6}) {
+            repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, z, LocalDateTime.now()));
+        }
+        DistributionSummary shifted = meterRegistry.get("widgets.shifted").tag("policy", "shift_until_gap").summary();
+        double shiftedBefore = shifted.totalAmount();
+
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 1, LocalDateTime.now()));
+        entityManager.flush();
+
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(0, 10)).getContent())
+                .extracting(Widget::getZ).containsExactly(0, 1, 2, 3, 5, 6);
+        assertThat(shifted.totalAmount() - shiftedBefore).isEqualTo(2);
+    }
+
+    @Test
+    void update_whenZCollides_thenShiftsOnlyTheRunAboveCollision() {
+        for (int z : new int[]{0, 1, 3, 4, 5}) {
+            repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, z, LocalDateTime.now()));
+        }
+        Widget widgetWithZ0 = repository.findFirstByZ(0).get();
+
+        WidgetPatchRequest wpr = new WidgetPatchRequest();
+        wpr.setZ(3);
+        repository.update(widgetWithZ0.getId(), wpr);
+        entityManager.flush();
+
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(0, 10)).getContent())
+                .extracting(Widget::getZ).containsExactly(1, 3, 4, 5, 6);
+    }
+}
@@ -0,0 +1,282 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.exception.ZIndexOutOfRangeException;
+import com.yergun.widgetservice.model.Point;
+import com.yergun.widgetservice.model.Region;
+import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetBatchPatchRequest;
+import com.yergun.widgetservice.model.WidgetPatchRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.yergun.widgetservice.TestUtils.fillWidgets;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.tuple;
+
+@DataJpaTest(properties = {
+        "application.repository.type=db",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Import(SimpleMeterRegistry.class)
+class CustomizedWidgetRepositoryImplTest {
+
+    @Autowired
+    private WidgetRepository repository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    void save_whenZCollides_thenShiftsWidgetsAboveWithoutLoadingThem() {
+        fillWidgets(50, repository);
+        entityManager.flush();
+        Statistics statistics = statistics();
+
+        LocalDateTime before = LocalDateTime.now();
+        repository.save(new Widget(UUID.randomUUID(), 10, 10, 10, 10, 0, before));
+        entityManager.flush();
+
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(6);
+        assertThat(statistics.getEntityLoadCount()).isZero();
+
+        List<Widget> widgets = repository.findByOrderByZAsc(PageRequest.of(0, 51)).getContent();
+        assertThat(widgets).extracting(Widget::getZ).doesNotHaveDuplicates().startsWith(0, 1, 2).endsWith(50);
+        assertThat(widgets.get(50).getLastUpdated()).isAfterOrEqualTo(before);
+    }
+
+    @Test
+    void update_whenZCollides_thenUpdatesWidgetAndMovesTheRest() {
+        fillWidgets(5, repository);
+        Widget widgetWithZ0 = repository.findFirstByZ(0).get();
+
+        WidgetPatchRequest wpr = new WidgetPatchRequest();
+        wpr.setX(999);
+        wpr.setZ(3);
+        Widget updated = repository.update(widgetWithZ0.getId(), wpr);
+        entityManager.flush();
+        entityManager.clear();
+
+        assertThat(updated.getZ()).isEqualTo(3);
+        assertThat(repository.findById(widgetWithZ0.getId()).get().getX()).isEqualTo(999);
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(0, 10)).getContent())
+                .extracting(Widget::getZ).containsExactly(1, 2, 3, 4, 5);
+    }
+
+    @Test
+    void update_whenZIsUnchanged_thenShiftsNothing() {
+        fillWidgets(5, repository);
+        Widget widget = repository.findFirstByZ(2).get();
+        entityManager.flush();
+        Statistics statistics = statistics();
+
+        WidgetPatchRequest wpr = new WidgetPatchRequest();
+        wpr.setX(999);
+        wpr.setZ(2);
+        repository.update(widget.getId(), wpr);
+        entityManager.flush();
+        entityManager.clear();
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(0, 10)).getContent())
+                .extracting(Widget::getZ, Widget::getX).containsExactly(
+                        tuple(0, 10), tuple(1, 10), tuple(2, 999), tuple(3, 10), tuple(4, 10));
+    }
+
+    @Test
+    void save_whenParkingTheShiftLeavesTheIntRange_thenRejectsTheWriteUntouched() {
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, Integer.MIN_VALUE, LocalDateTime.now()));
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 0, LocalDateTime.now()));
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, Integer.MAX_VALUE / 2, LocalDateTime.now()));
+        entityManager.flush();
+
+        assertThatExceptionOfType(ZIndexOutOfRangeException.class).isThrownBy(() -> repository.save(
+                new Widget(UUID.randomUUID(), 1, 1, 1, 1, Integer.MIN_VALUE, LocalDateTime.now())));
+        assertThatExceptionOfType(ZIndexOutOfRangeException.class).isThrownBy(() -> repository.saveAll(List.of(
+                new Widget(UUID.randomUUID(), 1, 1, 1, 1, 0, LocalDateTime.now()))));
+        entityManager.clear();
+
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(0, 10)).getContent()).extracting(Widget::getZ)
+                .containsExactly(Integer.MIN_VALUE, 0, Integer.MAX_VALUE / 2);
+    }
+
+    @Test
+    void saveAll_whenZsCollide_thenShiftsRangesWithoutLoadingWidgets() {
+        fillWidgets(50, repository);
+        entityManager.flush();
+        Statistics statistics = statistics();
+
+        List<Widget> batch = List.of(
+                new Widget(UUID.randomUUID(), 1, 1, 1, 1, 10, LocalDateTime.now()),
+                new Widget(UUID.randomUUID(), 1, 1, 1, 1, 20, LocalDateTime.now()),
+                new Widget(UUID.randomUUID(), 1, 1, 1, 1, 20, LocalDateTime.now()));
+        repository.saveAll(batch);
+        entityManager.flush();
+
+        assertThat(statistics.getEntityLoadCount()).isZero();
+        assertThat(batch).extracting(Widget::getZ).containsExactly(10, 22, 21);
+        List<Widget> widgets = repository.findByOrderByZAsc(PageRequest.of(0, 60)).getContent();
+        assertThat(widgets).extracting(Widget::getZ).doesNotHaveDuplicates().hasSize(53).endsWith(52);
+        assertThat(repository.findFirstByZ(23).get().getX()).isEqualTo(10);
+    }
+
+    @Test
+    void updateAll_whenMovedOntoTakenZs_thenLoadsWidgetsOnceAndShiftsTheRest() {
+        fillWidgets(20, repository);
+        entityManager.flush();
+        List<Widget> moved = List.of(repository.findFirstByZ(15).get(), repository.findFirstByZ(18).get());
+        entityManager.clear();
+        Statistics statistics = statistics();
+
+        List<WidgetBatchPatchRequest> patchRequests = new ArrayList<>();
+        for (Widget widget : moved) {
+            WidgetBatchPatchRequest patchRequest = new WidgetBatchPatchRequest();
+            patchRequest.setId(widget.getId());
+            patchRequest.setZ(3);
+            patchRequest.setX(777);
+            patchRequests.add(patchRequest);
+        }
+        List<Widget> updated = repository.updateAll(patchRequests);
+        entityManager.flush();
+        entityManager.clear();
+
+        assertThat(statistics.getEntityLoadCount()).isEqualTo(2);
+        assertThat(updated).extracting(Widget::getZ).containsExactly(4, 3);
+        assertThat(repository.findById(moved.get(0).getId()).get().getX()).isEqualTo(777);
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(0, 30)).getContent())
+                .extracting(Widget::getZ).doesNotHaveDuplicates().hasSize(20).endsWith(21);
+    }
+
+    @Test
+    void findInRegion_whenWidgetsIntersect_thenReturnsThemInZOrder() {
+        Widget top = repository.save(new Widget(UUID.randomUUID(), 50, 50, 100, 100, 9, LocalDateTime.now()));
+        Widget bottom = repository.save(new Widget(UUID.randomUUID(), 0, 0, 100, 100, 1, LocalDateTime.now()));
+        repository.save(new Widget(UUID.randomUUID(), 500, 500, 10, 10, 5, LocalDateTime.now()));
+        repository.save(new Widget(UUID.randomUUID(), 150, 0, 10, 10, 6, LocalDateTime.now()));
+
+        Page<Widget> widgets = repository.findInRegion(new Region(90, 90, 200, 200), PageRequest.of(0, 1));
+
+        assertThat(widgets.getContent()).extracting(Widget::getId).containsExactly(bottom.getId());
+        assertThat(widgets.getTotalElements()).isEqualTo(2);
+        assertThat(repository.findInRegion(new Region(90, 90, 200, 200), PageRequest.of(1, 1)).getContent())
+                .extracting(Widget::getId).containsExactly(top.getId());
+    }
+
+    @Test
+    void findTopmostAt_whenWidgetsOverlap_thenReturnsTheOneWithHighestZPerPoint() {
+        repository.save(new Widget(UUID.randomUUID(), 0, 0, 100, 100, 1, LocalDateTime.now()));
+        Widget top = repository.save(new Widget(UUID.randomUUID(), 50, 50, 100, 100, 9, LocalDateTime.now()));
+
+        List<Widget> widgets = repository.findTopmostAt(List.of(new Point(60, 60), new Point(500, 500)));
+
+        assertThat(widgets.get(0).getId()).isEqualTo(top.getId());
+        assertThat(widgets.get(1)).isNull();
+    }
+
+    @Test
+    void findInRegion_whenCoordinatesReachPastTheIntRange_thenReturnsTheWidgetsThere() {
+        Widget right = repository.save(new Widget(UUID.randomUUID(), Integer.MAX_VALUE - 5, 0, 10, 10, 1,
+                LocalDateTime.now()));
+        Widget left = repository.save(new Widget(UUID.randomUUID(), Integer.MIN_VALUE, 0, 10, 10, 2,
+                LocalDateTime.now()));
+
+        assertThat(repository.findInRegion(new Region(Integer.MAX_VALUE, 0, Integer.MAX_VALUE, 0),
+                PageRequest.of(0, 10)).getContent()).extracting(Widget::getId).containsExactly(right.getId());
+        assertThat(repository.findInRegion(new Region(Integer.MIN_VALUE, 0, Integer.MIN_VALUE + 1, 0),
+                PageRequest.of(0, 10)).getContent()).extracting(Widget::getId).containsExactly(left.getId());
+        assertThat(repository.findTopmostAt(List.of(new Point(Integer.MAX_VALUE, 5), new Point(Integer.MIN_VALUE, 5))))
+                .extracting(Widget::getId).containsExactly(right.getId(), left.getId());
+    }
+
+    @Test
+    void findAfterZ_whenCalledWithoutZ_ReturnsWidgetsFromTheBottom() {
+        fillWidgets(10, repository);
+
+        assertThat(repository.findAfterZ(null, 3)).extracting(Widget::getZ).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    void findAfterZ_whenCalledWithZ_ReturnsWidgetsAboveIt() {
+        fillWidgets(10, repository);
+
+        assertThat(repository.findAfterZ(7, 3)).extracting(Widget::getZ).containsExactly(8, 9);
+    }
+
+    @Test
+    void streamByOrderByZAsc_whenConsumed_thenReturnsWidgetsInZOrderWithoutKeepingThemManaged() {
+        for (int z : new int[]{4, 0, 2, 3, 1}) {
+            repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, z, LocalDateTime.now()));
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        List<Widget> widgets;
+        try (Stream<Widget> stream = repository.streamByOrderByZAsc()) {
+            widgets = stream.collect(Collectors.toList());
+        }
+
+        assertThat(widgets).extracting(Widget::getZ).containsExactly(0, 1, 2, 3, 4);
+        assertThat(widgets).noneMatch(entityManager::contains);
+    }
+
+    @Test
+    void findSliceByOrderByZAsc_whenMoreWidgetsFollow_thenTellsSoWithoutCounting() {
+        fillWidgets(25, repository);
+        entityManager.flush();
+        Statistics statistics = statistics();
+
+        Slice<Widget> middle = repository.findSliceByOrderByZAsc(PageRequest.of(1, 10));
+        Slice<Widget> last = repository.findSliceByOrderByZAsc(PageRequest.of(2, 10));
+
+        assertThat(middle.getContent()).extracting(Widget::getZ)
+                .containsExactly(10, 11, 12, 13, 14, 15, 16, 17, 18, 19);
+        assertThat(middle.hasNext()).isTrue();
+        assertThat(last.getContent()).hasSize(5);
+        assertThat(last.hasNext()).isFalse();
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    void findSliceInRegion_whenPageIsFull_thenFetchesOneMoreInsteadOfCounting() {
+        fillWidgets(12, repository);
+        entityManager.flush();
+        Statistics statistics = statistics();
+
+        Slice<Widget> slice = repository.findSliceInRegion(new Region(0, 0, 1000, 1000), PageRequest.of(0, 10));
+
+        assertThat(slice.getContent()).hasSize(10);
+        assertThat(slice.hasNext()).isTrue();
+        // the widest widget and the page
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    void approximateCount_whenNotOnPostgres_thenCountsTheWidgets() {
+        fillWidgets(7, repository);
+        entityManager.flush();
+
+        assertThat(repository.approximateCount()).isEqualTo(7);
+    }
+
+    private Statistics statistics() {
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        return statistics;
+    }
+}
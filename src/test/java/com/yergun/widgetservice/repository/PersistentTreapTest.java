@@ -0,0 +1,105 @@
+package com.yergun.widgetservice.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PersistentTreapTest {
+
+    PersistentTreap<Integer, Integer> empty = PersistentTreap.empty(Function.<Integer>identity(), Comparator.naturalOrder());
+
+    @Test
+    void put_whenCalled_thenLeavesTheOldTreapAsItWas() {
+        PersistentTreap<Integer, Integer> before = empty.put(1).put(3);
+
+        PersistentTreap<Integer, Integer> after = before.put(2).remove(3);
+
+        assertThat(before.page(0, 10)).containsExactly(1, 3);
+        assertThat(after.page(0, 10)).containsExactly(1, 2);
+    }
+
+    @Test
+    void shift_whenCalled_thenChangesOnlyTheRangeAndLeavesTheOldTreapAsItWas() {
+        PersistentTreap<Integer, int[]> before = PersistentTreap.empty(value -> value[0], Comparator.naturalOrder());
+        for (int i = 0; i < 10; i++) {
+            before = before.put(new int[]{i, i * 10});
+        }
+
+        PersistentTreap<Integer, int[]> after = before
+                .shift(value -> value[1] < 30, value -> value[1] < 60, new Add(5))
+                .shift(value -> value[1] < 45, value -> value[1] < 100, new Add(1))
+                .put(new int[]{10, 200});
+
+        assertThat(after.page(0, 11)).extracting(value -> value[1])
+                .containsExactly(0, 10, 20, 35, 46, 56, 61, 71, 81, 91, 200);
+        assertThat(after.get(4)[1]).isEqualTo(46);
+        assertThat(after.first(value -> value[1] < 50)[0]).isEqualTo(5);
+        assertThat(after.lastOf(value -> value[1] < 50)[0]).isEqualTo(4);
+        assertThat(after.count(value -> value[1] < 50)).isEqualTo(5);
+        assertThat(after.after(value -> value[1] <= 56, 2)).extracting(value -> value[1]).containsExactly(61, 71);
+        assertThat(before.page(0, 10)).extracting(value -> value[1])
+                .containsExactly(0, 10, 20, 30, 40, 50, 60, 70, 80, 90);
+    }
+
+    @Test
+    void replace_whenCalled_thenReplacesOnlyTheKeysInTheRange() {
+        PersistentTreap<Integer, Integer> before = empty.put(1).put(4).put(6).put(9);
+
+        PersistentTreap<Integer, Integer> after = before.replace(4, 9, List.of(5, 7, 8));
+
+        assertThat(after.page(0, 10)).containsExactly(1, 5, 7, 8, 9);
+        assertThat(before.page(0, 10)).containsExactly(1, 4, 6, 9);
+    }
+
+    @Test
+    void from_whenExclusive_thenReturnsLimitedValuesAboveKey() {
+        PersistentTreap<Integer, Integer> treap = empty.put(1).put(4).put(6).put(9);
+
+        assertThat(treap.from(4, false, 2)).containsExactly(6, 9);
+        assertThat(treap.from(4, true, 2)).containsExactly(4, 6);
+        assertThat(treap.last()).isEqualTo(9);
+    }
+
+    @Test
+    void randomOperations_whenComparedToTreeMap_thenStayInSync() {
+        Random random = new Random(42);
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        PersistentTreap<Integer, Integer> treap = empty;
+
+        for (int i = 0; i < 10_000; i++) {
+            int key = random.nextInt(1_000);
+            if (random.nextBoolean()) {
+                expected.put(key, key);
+                treap = treap.put(key);
+            } else {
+                expected.remove(key);
+                treap = treap.remove(key);
+            }
+        }
+
+        assertThat(treap.size()).isEqualTo(expected.size());
+        assertThat(treap.page(0, expected.size())).containsExactlyElementsOf(expected.values());
+        assertThat(treap.page(100, 7)).containsExactlyElementsOf(new ArrayList<>(expected.values()).subList(100, 107));
+    }
+
+    private static class Add implements PersistentTreap.Shift<int[]> {
+        private final int amount;
+
+        private Add(int amount) {
+            this.amount = amount;
+        }
+
+        @Override
+        public int[] applyTo(int[] value) {
+            return new int[]{value[0], value[1] + amount};
+        }
+
+        @Override
+        public PersistentTreap.Shift<int[]> and(PersistentTreap.Shift<int[]> other) {
+            return new Add(amount + ((Add) other).amount);
+        }
+    }
+}
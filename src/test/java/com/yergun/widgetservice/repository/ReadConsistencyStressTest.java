@@ -0,0 +1,101 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetPatchRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Readers racing a writer that keeps shifting widgets around, every page has to be a single point in time
+ * and must not change once it is handed out.
+ */
+class ReadConsistencyStressTest {
+
+    private static final int WIDGETS = 300;
+    private static final int PAGE_SIZE = 50;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"memory", "lazy-shift", "snapshot", "columnar"})
+    void findByOrderByZAsc_whenWrittenConcurrently_thenPagesAreNeverTorn(String type) throws Exception {
+        WidgetRepository repository = repository(type);
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < WIDGETS; i++) {
+            ids.add(repository.save(new Widget(UUID.randomUUID(), i, i, 10, 10, i, LocalDateTime.now())).getId());
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Future<?> writer = executor.submit(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (running.get()) {
+                WidgetPatchRequest patchRequest = new WidgetPatchRequest();
+                patchRequest.setZ(random.nextInt(WIDGETS));
+                repository.update(ids.get(random.nextInt(WIDGETS)), patchRequest);
+            }
+        });
+        List<Future<?>> readers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            readers.add(executor.submit(() -> readPages(repository)));
+        }
+
+        try {
+            for (Future<?> reader : readers) {
+                reader.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            running.set(false);
+            writer.get(60, TimeUnit.SECONDS);
+            executor.shutdown();
+        }
+    }
+
+    private static void readPages(WidgetRepository repository) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 500; i++) {
+            int pageNumber = random.nextInt(WIDGETS / PAGE_SIZE);
+            Page<Widget> page = repository.findByOrderByZAsc(PageRequest.of(pageNumber, PAGE_SIZE));
+            List<Integer> zs = zs(page.getContent());
+            assertThat(page.getTotalElements()).isEqualTo(WIDGETS);
+            assertThat(zs).hasSize(PAGE_SIZE).isSorted().doesNotHaveDuplicates();
+
+            Widget widget = page.getContent().get(0);
+            List<Integer> tail = zs(new ArrayList<>(repository.findByZGreaterThanEqualOrderByZAsc(widget)));
+            assertThat(tail).isSorted().doesNotHaveDuplicates();
+
+            Thread.yield();
+            // handed out widgets are the reader's own, whatever the writer did since
+            assertThat(zs(page.getContent())).isEqualTo(zs);
+        }
+    }
+
+    private static List<Integer> zs(List<Widget> widgets) {
+        return widgets.stream().map(Widget::getZ).collect(Collectors.toList());
+    }
+
+    private static WidgetRepository repository(String type) {
+        RepositoryProperties properties = new RepositoryProperties();
+        switch (type) {
+            case "lazy-shift":
+                return new WidgetRepositoryLazyShift(properties, new SimpleMeterRegistry());
+            case "snapshot":
+                return new WidgetRepositorySnapshot(properties, new SimpleMeterRegistry());
+            case "columnar":
+                return new WidgetRepositoryColumnar(properties, new SimpleMeterRegistry());
+            default:
+                return new WidgetRepositoryInMemory(properties, new SimpleMeterRegistry());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.exception.WidgetNotFoundException;
+import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetPatchRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static com.yergun.widgetservice.TestUtils.fillWidgets;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+@DataJpaTest(properties = "application.repository.type=db")
+@Import({SimpleMeterRegistry.class, RepositoryTimingPostProcessor.class, FlushMetricsInterceptor.class})
+class RepositoryMetricsTest {
+
+    @Autowired
+    private WidgetRepository repository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void update_whenCalledOnDatabaseRepository_thenTimesItByOperationAndException() {
+        Widget widget = repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 0, LocalDateTime.now()));
+        WidgetPatchRequest patchRequest = new WidgetPatchRequest();
+        patchRequest.setX(5);
+
+        repository.update(widget.getId(), patchRequest);
+        assertThatExceptionOfType(WidgetNotFoundException.class)
+                .isThrownBy(() -> repository.update(UUID.randomUUID(), patchRequest));
+
+        assertThat(meterRegistry.get("widgets.repository").tags("repository", "db", "operation", "update",
+                "exception", "none").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("widgets.repository").tags("repository", "db", "operation", "update",
+                "exception", "WidgetNotFoundException").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("widgets.repository").tags("operation", "save").timer().count()).isEqualTo(1);
+        // still the repository proxy of Spring Data, the timing was added to it
+        assertThat(repository.getClass().getSimpleName()).startsWith("$Proxy");
+    }
+
+    @Test
+    void flush_whenWidgetsAreManaged_thenRecordsHowManyWereChecked() {
+        fillWidgets(20, repository);
+
+        entityManager.flush();
+
+        assertThat(meterRegistry.get("widgets.flush.entities").summary().max()).isEqualTo(20);
+        assertThat(meterRegistry.get("widgets.flush").timer().count()).isPositive();
+    }
+}
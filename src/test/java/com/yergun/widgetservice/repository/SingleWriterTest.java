@@ -0,0 +1,149 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.exception.RepositoryClosedException;
+import com.yergun.widgetservice.exception.WidgetNotFoundException;
+import com.yergun.widgetservice.exception.WriteQueueFullException;
+import com.yergun.widgetservice.model.Widget;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import static com.yergun.widgetservice.TestUtils.widget;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class SingleWriterTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    ReentrantLock lock = new ReentrantLock();
+    List<List<Integer>> savedRuns = new CopyOnWriteArrayList<>();
+    ExecutorService callers = Executors.newCachedThreadPool();
+    SingleWriter writer;
+
+    @AfterEach
+    void tearDown() {
+        if (lock.isHeldByCurrentThread()) {
+            lock.unlock();
+        }
+        writer.shutdown();
+        callers.shutdownNow();
+    }
+
+    @Test
+    void submit_whenActionThrows_thenRethrowsToTheCaller() {
+        writer = writer(4);
+        UUID id = UUID.randomUUID();
+
+        assertThatExceptionOfType(WidgetNotFoundException.class)
+                .isThrownBy(() -> writer.submit(() -> {
+                    throw new WidgetNotFoundException(id);
+                }));
+        assertThat(writer.<Integer>submit(() -> 7)).isEqualTo(7);
+    }
+
+    @Test
+    void save_whenQueuedWithNonIncreasingZ_thenPlacesThemInOnePass() throws Exception {
+        writer = writer(8);
+        lock.lock();
+        Future<Integer> blocker = callers.submit(() -> writer.submit(() -> 0));
+        awaitWriterBlocked();
+        List<Future<Widget>> saves = new ArrayList<>();
+        saves.add(enqueue(() -> writer.save(widget(5), () -> single(5)), 1));
+        saves.add(enqueue(() -> writer.save(widget(3), () -> single(3)), 2));
+        saves.add(enqueue(() -> writer.save(widget(3), () -> single(3)), 3));
+        saves.add(enqueue(() -> writer.save(widget(4), () -> single(4)), 4));
+        lock.unlock();
+
+        assertThat(blocker.get(5, TimeUnit.SECONDS)).isZero();
+        for (Future<Widget> save : saves) {
+            assertThat(save.get(5, TimeUnit.SECONDS)).isNotNull();
+        }
+        assertThat(savedRuns).containsExactly(List.of(5, 3, 3), List.of(-4));
+    }
+
+    @Test
+    void submit_whenQueueIsFull_thenRejectsRightAway() throws Exception {
+        writer = writer(1);
+        lock.lock();
+        Future<Integer> first = callers.submit(() -> writer.submit(() -> 1));
+        awaitWriterBlocked();
+        // the writer holds the first one and waits for the lock, the second one fills the queue
+        Future<Integer> second = enqueue(() -> writer.submit(() -> 2), 1);
+
+        assertThatExceptionOfType(WriteQueueFullException.class).isThrownBy(() -> writer.submit(() -> 3));
+
+        lock.unlock();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(2);
+    }
+
+    @Test
+    void shutdown_whenWritesAreQueued_thenAppliesThemAndRejectsLaterOnes() throws Exception {
+        writer = writer(4);
+        lock.lock();
+        Future<Integer> taken = callers.submit(() -> writer.submit(() -> 1));
+        awaitWriterBlocked();
+        Future<Integer> queued = enqueue(() -> writer.submit(() -> 2), 1);
+        Future<?> shutdown = enqueue(writer::shutdown, 2);
+
+        assertThatExceptionOfType(RepositoryClosedException.class).isThrownBy(() -> writer.submit(() -> 3));
+
+        lock.unlock();
+        shutdown.get(5, TimeUnit.SECONDS);
+        assertThat(taken.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo(2);
+        assertThatExceptionOfType(RepositoryClosedException.class).isThrownBy(() -> writer.submit(() -> 4));
+    }
+
+    private SingleWriter writer(int capacity) {
+        return new SingleWriter(capacity, lock, widgets -> {
+            List<Integer> zs = new ArrayList<>();
+            widgets.forEach(widget -> zs.add(widget.getZ()));
+            savedRuns.add(zs);
+            return widgets;
+        }, meterRegistry);
+    }
+
+    /**
+     * saved alone, recorded with a negative z to tell it apart from a coalesced run
+     */
+    private Widget single(int z) {
+        savedRuns.add(List.of(-z));
+        return widget(z);
+    }
+
+    private Future<?> enqueue(Runnable call, int pending) throws InterruptedException {
+        Future<?> future = callers.submit(call);
+        awaitPending(pending);
+        return future;
+    }
+
+    private <T> Future<T> enqueue(Supplier<T> call, int pending) throws InterruptedException {
+        Future<T> future = callers.submit(call::get);
+        awaitPending(pending);
+        return future;
+    }
+
+    private void awaitWriterBlocked() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!lock.hasQueuedThreads() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(lock.hasQueuedThreads()).isTrue();
+    }
+
+    private void awaitPending(int pending) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.get("widgets.write.pending").gauge().value() != pending && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(meterRegistry.get("widgets.write.pending").gauge().value()).isEqualTo(pending);
+    }
+}
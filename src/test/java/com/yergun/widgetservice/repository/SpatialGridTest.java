@@ -0,0 +1,65 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Widget;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SpatialGridTest {
+
+    SpatialGrid<Widget> grid = new SpatialGrid<>(10);
+
+    @Test
+    void candidates_whenCellsTouched_thenReturnsItemsOfThoseCellsOnly() {
+        Widget near = widget(0, 0, 5, 5);
+        Widget spanning = widget(8, 8, 15, 15);
+        Widget far = widget(100, 100, 5, 5);
+        grid.add(near, near);
+        grid.add(spanning, spanning);
+        grid.add(far, far);
+
+        assertThat(grid.candidates(0, 0, 9, 9)).containsExactlyInAnyOrder(near, spanning);
+        assertThat(grid.candidates(20, 20, 25, 25)).containsExactly(spanning);
+        assertThat(grid.candidates(-50, -50, -40, -40)).isEmpty();
+    }
+
+    @Test
+    void candidates_whenRegionCoversMoreCellsThanStored_thenScansStoredCells() {
+        Widget widget = widget(-35, 42, 1, 1);
+        grid.add(widget, widget);
+
+        assertThat(grid.candidates(-1_000_000, -1_000_000, 1_000_000, 1_000_000)).containsExactly(widget);
+        assertThat(grid.candidates(0, 0, 1_000_000, 1_000_000)).isEmpty();
+    }
+
+    @Test
+    void remove_whenCalled_thenItemIsNoLongerACandidate() {
+        Widget widget = widget(0, 0, 30, 30);
+        Widget huge = widget(0, 0, 10_000, 10_000);
+        grid.add(widget, widget);
+        grid.add(huge, huge);
+
+        assertThat(grid.candidates(500, 500, 500, 500)).containsExactly(huge);
+
+        grid.remove(widget);
+        grid.remove(huge);
+
+        assertThat(grid.candidates(0, 0, 30, 30)).isEmpty();
+    }
+
+    @Test
+    void candidates_whenWidgetReachesPastTheIntRange_thenItIsStillACandidate() {
+        Widget widget = widget(Integer.MAX_VALUE - 5, Integer.MAX_VALUE - 5, 10, 10);
+        grid.add(widget, widget);
+
+        assertThat(grid.candidates(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE))
+                .containsExactly(widget);
+    }
+
+    private static Widget widget(int x, int y, int width, int height) {
+        return new Widget(UUID.randomUUID(), x, y, width, height, 0, LocalDateTime.now());
+    }
+}
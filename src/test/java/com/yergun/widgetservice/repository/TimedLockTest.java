@@ -0,0 +1,95 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimedLockTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    RepositoryProperties properties = new RepositoryProperties();
+    ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    Lock readLock = RepositoryMetrics.timed(lock.readLock(), properties, meterRegistry, "memory", "read");
+    Lock writeLock = RepositoryMetrics.timed(lock.writeLock(), properties, meterRegistry, "memory", "write");
+    ExecutorService threads = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        threads.shutdownNow();
+    }
+
+    @Test
+    void unlock_whenReentered_thenRecordsOneHoldFromOutermostLock() throws Exception {
+        writeLock.lock();
+        writeLock.lock();
+        Thread.sleep(20);
+        writeLock.unlock();
+
+        assertThat(timer("widgets.lock.held", "write").count()).isZero();
+        writeLock.unlock();
+
+        assertThat(timer("widgets.lock.wait", "write").count()).isEqualTo(1);
+        assertThat(timer("widgets.lock.held", "write").count()).isEqualTo(1);
+        assertThat(timer("widgets.lock.held", "write").totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(20);
+        assertThat(lock.isWriteLocked()).isFalse();
+    }
+
+    @Test
+    void lock_whenWriterHoldsIt_thenRecordsTheWaitOfTheReader() throws Exception {
+        writeLock.lock();
+        Future<?> reader = threads.submit(() -> {
+            readLock.lock();
+            readLock.unlock();
+        });
+        Thread.sleep(50);
+        writeLock.unlock();
+        reader.get(5, TimeUnit.SECONDS);
+
+        assertThat(timer("widgets.lock.wait", "read").count()).isEqualTo(1);
+        assertThat(timer("widgets.lock.wait", "read").totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(40);
+        assertThat(timer("widgets.lock.held", "write").totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(40);
+    }
+
+    @Test
+    void unlock_whenReadersOverlap_thenRecordsEachHold() throws Exception {
+        CountDownLatch bothHolding = new CountDownLatch(2);
+        Callable<Void> reader = () -> {
+            readLock.lock();
+            try {
+                bothHolding.countDown();
+                bothHolding.await(5, TimeUnit.SECONDS);
+            } finally {
+                readLock.unlock();
+            }
+            return null;
+        };
+        for (Future<Void> future : threads.invokeAll(List.of(reader, reader))) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        assertThat(bothHolding.getCount()).isZero();
+        assertThat(timer("widgets.lock.held", "read").count()).isEqualTo(2);
+    }
+
+    @Test
+    void timed_whenLockMetricsAreOff_thenReturnsTheLockItself() {
+        properties.setLockMetrics(false);
+
+        assertThat(RepositoryMetrics.timed(lock.readLock(), properties, meterRegistry, "columnar", "read"))
+                .isSameAs(lock.readLock());
+        assertThat(meterRegistry.find("widgets.lock.wait").tag("repository", "columnar").timer()).isNull();
+    }
+
+    private Timer timer(String name, String mode) {
+        return meterRegistry.get(name).tag("repository", "memory").tag("mode", mode).timer();
+    }
+}
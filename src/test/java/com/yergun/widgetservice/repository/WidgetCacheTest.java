@@ -0,0 +1,93 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.model.Widget;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.yergun.widgetservice.TestUtils.widget;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WidgetCacheTest {
+
+    ExecutorService readers = Executors.newSingleThreadExecutor();
+    WidgetCache cache = WidgetCache.create(properties(), new SimpleMeterRegistry());
+
+    @AfterEach
+    void tearDown() {
+        readers.shutdownNow();
+    }
+
+    @Test
+    void findById_whenEvictedWhileTheOldRowIsLoaded_thenDoesNotCacheIt() throws Exception {
+        Widget old = widget(1);
+        Widget current = old.toBuilder().z(2).build();
+        CountDownLatch loaded = new CountDownLatch(1);
+        CountDownLatch evicted = new CountDownLatch(1);
+
+        Future<Optional<Widget>> read = readers.submit(() -> cache.findById(old.getId(), id -> {
+            loaded.countDown();
+            await(evicted);
+            return old;
+        }));
+        await(loaded);
+        // the writer commits after the reader loaded the old row and before the reader puts it
+        cache.evict(old.getId());
+        evicted.countDown();
+
+        assertThat(read.get(5, TimeUnit.SECONDS).get().getZ()).isEqualTo(1);
+        assertThat(cache.findById(old.getId(), id -> current).get().getZ()).isEqualTo(2);
+    }
+
+    @Test
+    void findTop_whenEvictedWhileTheOldTopIsLoaded_thenDoesNotCacheIt() throws Exception {
+        Widget old = widget(1);
+        Widget current = widget(2);
+        CountDownLatch loaded = new CountDownLatch(1);
+        CountDownLatch evicted = new CountDownLatch(1);
+
+        Future<Optional<Widget>> read = readers.submit(() -> cache.findTop(() -> {
+            loaded.countDown();
+            await(evicted);
+            return Optional.of(old);
+        }));
+        await(loaded);
+        cache.evictAll();
+        evicted.countDown();
+
+        assertThat(read.get(5, TimeUnit.SECONDS).get().getId()).isEqualTo(old.getId());
+        Supplier<Optional<Widget>> load = () -> Optional.of(current);
+        assertThat(cache.findTop(load).get().getId()).isEqualTo(current.getId());
+    }
+
+    @Test
+    void findById_whenNothingEvictedWhileLoading_thenCachesTheRow() {
+        Widget widget = widget(1);
+        cache.findById(widget.getId(), id -> widget);
+
+        assertThat(cache.findById(widget.getId(), id -> null)).isPresent();
+    }
+
+    private static RepositoryProperties properties() {
+        RepositoryProperties properties = new RepositoryProperties();
+        properties.setCacheMaximumSize(100);
+        return properties;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
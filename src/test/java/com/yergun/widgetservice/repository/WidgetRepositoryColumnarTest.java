@@ -0,0 +1,180 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.exception.WidgetNotFoundException;
+import com.yergun.widgetservice.model.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static com.yergun.widgetservice.TestUtils.fillWidgets;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.tuple;
+
+class WidgetRepositoryColumnarTest {
+
+    WidgetRepositoryColumnar repository = new WidgetRepositoryColumnar(new RepositoryProperties(), new SimpleMeterRegistry());
+
+    @Test
+    void save_whenCalled_thenStoresValuesNotTheInstance() {
+        UUID id = UUID.randomUUID();
+        LocalDateTime lastUpdated = LocalDateTime.of(2020, 2, 29, 23, 59, 59, 123_456_789);
+        Widget widget = new Widget(id, -10, 10, null, 10, 1, lastUpdated);
+
+        repository.save(widget);
+        widget.setX(999);
+        repository.findById(id).get().setY(999);
+
+        assertThat(repository.findById(id).get())
+                .isEqualToComparingFieldByField(new Widget(id, -10, 10, null, 10, 1, lastUpdated));
+    }
+
+    @Test
+    void save_whenZCollides_thenShiftsWidgetsAbove() {
+        fillWidgets(5, repository);
+        Widget top = repository.findFirstByOrderByZDesc().get();
+
+        Widget saved = repository.save(new Widget(UUID.randomUUID(), 10, 10, 10, 10, 2, LocalDateTime.now()));
+
+        assertThat(saved.getZ()).isEqualTo(2);
+        assertThat(repository.findById(top.getId()).get().getZ()).isEqualTo(5);
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(0, 10)).getContent())
+                .extracting(Widget::getZ).containsExactly(0, 1, 2, 3, 4, 5);
+    }
+
+    @Test
+    void findByOrderByZAsc_whenCalledHaving2000Widgets_thenPagesAcrossBlocks() {
+        fillWidgets(2_000, repository);
+        Page<Widget> widgets = repository.findByOrderByZAsc(PageRequest.of(5, 100));
+
+        assertThat(widgets.getTotalElements()).isEqualTo(2_000);
+        assertThat(widgets.getContent()).hasSize(100);
+        assertThat(widgets.getContent().get(0).getZ()).isEqualTo(500);
+        assertThat(widgets.getContent().get(99).getZ()).isEqualTo(599);
+    }
+
+    @Test
+    void findAfterZ_whenCalledWithZ_ReturnsWidgetsAboveIt() {
+        fillWidgets(10, repository);
+
+        assertThat(repository.findAfterZ(7, 3)).extracting(Widget::getZ).containsExactly(8, 9);
+        assertThat(repository.findAfterZ(null, 2)).extracting(Widget::getZ).containsExactly(0, 1);
+    }
+
+    @Test
+    void deleteById_whenFound_thenDeletesWidgetAndReusesItsSlot() {
+        fillWidgets(3, repository);
+        Widget widget = repository.findFirstByZ(1).get();
+
+        repository.deleteById(widget.getId());
+        Widget saved = repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 7, LocalDateTime.now()));
+
+        assertThat(repository.findById(widget.getId())).isEqualTo(Optional.empty());
+        assertThat(repository.findFirstByZ(1)).isEqualTo(Optional.empty());
+        assertThat(repository.findById(saved.getId()).get().getZ()).isEqualTo(7);
+    }
+
+    @Test
+    void deleteById_whenNotFound_throwsWidgetNotFoundException() {
+        assertThatExceptionOfType(WidgetNotFoundException.class)
+                .isThrownBy(() -> repository.deleteById(UUID.randomUUID()));
+    }
+
+    @Test
+    void update_whenFoundAndZCollides_thenUpdatesWidgetAndMovesTheRest() {
+        fillWidgets(6, repository);
+        UUID id = repository.findFirstByZ(4).get().getId();
+
+        WidgetPatchRequest wpr = new WidgetPatchRequest();
+        wpr.setZ(1);
+        wpr.setX(111);
+        Widget updated = repository.update(id, wpr);
+
+        assertThat(updated.getZ()).isEqualTo(1);
+        assertThat(repository.findById(id).get().getX()).isEqualTo(111);
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(0, 10)).getContent())
+                .extracting(Widget::getZ).containsExactly(0, 1, 2, 3, 4, 6);
+    }
+
+    @Test
+    void updateAll_whenAWidgetIsMissing_thenChangesNothing() {
+        fillWidgets(3, repository);
+        WidgetBatchPatchRequest known = new WidgetBatchPatchRequest();
+        known.setId(repository.findFirstByZ(0).get().getId());
+        known.setZ(2);
+        WidgetBatchPatchRequest unknown = new WidgetBatchPatchRequest();
+        unknown.setId(UUID.randomUUID());
+
+        assertThatExceptionOfType(WidgetNotFoundException.class)
+                .isThrownBy(() -> repository.updateAll(List.of(known, unknown)));
+        assertThat(repository.findById(known.getId()).get().getZ()).isZero();
+    }
+
+    @Test
+    void findInRegion_whenWidgetMovedAway_thenNoLongerReturnsIt() {
+        Widget widget = repository.save(new Widget(UUID.randomUUID(), 0, 0, 10, 10, 1, LocalDateTime.now()));
+        repository.save(new Widget(UUID.randomUUID(), 5, 5, 10, 10, 1, LocalDateTime.now()));
+        WidgetPatchRequest wpr = new WidgetPatchRequest();
+        wpr.setX(1000);
+
+        repository.update(widget.getId(), wpr);
+
+        assertThat(repository.findInRegion(new Region(0, 0, 20, 20), PageRequest.of(0, 10)))
+                .extracting(Widget::getZ).containsExactly(1);
+        assertThat(repository.findTopmostAt(List.of(new Point(1005, 5), new Point(500, 500))))
+                .extracting(found -> found == null ? null : found.getId())
+                .containsExactly(widget.getId(), null);
+    }
+
+    @ParameterizedTest
+    @EnumSource(CollisionPolicy.class)
+    void writes_whenRandom_thenMatchTheMemoryRepository(CollisionPolicy collisionPolicy) {
+        RepositoryProperties properties = new RepositoryProperties();
+        properties.setCollisionPolicy(collisionPolicy);
+        WidgetRepositoryColumnar columnar = new WidgetRepositoryColumnar(properties, new SimpleMeterRegistry());
+        WidgetRepositoryInMemory memory = new WidgetRepositoryInMemory(properties, new SimpleMeterRegistry());
+        Random random = new Random(16);
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 3_000; i++) {
+            int operation = random.nextInt(10);
+            if (operation < 6 || ids.isEmpty()) {
+                Widget widget = new Widget(UUID.randomUUID(), random.nextInt(1000), random.nextInt(1000),
+                        1 + random.nextInt(50), 1 + random.nextInt(50), random.nextInt(2_000), LocalDateTime.now());
+                columnar.save(widget);
+                memory.save(widget);
+                ids.add(widget.getId());
+            } else if (operation < 8) {
+                WidgetPatchRequest patchRequest = new WidgetPatchRequest();
+                patchRequest.setZ(random.nextInt(2_000));
+                UUID id = ids.get(random.nextInt(ids.size()));
+                assertThat(columnar.update(id, patchRequest).getZ()).isEqualTo(memory.update(id, patchRequest).getZ());
+            } else {
+                UUID id = ids.remove(random.nextInt(ids.size()));
+                columnar.deleteById(id);
+                memory.deleteById(id);
+            }
+        }
+
+        PageRequest all = PageRequest.of(0, 10_000);
+        assertThat(columnar.findByOrderByZAsc(all).getContent()).extracting(Widget::getId, Widget::getZ)
+                .containsExactlyElementsOf(memory.findByOrderByZAsc(all).getContent().stream()
+                        .map(widget -> tuple(widget.getId(), widget.getZ()))
+                        .collect(Collectors.toList()));
+        Region region = new Region(200, 200, 400, 400);
+        assertThat(columnar.findInRegion(region, all).getContent()).extracting(Widget::getId)
+                .containsExactlyElementsOf(memory.findInRegion(region, all).getContent().stream()
+                        .map(Widget::getId).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,141 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetPatchRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static com.yergun.widgetservice.TestUtils.widget;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.tuple;
+
+// the repositories write in their own transactions, on their own threads
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class WidgetRepositoryHybridTest {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final RepositoryProperties properties = new RepositoryProperties();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<WidgetRepositoryHybrid> repositories = new ArrayList<>();
+
+    @BeforeEach
+    void init() {
+        // flushed by the tests or on close only
+        properties.setWriteBehindInterval(Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        repositories.forEach(WidgetRepositoryHybrid::destroy);
+        jdbcTemplate.update("delete from widget");
+    }
+
+    @Test
+    void destroy_whenWritesWereNotFlushed_thenTheNextRepositoryLoadsThem() {
+        WidgetRepositoryHybrid repository = repository();
+        Widget bottom = repository.save(widget(0));
+        Widget moved = repository.save(widget(1));
+        Widget deleted = repository.save(widget(2));
+        repository.save(widget(1));
+        WidgetPatchRequest patchRequest = new WidgetPatchRequest();
+        patchRequest.setX(7);
+        repository.update(bottom.getId(), patchRequest);
+        repository.deleteById(deleted.getId());
+        List<Widget> before = repository.findByOrderByZAsc(PageRequest.of(0, 10)).getContent();
+
+        repository.destroy();
+        List<Widget> after = repository().findByOrderByZAsc(PageRequest.of(0, 10)).getContent();
+
+        assertThat(after).extracting(Widget::getId, Widget::getZ, Widget::getX, Widget::getLastUpdated)
+                .containsExactlyElementsOf(before.stream()
+                        .map(widget -> tuple(widget.getId(), widget.getZ(),
+                                widget.getX(), widget.getLastUpdated()))
+                        .collect(Collectors.toList()));
+        assertThat(after).extracting(Widget::getId).doesNotContain(deleted.getId()).contains(moved.getId());
+        assertThat(after.get(0).getX()).isEqualTo(7);
+    }
+
+    @Test
+    void flush_whenWidgetsWereShifted_thenTheDatabaseHoldsTheirNewZ() {
+        WidgetRepositoryHybrid repository = repository();
+        Widget first = repository.save(widget(1));
+        Widget second = repository.save(widget(2));
+        repository.save(widget(1));
+
+        repository.flush();
+
+        assertThat(z(first.getId())).isEqualTo(2);
+        assertThat(z(second.getId())).isEqualTo(3);
+        assertThat(rows()).isEqualTo(3);
+        assertThat(meterRegistry.get("widgets.write-behind.pending").gauge().value()).isZero();
+    }
+
+    @Test
+    void save_whenTooManyWidgetsArePending_thenFlushesBeforeWriting() {
+        properties.setWriteBehindMaxPending(2);
+        WidgetRepositoryHybrid repository = repository();
+
+        repository.save(widget(0));
+        repository.save(widget(1));
+        assertThat(rows()).isZero();
+        repository.save(widget(2));
+
+        assertThat(rows()).isEqualTo(2);
+    }
+
+    @Test
+    void flush_whenTheDatabaseFails_thenTheNextFlushWritesTheWidgets() {
+        WidgetRepositoryHybrid repository = repository();
+        Widget widget = repository.save(widget(0));
+        jdbcTemplate.execute("alter table widget rename to widget_away");
+
+        try {
+            assertThatExceptionOfType(DataAccessException.class).isThrownBy(repository::flush);
+        } finally {
+            jdbcTemplate.execute("alter table widget_away rename to widget");
+        }
+        repository.flush();
+
+        assertThat(z(widget.getId())).isZero();
+        assertThat(meterRegistry.get("widgets.write-behind.failures").counter().count()).isEqualTo(1);
+    }
+
+    private WidgetRepositoryHybrid repository() {
+        WidgetRepositoryHybrid repository =
+                new WidgetRepositoryHybrid(properties, meterRegistry, jdbcTemplate, transactionManager);
+        repositories.add(repository);
+        return repository;
+    }
+
+    private int rows() {
+        return jdbcTemplate.queryForObject("select count(*) from widget", Integer.class);
+    }
+
+    private int z(UUID id) {
+        return jdbcTemplate.queryForObject("select z from widget where id = ?", Integer.class, id);
+    }
+}
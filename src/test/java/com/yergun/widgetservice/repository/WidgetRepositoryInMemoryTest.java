@@ -1,16 +1,31 @@
 package com.yergun.widgetservice.repository;
 
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.exception.ExportInterruptedException;
 import com.yergun.widgetservice.exception.WidgetNotFoundException;
+import com.yergun.widgetservice.model.Point;
+import com.yergun.widgetservice.model.Region;
 import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetBatchPatchRequest;
 import com.yergun.widgetservice.model.WidgetPatchRequest;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static com.yergun.widgetservice.TestUtils.fillWidgets;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -18,11 +33,41 @@ import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
 class WidgetRepositoryInMemoryTest {
 
-    WidgetRepositoryInMemory repository = new WidgetRepositoryInMemory();
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    WidgetRepositoryInMemory repository = new WidgetRepositoryInMemory(new RepositoryProperties(), meterRegistry);
 
     @BeforeEach
     void init() {
         repository.getStorage().clear();
+        repository.getIdIndex().clear();
+    }
+
+    @Test
+    void streamByOrderByZAsc_whenMoreThanAChunk_thenReturnsEveryWidgetOnceInZOrder() {
+        fillWidgets(1001, repository);
+
+        try (Stream<Widget> widgets = repository.streamByOrderByZAsc()) {
+            assertThat(widgets.map(Widget::getZ))
+                    .containsExactlyElementsOf(IntStream.range(0, 1001).boxed().collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void streamByOrderByZAsc_whenAWriteMovesWidgetsBetweenChunks_thenFailsInsteadOfRepeatingOne() {
+        fillWidgets(1001, repository);
+
+        try (Stream<Widget> widgets = repository.streamByOrderByZAsc()) {
+            Iterator<Widget> iterator = widgets.iterator();
+            iterator.next();
+            // on top, nothing moves
+            repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 5000, LocalDateTime.now()));
+            for (int i = 1; i < ZOrderChunks.CHUNK_SIZE; i++) {
+                iterator.next();
+            }
+            repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 0, LocalDateTime.now()));
+
+            assertThatExceptionOfType(ExportInterruptedException.class).isThrownBy(iterator::next);
+        }
     }
 
     @Test
@@ -34,11 +79,165 @@ class WidgetRepositoryInMemoryTest {
                 .build();
 
         repository.save(widget);
-        Widget saved = repository.getStorage().iterator().next();
+        Widget saved = repository.getStorage().page(0, 1).get(0);
 
         assertThat(saved).isEqualToComparingFieldByField(widget);
     }
 
+    @Test
+    void save_whenShiftUntilGapPolicy_thenShiftsOnlyTheRunAboveCollision() {
+        RepositoryProperties properties = new RepositoryProperties();
+        properties.setCollisionPolicy(CollisionPolicy.SHIFT_UNTIL_GAP);
+        repository = new WidgetRepositoryInMemory(properties, meterRegistry);
+        for (int z : new int[]{0, 1, 2, 5, 6}) {
+            repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, z, LocalDateTime.now()));
+        }
+        Widget aboveGap = repository.findFirstByZ(5).get();
+
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 1, LocalDateTime.now()));
+
+        assertThat(repository.getStorage().page(0, 10)).extracting(Widget::getZ).containsExactly(0, 1, 2, 3, 5, 6);
+        assertThat(aboveGap.getZ()).isEqualTo(5);
+    }
+
+    @Test
+    void save_whenSingleWriterUnderConcurrentWrites_thenKeepsZUniqueAndRethrows() throws Exception {
+        RepositoryProperties properties = new RepositoryProperties();
+        properties.setSingleWriter(true);
+        repository = new WidgetRepositoryInMemory(properties, meterRegistry);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            writers.add(executor.submit(() -> {
+                for (int j = 0; j < 200; j++) {
+                    repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1,
+                            ThreadLocalRandom.current().nextInt(100), LocalDateTime.now()));
+                }
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(0, 2_000)).getContent())
+                .hasSize(1_600).extracting(Widget::getZ).doesNotHaveDuplicates().isSorted();
+        assertThatExceptionOfType(WidgetNotFoundException.class)
+                .isThrownBy(() -> repository.deleteById(UUID.randomUUID()));
+        repository.destroy();
+    }
+
+    @Test
+    void save_whenCalled_thenRecordsShiftedWidgets() {
+        fillWidgets(5, repository);
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 3, LocalDateTime.now()));
+
+        DistributionSummary shifted = meterRegistry.get("widgets.shifted").tag("policy", "shift_all").summary();
+        assertThat(shifted.count()).isEqualTo(6);
+        assertThat(shifted.totalAmount()).isEqualTo(2);
+    }
+
+    @Test
+    void saveAll_whenZsCollide_thenShiftsStoredWidgetsOnceAndIndexesTheBatch() {
+        fillWidgets(5, repository);
+        Widget top = repository.findFirstByOrderByZDesc().get();
+        List<Widget> batch = List.of(
+                new Widget(UUID.randomUUID(), 1, 1, 1, 1, 1, LocalDateTime.now()),
+                new Widget(UUID.randomUUID(), 1, 1, 1, 1, 3, LocalDateTime.now()));
+
+        List<Widget> saved = repository.saveAll(batch);
+
+        assertThat(saved).extracting(Widget::getZ).containsExactly(1, 4);
+        assertThat(top.getZ()).isEqualTo(4);
+        assertThat(repository.findById(top.getId()).get().getZ()).isEqualTo(6);
+        assertThat(repository.findById(batch.get(1).getId()).get().getZ()).isEqualTo(4);
+        assertThat(repository.getStorage().page(0, 10)).extracting(Widget::getZ).containsExactly(0, 1, 2, 3, 4, 5, 6);
+    }
+
+    @Test
+    void updateAll_whenZsSwapped_thenPlacesBothWithoutShifting() {
+        fillWidgets(4, repository);
+        Widget first = repository.findFirstByZ(1).get();
+        Widget second = repository.findFirstByZ(2).get();
+
+        List<Widget> updated = repository.updateAll(List.of(
+                batchPatch(first.getId(), 2, 111), batchPatch(second.getId(), 1, null)));
+
+        assertThat(updated).extracting(Widget::getZ).containsExactly(2, 1);
+        assertThat(repository.findFirstByZ(2).get().getX()).isEqualTo(111);
+        assertThat(repository.getStorage().page(0, 10)).extracting(Widget::getZ).containsExactly(0, 1, 2, 3);
+    }
+
+    @Test
+    void updateAll_whenAWidgetIsMissing_thenThrowsAndChangesNothing() {
+        fillWidgets(3, repository);
+        Widget widget = repository.findFirstByZ(0).get();
+
+        assertThatExceptionOfType(WidgetNotFoundException.class)
+                .isThrownBy(() -> repository.updateAll(List.of(
+                        batchPatch(widget.getId(), 2, null), batchPatch(UUID.randomUUID(), 1, null))));
+        assertThat(repository.getStorage().page(0, 10)).extracting(Widget::getZ).containsExactly(0, 1, 2);
+        assertThat(widget.getZ()).isZero();
+    }
+
+    @Test
+    void findSliceByOrderByZAsc_whenLastPage_thenHasNoNext() {
+        fillWidgets(15, repository);
+
+        Slice<Widget> first = repository.findSliceByOrderByZAsc(PageRequest.of(0, 10));
+        Slice<Widget> last = repository.findSliceByOrderByZAsc(PageRequest.of(1, 10));
+
+        assertThat(first.hasNext()).isTrue();
+        assertThat(last.getContent()).extracting(Widget::getZ).containsExactly(10, 11, 12, 13, 14);
+        assertThat(last.hasNext()).isFalse();
+        assertThat(repository.approximateCount()).isEqualTo(15);
+    }
+
+    @Test
+    void findInRegion_whenWidgetsIntersect_thenReturnsThemInZOrder() {
+        Widget top = repository.save(new Widget(UUID.randomUUID(), 50, 50, 100, 100, 9, LocalDateTime.now()));
+        Widget bottom = repository.save(new Widget(UUID.randomUUID(), 0, 0, 100, 100, 1, LocalDateTime.now()));
+        repository.save(new Widget(UUID.randomUUID(), 500, 500, 10, 10, 5, LocalDateTime.now()));
+
+        Page<Widget> widgets = repository.findInRegion(new Region(90, 90, 200, 200), PageRequest.of(0, 10));
+
+        assertThat(widgets.getContent()).containsExactly(bottom, top);
+        assertThat(widgets.getTotalElements()).isEqualTo(2);
+    }
+
+    @Test
+    void findInRegion_whenWidgetMovedAway_thenNoLongerReturnsIt() {
+        Widget widget = repository.save(new Widget(UUID.randomUUID(), 0, 0, 10, 10, 1, LocalDateTime.now()));
+        WidgetPatchRequest wpr = new WidgetPatchRequest();
+        wpr.setX(1000);
+
+        repository.update(widget.getId(), wpr);
+
+        assertThat(repository.findInRegion(new Region(0, 0, 20, 20), PageRequest.of(0, 10))).isEmpty();
+        assertThat(repository.findInRegion(new Region(1000, 0, 1000, 0), PageRequest.of(0, 10))).containsExactly(widget);
+    }
+
+    @Test
+    void findTopmostAt_whenWidgetsOverlap_thenReturnsTheOneWithHighestZPerPoint() {
+        repository.save(new Widget(UUID.randomUUID(), 0, 0, 100, 100, 1, LocalDateTime.now()));
+        Widget top = repository.save(new Widget(UUID.randomUUID(), 50, 50, 100, 100, 9, LocalDateTime.now()));
+        Widget bottom = repository.save(new Widget(UUID.randomUUID(), 0, 0, 10, 10, 0, LocalDateTime.now()));
+
+        List<Widget> widgets = repository.findTopmostAt(List.of(new Point(60, 60), new Point(500, 500), new Point(150, 150)));
+
+        assertThat(widgets).containsExactly(top, null, top);
+    }
+
+    @Test
+    void findInRegion_whenWidgetReachesPastTheIntRange_thenReturnsIt() {
+        Widget widget = repository.save(new Widget(UUID.randomUUID(), Integer.MAX_VALUE - 5, 0, 10, 10, 1,
+                LocalDateTime.now()));
+
+        assertThat(repository.findInRegion(new Region(Integer.MAX_VALUE, 0, Integer.MAX_VALUE, 0),
+                PageRequest.of(0, 10))).containsExactly(widget);
+        assertThat(repository.findTopmostAt(List.of(new Point(Integer.MAX_VALUE, 5)))).containsExactly(widget);
+    }
+
     @Test
     void findFirstByOrderByZDesc_whenStorageEmpty_thenReturnsEmptyOptional() {
         assertThat(repository.findFirstByOrderByZDesc()).isEqualTo(Optional.empty());
@@ -81,6 +280,15 @@ class WidgetRepositoryInMemoryTest {
         assertThat(widgets.getTotalPages()).isEqualTo(2);
     }
 
+    @Test
+    void findByOrderByZAsc_whenDeepPageRequested_thenReturnsWidgetsByRank() {
+        fillWidgets(1000, repository);
+        Page<Widget> widgets = repository.findByOrderByZAsc(PageRequest.of(99, 10));
+
+        assertThat(widgets.getContent()).extracting(Widget::getZ).containsExactly(990, 991, 992, 993, 994, 995, 996, 997, 998, 999);
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(100, 10)).getContent()).isEmpty();
+    }
+
     @Test
     void findByZGreaterThanEqualOrderByZAsc_whenCalled_ReturnsWidgetsWithHigherZ() {
         Widget w = Widget.builder()
@@ -100,17 +308,63 @@ class WidgetRepositoryInMemoryTest {
         assertThat(repository.findFirstByZ(zIndex).get().getZ()).isEqualTo(zIndex);
     }
 
+    @Test
+    void findFirstByZ_whenNoWidgetWithZ_ReturnsEmptyOptional() {
+        fillWidgets(3, repository);
+
+        assertThat(repository.findFirstByZ(7)).isEqualTo(Optional.empty());
+    }
+
+    @Test
+    void save_whenZCollides_thenShiftsWidgetsInPlace() {
+        fillWidgets(3, repository);
+        Widget w = new Widget(UUID.randomUUID(), 10, 10, 10,
+                10, 1, LocalDateTime.now());
+
+        repository.save(w);
+
+        assertThat(repository.getStorage().page(0, 10)).extracting(Widget::getZ).containsExactly(0, 1, 2, 3);
+        assertThat(repository.findFirstByZ(1)).isEqualTo(Optional.of(w));
+        assertThat(repository.findFirstByZ(3).get().getZ()).isEqualTo(3);
+    }
+
     @Test
     void findById_whenCalledById_ReturnsWidget() {
         UUID id = UUID.randomUUID();
         Widget w = new Widget(id, 10, 10, 10,
                 10, 10, LocalDateTime.now());
 
-        repository.getStorage().add(w);
+        repository.save(w);
 
         assertThat(repository.findById(id)).isEqualTo(Optional.of(w));
     }
 
+    @Test
+    void findById_whenWidgetShiftedByCollision_ReturnsWidgetWithShiftedZ() {
+        UUID id = UUID.randomUUID();
+        Widget w = new Widget(id, 10, 10, 10,
+                10, 1, LocalDateTime.now());
+        repository.save(w);
+
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 1, LocalDateTime.now()));
+
+        assertThat(repository.findById(id).get().getZ()).isEqualTo(2);
+    }
+
+    @Test
+    void findAfterZ_whenCalledWithoutZ_ReturnsWidgetsFromTheBottom() {
+        fillWidgets(10, repository);
+
+        assertThat(repository.findAfterZ(null, 3)).extracting(Widget::getZ).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    void findAfterZ_whenCalledWithZ_ReturnsWidgetsAboveIt() {
+        fillWidgets(10, repository);
+
+        assertThat(repository.findAfterZ(7, 3)).extracting(Widget::getZ).containsExactly(8, 9);
+    }
+
     @Test
     void findById_whenNotFound_ReturnsEmptyOptional() {
         assertThat(repository.findById(UUID.randomUUID())).isEqualTo(Optional.empty());
@@ -122,10 +376,11 @@ class WidgetRepositoryInMemoryTest {
         Widget w = new Widget(id, 10, 10, 10,
                 10, 10, LocalDateTime.now());
 
-        repository.getStorage().add(w);
+        repository.save(w);
 
         repository.deleteById(id);
         assertThat(repository.getStorage().size()).isEqualTo(0);
+        assertThat(repository.findById(id)).isEqualTo(Optional.empty());
     }
 
     @Test
@@ -134,7 +389,7 @@ class WidgetRepositoryInMemoryTest {
         Widget w = new Widget(id, 10, 10, 10,
                 10, 10, LocalDateTime.now());
 
-        repository.getStorage().add(w);
+        repository.save(w);
 
         assertThatExceptionOfType(WidgetNotFoundException.class)
                 .isThrownBy(() -> repository.update(UUID.randomUUID(), new WidgetPatchRequest()));
@@ -147,7 +402,7 @@ class WidgetRepositoryInMemoryTest {
         Widget w = new Widget(id, 10, 10, 10,
                 10, 10, LocalDateTime.now());
 
-        repository.getStorage().add(w);
+        repository.save(w);
 
         repository.delete(w);
         assertThat(repository.getStorage().size()).isEqualTo(0);
@@ -159,7 +414,7 @@ class WidgetRepositoryInMemoryTest {
         Widget w = new Widget(id, 10, 10, 10,
                 10, 10, LocalDateTime.now());
 
-        repository.getStorage().add(w);
+        repository.save(w);
 
         repository.delete(w);
         assertThat(repository.getStorage().size()).isEqualTo(0);
@@ -173,17 +428,17 @@ class WidgetRepositoryInMemoryTest {
 
     @Test
     void update_whenFoundAndZCollides_thenUpdatesWidgetAndMoveTheRest() {
-        repository.getStorage().add(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 0, LocalDateTime.now()));
-        repository.getStorage().add(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 1, LocalDateTime.now()));
-        repository.getStorage().add(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 2, LocalDateTime.now()));
-        repository.getStorage().add(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 3, LocalDateTime.now()));
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 0, LocalDateTime.now()));
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 1, LocalDateTime.now()));
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 2, LocalDateTime.now()));
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 3, LocalDateTime.now()));
 
         UUID id = UUID.randomUUID();
         Widget w = new Widget(id, 10, 10, 10,
                 10, 4, LocalDateTime.now());
-        repository.getStorage().add(w);
+        repository.save(w);
 
-        repository.getStorage().add(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 5, LocalDateTime.now()));
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 5, LocalDateTime.now()));
 
 
         WidgetPatchRequest wpr = new WidgetPatchRequest();
@@ -194,13 +449,30 @@ class WidgetRepositoryInMemoryTest {
         assertThat(repository.getStorage().last().getZ()).isEqualTo(6);
     }
 
+    @Test
+    void update_whenZIsUnchanged_thenKeepsItsPlaceAndMovesItsBounds() {
+        fillWidgets(3, repository);
+        Widget widget = repository.findFirstByZ(1).get();
+
+        WidgetPatchRequest wpr = new WidgetPatchRequest();
+        wpr.setZ(1);
+        wpr.setX(500);
+        repository.update(widget.getId(), wpr);
+
+        assertThat(repository.getStorage().page(0, 3)).extracting(Widget::getZ).containsExactly(0, 1, 2);
+        assertThat(repository.findTopmostAt(List.of(new Point(505, 15)))).extracting(Widget::getId)
+                .containsExactly(widget.getId());
+        assertThat(repository.findInRegion(new Region(0, 0, 20, 20), PageRequest.of(0, 10)))
+                .extracting(Widget::getZ).containsExactly(0, 2);
+    }
+
     @Test
     void update_whenFound_thenUpdatesWidgetWithNonNulls() {
         UUID id = UUID.randomUUID();
         Widget w = new Widget(id, 10, 10, 10,
                 10, 10, LocalDateTime.now());
 
-        repository.getStorage().add(w);
+        repository.save(w);
 
         WidgetPatchRequest wpr = new WidgetPatchRequest();
         wpr.setX(111);
@@ -215,4 +487,12 @@ class WidgetRepositoryInMemoryTest {
     }
 
 
-}
\ No newline at end of file
+
+    private static WidgetBatchPatchRequest batchPatch(UUID id, Integer z, Integer x) {
+        WidgetBatchPatchRequest patchRequest = new WidgetBatchPatchRequest();
+        patchRequest.setId(id);
+        patchRequest.setZ(z);
+        patchRequest.setX(x);
+        return patchRequest;
+    }
+}
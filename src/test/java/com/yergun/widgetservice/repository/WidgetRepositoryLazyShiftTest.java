@@ -0,0 +1,253 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.exception.WidgetNotFoundException;
+import com.yergun.widgetservice.model.Point;
+import com.yergun.widgetservice.model.Region;
+import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetBatchPatchRequest;
+import com.yergun.widgetservice.model.WidgetPatchRequest;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static com.yergun.widgetservice.TestUtils.fillWidgets;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class WidgetRepositoryLazyShiftTest {
+
+    WidgetRepositoryLazyShift repository = new WidgetRepositoryLazyShift(new RepositoryProperties(),
+            new SimpleMeterRegistry());
+
+    @Test
+    void constructor_whenCollisionPolicyIsShiftUntilGap_thenRefusesToStart() {
+        RepositoryProperties properties = new RepositoryProperties();
+        properties.setCollisionPolicy(CollisionPolicy.SHIFT_UNTIL_GAP);
+
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(() -> new WidgetRepositoryLazyShift(properties, new SimpleMeterRegistry()));
+    }
+
+    @Test
+    void save_whenCalled_thenStoresACopy() {
+        UUID id = UUID.randomUUID();
+        Widget widget = new Widget(id, 10, 10, 10,
+                10, 1, LocalDateTime.now());
+
+        repository.save(widget);
+        widget.setX(999);
+
+        assertThat(repository.findById(id).get().getX()).isEqualTo(10);
+    }
+
+    @Test
+    void save_whenZCollides_thenShiftsWidgetsAboveAndTheirLastUpdated() {
+        fillWidgets(5, repository);
+        Widget top = repository.findFirstByOrderByZDesc().get();
+        Widget widget = new Widget(UUID.randomUUID(), 10, 10, 10,
+                10, 2, LocalDateTime.now().plusDays(1));
+
+        repository.save(widget);
+
+        Widget shiftedTop = repository.findById(top.getId()).get();
+        assertThat(shiftedTop.getZ()).isEqualTo(5);
+        assertThat(shiftedTop.getLastUpdated()).isAfter(top.getLastUpdated());
+        assertThat(repository.findFirstByZ(2).get().getId()).isEqualTo(widget.getId());
+        assertThat(repository.findFirstByZ(1).get().getZ()).isEqualTo(1);
+    }
+
+    @Test
+    void saveAll_whenZsCollide_thenShiftsStoredWidgetsAndReturnsCopies() {
+        fillWidgets(5, repository);
+        UUID topId = repository.findFirstByOrderByZDesc().get().getId();
+        List<Widget> batch = List.of(
+                new Widget(UUID.randomUUID(), 1, 1, 1, 1, 1, LocalDateTime.now()),
+                new Widget(UUID.randomUUID(), 1, 1, 1, 1, 3, LocalDateTime.now()),
+                new Widget(UUID.randomUUID(), 1, 1, 1, 1, 3, LocalDateTime.now()));
+
+        List<Widget> saved = repository.saveAll(batch);
+
+        assertThat(saved).extracting(Widget::getZ).containsExactly(1, 5, 4);
+        assertThat(batch.get(1).getZ()).isEqualTo(3);
+        assertThat(repository.findById(topId).get().getZ()).isEqualTo(7);
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(0, 10)).getContent())
+                .extracting(Widget::getZ).containsExactly(0, 1, 2, 3, 4, 5, 6, 7);
+    }
+
+    @Test
+    void save_whenZCollides_thenRecordsTheWidgetsShifted() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        WidgetRepositoryLazyShift repository = new WidgetRepositoryLazyShift(new RepositoryProperties(), meterRegistry);
+        fillWidgets(5, repository);
+
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 2, LocalDateTime.now()));
+        repository.saveAll(List.of(
+                new Widget(UUID.randomUUID(), 1, 1, 1, 1, 1, LocalDateTime.now()),
+                new Widget(UUID.randomUUID(), 1, 1, 1, 1, 4, LocalDateTime.now())));
+
+        DistributionSummary shifted = meterRegistry.get("widgets.shifted").tag("policy", "shift_all").summary();
+        assertThat(shifted.count()).isEqualTo(7);
+        assertThat(shifted.totalAmount()).isEqualTo(3 + 5);
+        assertThat(shifted.max()).isEqualTo(5);
+    }
+
+    @Test
+    void updateAll_whenMovedOntoTakenZs_thenShiftsTheRestOnce() {
+        fillWidgets(5, repository);
+        UUID top = repository.findFirstByZ(4).get().getId();
+        UUID third = repository.findFirstByZ(3).get().getId();
+        WidgetBatchPatchRequest moveTop = new WidgetBatchPatchRequest();
+        moveTop.setId(top);
+        moveTop.setZ(1);
+        WidgetBatchPatchRequest moveThird = new WidgetBatchPatchRequest();
+        moveThird.setId(third);
+        moveThird.setZ(1);
+
+        List<Widget> updated = repository.updateAll(List.of(moveTop, moveThird));
+
+        assertThat(updated).extracting(Widget::getZ).containsExactly(2, 1);
+        assertThat(repository.findById(top).get().getZ()).isEqualTo(2);
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(0, 10)).getContent())
+                .extracting(Widget::getZ).containsExactly(0, 1, 2, 3, 4);
+    }
+
+    @Test
+    void findInRegion_whenWidgetsIntersect_thenReturnsThemInZOrderAfterShifts() {
+        UUID lower = repository.save(new Widget(UUID.randomUUID(), 0, 0, 100, 100, 1, LocalDateTime.now())).getId();
+        UUID upper = repository.save(new Widget(UUID.randomUUID(), 50, 50, 100, 100, 2, LocalDateTime.now())).getId();
+        repository.save(new Widget(UUID.randomUUID(), 500, 500, 10, 10, 1, LocalDateTime.now()));
+
+        Page<Widget> widgets = repository.findInRegion(new Region(90, 90, 200, 200), PageRequest.of(0, 10));
+
+        assertThat(widgets.getContent()).extracting(Widget::getId).containsExactly(lower, upper);
+        assertThat(widgets.getContent()).extracting(Widget::getZ).containsExactly(2, 3);
+    }
+
+    @Test
+    void findTopmostAt_whenOverlappingWidgetIsShiftedAbove_thenReturnsIt() {
+        UUID lower = repository.save(new Widget(UUID.randomUUID(), 0, 0, 100, 100, 1, LocalDateTime.now())).getId();
+        UUID upper = repository.save(new Widget(UUID.randomUUID(), 50, 50, 100, 100, 1, LocalDateTime.now())).getId();
+
+        assertThat(repository.findTopmostAt(List.of(new Point(60, 60), new Point(10, 10))))
+                .extracting(Widget::getId).containsExactly(lower, lower);
+        assertThat(repository.findById(upper).get().getZ()).isEqualTo(1);
+    }
+
+    @Test
+    void findFirstByOrderByZDesc_whenStorageEmpty_thenReturnsEmptyOptional() {
+        assertThat(repository.findFirstByOrderByZDesc()).isEqualTo(Optional.empty());
+    }
+
+    @Test
+    void findByOrderByZAsc_whenCalledWithDefaultHaving20Widgets_thenReturns10WidgetsWith2Page() {
+        fillWidgets(20, repository);
+        Page<Widget> widgets = repository.findByOrderByZAsc(PageRequest.of(1, 10));
+
+        assertThat(widgets.getTotalElements()).isEqualTo(20);
+        assertThat(widgets.getContent().size()).isEqualTo(10);
+        assertThat(widgets.getContent().get(0).getZ()).isEqualTo(10);
+        assertThat(widgets.getTotalPages()).isEqualTo(2);
+    }
+
+    @Test
+    void findByZGreaterThanEqualOrderByZAsc_whenCalled_ReturnsWidgetsWithHigherZ() {
+        Widget w = Widget.builder()
+                .z(5)
+                .build();
+
+        fillWidgets(10, repository);
+
+        assertThat(repository.findByZGreaterThanEqualOrderByZAsc(w).size()).isEqualTo(5);
+    }
+
+    @Test
+    void findAfterZ_whenCalledWithoutZ_ReturnsWidgetsFromTheBottom() {
+        fillWidgets(10, repository);
+
+        assertThat(repository.findAfterZ(null, 3)).extracting(Widget::getZ).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    void findAfterZ_whenCalledWithZ_ReturnsWidgetsAboveIt() {
+        fillWidgets(10, repository);
+
+        assertThat(repository.findAfterZ(7, 3)).extracting(Widget::getZ).containsExactly(8, 9);
+    }
+
+    @Test
+    void findById_whenNotFound_ReturnsEmptyOptional() {
+        assertThat(repository.findById(UUID.randomUUID())).isEqualTo(Optional.empty());
+    }
+
+    @Test
+    void deleteById_whenFound_thenDeletesWidget() {
+        fillWidgets(3, repository);
+        Widget widget = repository.findFirstByZ(1).get();
+
+        repository.deleteById(widget.getId());
+
+        assertThat(repository.findById(widget.getId())).isEqualTo(Optional.empty());
+        assertThat(repository.findFirstByZ(1)).isEqualTo(Optional.empty());
+        assertThat(repository.getStorage().size()).isEqualTo(2);
+    }
+
+    @Test
+    void deleteById_whenNotFound_throwsWidgetNotFoundException() {
+        assertThatExceptionOfType(WidgetNotFoundException.class)
+                .isThrownBy(() -> repository.deleteById(UUID.randomUUID()));
+    }
+
+    @Test
+    void delete_whenFound_thenDeletesWidget() {
+        fillWidgets(3, repository);
+
+        repository.delete(repository.findFirstByZ(0).get());
+
+        assertThat(repository.getStorage().size()).isEqualTo(2);
+    }
+
+    @Test
+    void update_whenNotFound_ThrowsWidgetNotFoundException() {
+        assertThatExceptionOfType(WidgetNotFoundException.class)
+                .isThrownBy(() -> repository.update(UUID.randomUUID(), new WidgetPatchRequest()));
+    }
+
+    @Test
+    void update_whenFoundAndZCollides_thenUpdatesWidgetAndMoveTheRest() {
+        fillWidgets(6, repository);
+        UUID id = repository.findFirstByZ(4).get().getId();
+
+        WidgetPatchRequest wpr = new WidgetPatchRequest();
+        wpr.setZ(1);
+        Widget updatedWidget = repository.update(id, wpr);
+
+        assertThat(updatedWidget.getZ()).isEqualTo(1);
+        assertThat(repository.findFirstByOrderByZDesc().get().getZ()).isEqualTo(6);
+        assertThat(repository.findById(id).get().getZ()).isEqualTo(1);
+    }
+
+    @Test
+    void update_whenFound_thenUpdatesWidgetWithNonNulls() {
+        UUID id = UUID.randomUUID();
+        Widget w = new Widget(id, 10, 10, 10,
+                10, 10, LocalDateTime.now());
+        repository.save(w);
+
+        WidgetPatchRequest wpr = new WidgetPatchRequest();
+        wpr.setX(111);
+        Widget updatedWidget = repository.update(id, wpr);
+
+        assertThat(updatedWidget.getX()).isEqualTo(111);
+        assertThat(updatedWidget.getY()).isEqualTo(w.getY());
+        assertThat(updatedWidget.getZ()).isEqualTo(w.getZ());
+        assertThat(updatedWidget.getLastUpdated()).isAfterOrEqualTo(w.getLastUpdated());
+    }
+}
@@ -0,0 +1,174 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Point;
+import com.yergun.widgetservice.model.Region;
+import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetBatchPatchRequest;
+import com.yergun.widgetservice.model.WidgetPatchRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.yergun.widgetservice.TestUtils.fillWidgets;
+import static com.yergun.widgetservice.TestUtils.widget;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Explains every statement the database repository sends, as Hibernate generated it, and fails on any that scans
+ * the whole table. H2 names the index it walks in the plan, or `tableScan` when there is none.
+ */
+@DataJpaTest(properties = {
+        "application.repository.type=db",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+                + "com.yergun.widgetservice.repository.WidgetRepositoryQueryPlanTest$Statements"
+})
+@Import(SimpleMeterRegistry.class)
+class WidgetRepositoryQueryPlanTest {
+
+    /**
+     * every statement prepared since the last clear
+     */
+    public static class Statements implements StatementInspector {
+
+        private static final Set<String> SENT = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public String inspect(String sql) {
+            SENT.add(sql);
+            return sql;
+        }
+    }
+
+    @Autowired
+    private WidgetRepository repository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void init() {
+        fillWidgets(20, repository);
+        entityManager.flush();
+        entityManager.clear();
+        Statements.SENT.clear();
+    }
+
+    @Test
+    void findByOrderByZAsc_whenExplained_thenWalksTheZIndex() {
+        repository.findByOrderByZAsc(PageRequest.of(1, 5));
+
+        assertIndexed();
+    }
+
+    @Test
+    void findSliceByOrderByZAsc_whenExplained_thenWalksTheZIndex() {
+        repository.findSliceByOrderByZAsc(PageRequest.of(1, 5));
+        repository.approximateCount();
+
+        assertIndexed();
+    }
+
+    @Test
+    void findFirstByOrderByZDesc_whenExplained_thenLooksUpTheTopInTheZIndex() {
+        repository.findFirstByOrderByZDesc();
+
+        assertIndexed();
+    }
+
+    @Test
+    void findFirstByZ_whenExplained_thenLooksUpTheZIndex() {
+        repository.findFirstByZ(3);
+        repository.findByZGreaterThanEqualOrderByZAsc(Widget.builder().z(10).build());
+
+        assertIndexed();
+    }
+
+    @Test
+    void findAfterZ_whenExplained_thenWalksTheZIndex() {
+        repository.findAfterZ(null, 5);
+        repository.findAfterZ(4, 5);
+        try (Stream<Widget> widgets = repository.streamByOrderByZAsc()) {
+            widgets.forEach(widget -> { });
+        }
+
+        assertIndexed();
+    }
+
+    @Test
+    void save_whenZCollides_thenShiftsThroughTheZIndex() {
+        repository.save(widget(3));
+        repository.saveAll(List.of(widget(5), widget(5), widget(40)));
+        entityManager.flush();
+
+        assertIndexed();
+    }
+
+    @Test
+    void updateAll_whenExplained_thenFindsWidgetsByIdAndZByIndex() {
+        Widget widget = repository.findFirstByZ(2).get();
+        WidgetPatchRequest patchRequest = new WidgetPatchRequest();
+        patchRequest.setZ(8);
+        repository.update(widget.getId(), patchRequest);
+        WidgetBatchPatchRequest batchPatchRequest = new WidgetBatchPatchRequest();
+        batchPatchRequest.setId(widget.getId());
+        batchPatchRequest.setZ(1);
+        repository.updateAll(List.of(batchPatchRequest));
+        entityManager.flush();
+
+        assertIndexed();
+    }
+
+    @Test
+    void deleteById_whenExplained_thenFindsTheWidgetByPrimaryKey() {
+        Widget widget = repository.findFirstByZ(2).get();
+        entityManager.clear();
+
+        repository.findById(widget.getId());
+        repository.deleteById(widget.getId());
+        entityManager.flush();
+
+        assertIndexed();
+    }
+
+    @Test
+    void findInRegion_whenExplained_thenRangesOverTheXIndex() {
+        repository.findInRegion(new Region(0, 0, 5, 5), PageRequest.of(0, 5));
+        repository.findSliceInRegion(new Region(0, 0, 5, 5), PageRequest.of(0, 5));
+        repository.findTopmostAt(List.of(new Point(1, 1), new Point(3, 3)));
+
+        assertIndexed();
+    }
+
+    /**
+     * inserts have no plan to check, a direct lookup is answered from an index without reading any row
+     */
+    private void assertIndexed() {
+        List<String> statements = Statements.SENT.stream()
+                .filter(sql -> !sql.startsWith("insert"))
+                .collect(Collectors.toList());
+        assertThat(statements).isNotEmpty();
+        for (String sql : statements) {
+            String plan = jdbcTemplate.queryForObject("explain " + sql, String.class);
+            // min and max are read off the end of the index, H2 still names the table scan it does not run
+            if (!plan.contains("direct lookup")) {
+                assertThat(plan).as(sql).doesNotContain("tableScan");
+            }
+        }
+    }
+}
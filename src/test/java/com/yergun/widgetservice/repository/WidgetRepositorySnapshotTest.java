@@ -0,0 +1,209 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.exception.WidgetNotFoundException;
+import com.yergun.widgetservice.model.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.yergun.widgetservice.TestUtils.fillWidgets;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class WidgetRepositorySnapshotTest {
+
+    WidgetRepositorySnapshot repository = new WidgetRepositorySnapshot(new RepositoryProperties(), new SimpleMeterRegistry());
+
+    @Test
+    void save_whenCalled_thenStoresACopy() {
+        UUID id = UUID.randomUUID();
+        Widget widget = new Widget(id, 10, 10, 10, 10, 1, LocalDateTime.now());
+
+        repository.save(widget);
+        widget.setX(999);
+        repository.findById(id).get().setY(999);
+
+        assertThat(repository.findById(id).get().getX()).isEqualTo(10);
+        assertThat(repository.findById(id).get().getY()).isEqualTo(10);
+    }
+
+    @Test
+    void save_whenZCollides_thenShiftsWidgetsAboveInANewVersion() {
+        fillWidgets(5, repository);
+        Widget top = repository.findFirstByOrderByZDesc().get();
+
+        Widget saved = repository.save(new Widget(UUID.randomUUID(), 10, 10, 10, 10, 2, LocalDateTime.now()));
+
+        assertThat(saved.getZ()).isEqualTo(2);
+        assertThat(repository.findById(top.getId()).get().getZ()).isEqualTo(5);
+        assertThat(top.getZ()).isEqualTo(4);
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(0, 10)).getContent())
+                .extracting(Widget::getZ).containsExactly(0, 1, 2, 3, 4, 5);
+    }
+
+    @Test
+    void save_whenManyWidgetsGoBetweenTheSameTwo_thenKeepsThemAllInOrder() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        WidgetRepositorySnapshot repository = new WidgetRepositorySnapshot(new RepositoryProperties(), meterRegistry);
+        List<UUID> expected = new ArrayList<>();
+        Random random = new Random(42);
+        long shifted = 0;
+
+        for (int i = 0; i < 1_000; i++) {
+            // z 1 again and again halves the same gap between labels until it has to be relabeled
+            int z = expected.isEmpty() ? 0 : random.nextInt(4) == 0 ? random.nextInt(expected.size() + 1) : 1;
+            Widget saved = repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, z, LocalDateTime.now()));
+            shifted += expected.size() - Math.min(z, expected.size());
+            expected.add(Math.min(z, expected.size()), saved.getId());
+        }
+
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(0, 1_000)).getContent())
+                .extracting(Widget::getId).containsExactlyElementsOf(expected);
+        for (int z = 0; z < expected.size(); z += 97) {
+            assertThat(repository.findById(expected.get(z)).get().getZ()).isEqualTo(z);
+            assertThat(repository.findFirstByZ(z).get().getId()).isEqualTo(expected.get(z));
+        }
+        assertThat(meterRegistry.get("widgets.shifted").summary().totalAmount()).isEqualTo(shifted);
+    }
+
+    @Test
+    void findByOrderByZAsc_whenCalledHaving20Widgets_thenReturns10WidgetsWith2Page() {
+        fillWidgets(20, repository);
+        Page<Widget> widgets = repository.findByOrderByZAsc(PageRequest.of(1, 10));
+
+        assertThat(widgets.getTotalElements()).isEqualTo(20);
+        assertThat(widgets.getContent().get(0).getZ()).isEqualTo(10);
+    }
+
+    @Test
+    void findAfterZ_whenCalledWithZ_ReturnsWidgetsAboveIt() {
+        fillWidgets(10, repository);
+
+        assertThat(repository.findAfterZ(7, 3)).extracting(Widget::getZ).containsExactly(8, 9);
+        assertThat(repository.findAfterZ(null, 2)).extracting(Widget::getZ).containsExactly(0, 1);
+    }
+
+    @Test
+    void streamByOrderByZAsc_whenWrittenWhileConsumed_thenReturnsTheVersionItWasOpenedOn() {
+        fillWidgets(1200, repository);
+
+        List<Integer> zs;
+        try (Stream<Widget> widgets = repository.streamByOrderByZAsc()) {
+            repository.save(new Widget(UUID.randomUUID(), 10, 10, 10, 10, 0, LocalDateTime.now()));
+            zs = widgets.map(Widget::getZ).collect(Collectors.toList());
+        }
+
+        assertThat(zs).isEqualTo(IntStream.range(0, 1200).boxed().collect(Collectors.toList()));
+    }
+
+    @Test
+    void deleteById_whenFound_thenDeletesWidget() {
+        fillWidgets(3, repository);
+        Widget widget = repository.findFirstByZ(1).get();
+
+        repository.deleteById(widget.getId());
+
+        assertThat(repository.findById(widget.getId())).isEqualTo(Optional.empty());
+        assertThat(repository.findFirstByZ(1)).isEqualTo(Optional.empty());
+    }
+
+    @Test
+    void deleteById_whenNotFound_throwsWidgetNotFoundException() {
+        assertThatExceptionOfType(WidgetNotFoundException.class)
+                .isThrownBy(() -> repository.deleteById(UUID.randomUUID()));
+    }
+
+    @Test
+    void update_whenFoundAndZCollides_thenUpdatesWidgetAndMovesTheRest() {
+        fillWidgets(6, repository);
+        UUID id = repository.findFirstByZ(4).get().getId();
+
+        WidgetPatchRequest wpr = new WidgetPatchRequest();
+        wpr.setZ(1);
+        wpr.setX(111);
+        Widget updated = repository.update(id, wpr);
+
+        assertThat(updated.getZ()).isEqualTo(1);
+        assertThat(repository.findById(id).get().getX()).isEqualTo(111);
+        assertThat(repository.findFirstByOrderByZDesc().get().getZ()).isEqualTo(6);
+        assertThat(repository.findByOrderByZAsc(PageRequest.of(0, 10)).getContent())
+                .extracting(Widget::getZ).containsExactly(0, 1, 2, 3, 4, 6);
+    }
+
+    @Test
+    void updateAll_whenAWidgetIsMissing_thenChangesNothing() {
+        fillWidgets(3, repository);
+        WidgetBatchPatchRequest known = new WidgetBatchPatchRequest();
+        known.setId(repository.findFirstByZ(0).get().getId());
+        known.setZ(2);
+        WidgetBatchPatchRequest unknown = new WidgetBatchPatchRequest();
+        unknown.setId(UUID.randomUUID());
+
+        assertThatExceptionOfType(WidgetNotFoundException.class)
+                .isThrownBy(() -> repository.updateAll(List.of(known, unknown)));
+        assertThat(repository.findById(known.getId()).get().getZ()).isZero();
+    }
+
+    @Test
+    void findInRegion_whenWidgetMovedAway_thenNoLongerReturnsIt() {
+        Widget widget = repository.save(new Widget(UUID.randomUUID(), 0, 0, 10, 10, 1, LocalDateTime.now()));
+        repository.save(new Widget(UUID.randomUUID(), 5, 5, 10, 10, 1, LocalDateTime.now()));
+        WidgetPatchRequest wpr = new WidgetPatchRequest();
+        wpr.setX(1000);
+
+        repository.update(widget.getId(), wpr);
+
+        assertThat(repository.findInRegion(new Region(0, 0, 20, 20), PageRequest.of(0, 10)))
+                .extracting(Widget::getZ).containsExactly(1);
+        assertThat(repository.findTopmostAt(List.of(new Point(1005, 5)))).extracting(Widget::getId)
+                .containsExactly(widget.getId());
+    }
+
+    @Test
+    void findByOrderByZAsc_whenWrittenConcurrently_thenEveryPageMatchesItsTotal() throws Exception {
+        fillWidgets(100, repository);
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        Future<?> writer = executor.submit(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (running.get()) {
+                Widget widget = repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, random.nextInt(150),
+                        LocalDateTime.now()));
+                if (random.nextBoolean()) {
+                    repository.deleteById(widget.getId());
+                }
+            }
+        });
+        List<Future<?>> readers = List.of(executor.submit(this::readPages), executor.submit(this::readPages));
+
+        for (Future<?> reader : readers) {
+            reader.get(30, TimeUnit.SECONDS);
+        }
+        running.set(false);
+        writer.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+    }
+
+    private void readPages() {
+        for (int i = 0; i < 2_000; i++) {
+            Page<Widget> page = repository.findByOrderByZAsc(PageRequest.of(2, 50));
+            long expected = Math.max(0, Math.min(50, page.getTotalElements() - 100));
+            assertThat(page.getContent()).hasSize((int) expected);
+            assertThat(page.getContent()).extracting(Widget::getZ).isSorted().doesNotHaveDuplicates();
+        }
+    }
+}
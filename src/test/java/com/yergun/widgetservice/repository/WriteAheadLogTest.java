@@ -0,0 +1,175 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.config.RepositoryProperties;
+import com.yergun.widgetservice.exception.RepositoryClosedException;
+import com.yergun.widgetservice.model.Region;
+import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetBatchPatchRequest;
+import com.yergun.widgetservice.model.WidgetPatchRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.PageRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.yergun.widgetservice.TestUtils.fillWidgets;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void open_whenReopened_thenRecoversEveryWriteWithItsTimestamps() {
+        WidgetRepositoryInMemory repository = repository(WalSync.EVERY_WRITE, Long.MAX_VALUE);
+        fillWidgets(10, repository);
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, null, 5, 3, LocalDateTime.now()));
+        repository.saveAll(List.of(
+                new Widget(UUID.randomUUID(), 2, 2, 2, 2, 0, LocalDateTime.now()),
+                new Widget(UUID.randomUUID(), 3, 3, 3, 3, 5, LocalDateTime.now())));
+        List<Widget> widgets = all(repository);
+        WidgetPatchRequest patchRequest = new WidgetPatchRequest();
+        patchRequest.setZ(1);
+        patchRequest.setX(99);
+        repository.update(widgets.get(8).getId(), patchRequest);
+        WidgetBatchPatchRequest batchPatchRequest = new WidgetBatchPatchRequest();
+        batchPatchRequest.setId(widgets.get(2).getId());
+        batchPatchRequest.setZ(7);
+        repository.updateAll(List.of(batchPatchRequest));
+        repository.deleteById(widgets.get(4).getId());
+        List<Widget> expected = all(repository);
+        repository.destroy();
+
+        WidgetRepositoryInMemory recovered = repository(WalSync.EVERY_WRITE, Long.MAX_VALUE);
+
+        assertThat(all(recovered)).usingFieldByFieldElementComparator().containsExactlyElementsOf(expected);
+        assertThat(recovered.findInRegion(new Region(99, 0, 99, 100), PageRequest.of(0, 10)).getContent())
+                .extracting(Widget::getX).containsExactly(99);
+    }
+
+    @Test
+    void commit_whenLogOutgrowsThreshold_thenSnapshotsAndKeepsOneGeneration() throws IOException {
+        WidgetRepositoryInMemory repository = repository(WalSync.NONE, 1_000);
+        fillWidgets(100, repository);
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 50, LocalDateTime.now()));
+        List<Widget> expected = all(repository);
+        repository.destroy();
+
+        assertThat(files()).hasSize(2).anyMatch(name -> name.startsWith("snapshot-"))
+                .anyMatch(name -> name.startsWith("wal-"));
+        assertThat(all(repository(WalSync.NONE, 1_000)))
+                .usingFieldByFieldElementComparator().containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void commit_whenSnapshotFails_thenKeepsAppendingAndSnapshotsLater() throws IOException {
+        // the snapshot cannot be written where a directory takes its temporary file
+        Path blocker = Files.createDirectory(directory.resolve("snapshot-1.bin.tmp"));
+        WidgetRepositoryInMemory repository = repository(WalSync.NONE, 1_000);
+        fillWidgets(100, repository);
+
+        assertThat(files()).containsExactlyInAnyOrder("wal-0.log", "snapshot-1.bin.tmp");
+        Files.delete(blocker);
+        fillWidgets(100, repository);
+        List<Widget> expected = all(repository);
+        repository.destroy();
+
+        assertThat(files()).noneMatch(name -> name.endsWith("-0.log"))
+                .anyMatch(name -> name.startsWith("snapshot-"));
+        assertThat(all(repository(WalSync.NONE, 1_000)))
+                .hasSize(200).usingFieldByFieldElementComparator().containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void open_whenLastEntryIsTorn_thenDropsItAndKeepsAppending() throws IOException {
+        WidgetRepositoryInMemory repository = repository(WalSync.EVERY_WRITE, Long.MAX_VALUE);
+        fillWidgets(5, repository);
+        repository.destroy();
+        Path log = directory.resolve("wal-0.log");
+        // length of an entry that never made it to disk completely
+        Files.write(log, new byte[]{0, 0, 0, 60, 1, 2, 3, 4, 1, 7}, StandardOpenOption.APPEND);
+
+        repository = repository(WalSync.EVERY_WRITE, Long.MAX_VALUE);
+        assertThat(all(repository)).extracting(Widget::getZ).containsExactly(0, 1, 2, 3, 4);
+        repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1, 0, LocalDateTime.now()));
+        repository.destroy();
+
+        assertThat(all(repository(WalSync.EVERY_WRITE, Long.MAX_VALUE)))
+                .extracting(Widget::getZ).containsExactly(0, 1, 2, 3, 4, 5);
+    }
+
+    @Test
+    void commit_whenItFails_thenRejectsEveryLaterWriteAndRecoversTheCommittedState() {
+        WidgetRepositoryInMemory repository = repository(WalSync.EVERY_WRITE, Long.MAX_VALUE);
+        fillWidgets(3, repository);
+        List<Widget> committed = all(repository);
+        // the channel is closed under the log, as if the disk had gone away
+        repository.getWal().close();
+
+        assertThatExceptionOfType(UncheckedIOException.class).isThrownBy(() -> repository.save(
+                new Widget(UUID.randomUUID(), 1, 1, 1, 1, 0, LocalDateTime.now())));
+        assertThatExceptionOfType(RepositoryClosedException.class).isThrownBy(() -> repository.save(
+                new Widget(UUID.randomUUID(), 1, 1, 1, 1, 9, LocalDateTime.now())));
+        assertThatExceptionOfType(RepositoryClosedException.class)
+                .isThrownBy(() -> repository.deleteById(committed.get(0).getId()));
+
+        assertThat(all(repository(WalSync.EVERY_WRITE, Long.MAX_VALUE)))
+                .usingFieldByFieldElementComparator().containsExactlyElementsOf(committed);
+    }
+
+    @Test
+    void sync_whenGroupCommitUnderConcurrentWrites_thenRecoversAllOfThem() throws Exception {
+        WidgetRepositoryInMemory repository = repository(WalSync.GROUP, 16 * 1024);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            writers.add(executor.submit(() -> {
+                for (int j = 0; j < 100; j++) {
+                    repository.save(new Widget(UUID.randomUUID(), 1, 1, 1, 1,
+                            ThreadLocalRandom.current().nextInt(50), LocalDateTime.now()));
+                }
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        List<Widget> expected = all(repository);
+        repository.destroy();
+
+        assertThat(all(repository(WalSync.GROUP, 16 * 1024)))
+                .hasSize(800).usingFieldByFieldElementComparator().containsExactlyElementsOf(expected);
+    }
+
+    private WidgetRepositoryInMemory repository(WalSync walSync, long snapshotBytes) {
+        RepositoryProperties properties = new RepositoryProperties();
+        properties.setWalDirectory(directory.toString());
+        properties.setWalSync(walSync);
+        properties.setWalSnapshotBytes(snapshotBytes);
+        return new WidgetRepositoryInMemory(properties, new SimpleMeterRegistry());
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString()).collect(Collectors.toList());
+        }
+    }
+
+    private static List<Widget> all(WidgetRepository repository) {
+        return repository.findByOrderByZAsc(PageRequest.of(0, 10_000)).getContent();
+    }
+}
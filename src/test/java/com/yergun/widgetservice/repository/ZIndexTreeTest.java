@@ -0,0 +1,165 @@
+package com.yergun.widgetservice.repository;
+
+import com.yergun.widgetservice.model.Widget;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ZIndexTreeTest {
+
+    ZIndexTree tree = new ZIndexTree(ZIndexTree.View.COPY);
+
+    @Test
+    void shiftFrom_whenCalled_thenIncrementsZOfWidgetsAboveOnly() {
+        fill(5);
+        LocalDateTime shiftedAt = LocalDateTime.now().plusDays(1);
+
+        tree.shiftFrom(2, shiftedAt);
+
+        assertThat(zs(tree.page(0, 10))).containsExactly(0, 1, 3, 4, 5);
+        assertThat(tree.get(1).getLastUpdated()).isBefore(shiftedAt);
+        assertThat(tree.get(5).getLastUpdated()).isEqualTo(shiftedAt);
+    }
+
+    @Test
+    void appendAll_whenWidgetsInZOrder_thenBuildsTreeUsableLikeInsertedOne() {
+        tree.insert(widget(UUID.randomUUID(), 0));
+        List<Widget> widgets = new ArrayList<>();
+        for (int z = 1; z <= 1_000; z++) {
+            widgets.add(widget(UUID.randomUUID(), z * 2));
+        }
+
+        tree.appendAll(widgets);
+        tree.insert(widget(UUID.randomUUID(), 5));
+        tree.shiftFrom(1_000, LocalDateTime.now());
+
+        assertThat(tree.size()).isEqualTo(1_002);
+        assertThat(zs(tree.page(0, 4))).containsExactly(0, 2, 4, 5);
+        assertThat(tree.get(1_001).getZ()).isEqualTo(1_001);
+        assertThat(tree.last().getZ()).isEqualTo(2_001);
+        assertThat(zs(tree.page(0, 2_000))).isSorted().doesNotHaveDuplicates();
+    }
+
+    @Test
+    void page_whenSharedView_thenReturnsStoredInstances() {
+        ZIndexTree shared = new ZIndexTree(ZIndexTree.View.SHARED);
+        Widget widget = widget(UUID.randomUUID(), 3);
+        shared.insert(widget);
+
+        assertThat(shared.page(0, 1).get(0)).isSameAs(widget);
+        assertThat(shared.get(3)).isSameAs(widget);
+    }
+
+    @Test
+    void widgetOf_whenShiftIsPending_thenReturnsEffectiveZ() {
+        List<ZIndexTree.Node> nodes = fill(100);
+
+        tree.shiftFrom(50, LocalDateTime.now());
+        tree.shiftFrom(0, LocalDateTime.now());
+
+        assertThat(tree.widgetOf(nodes.get(10)).getZ()).isEqualTo(11);
+        assertThat(tree.widgetOf(nodes.get(60)).getZ()).isEqualTo(62);
+    }
+
+    @Test
+    void page_whenOffsetInTheMiddle_thenReturnsWidgetsByRank() {
+        fill(100);
+
+        assertThat(zs(tree.page(95, 10))).containsExactly(95, 96, 97, 98, 99);
+        assertThat(zs(tree.page(40, 3))).containsExactly(40, 41, 42);
+        assertThat(tree.page(100, 3)).isEmpty();
+    }
+
+    @Test
+    void tail_whenCalled_thenReturnsWidgetsWithGreaterOrEqualZ() {
+        fill(10);
+
+        assertThat(zs(tree.tail(7))).containsExactly(7, 8, 9);
+    }
+
+    @Test
+    void from_whenExclusive_thenReturnsLimitedWidgetsAboveZ() {
+        fill(10);
+        tree.shiftFrom(5, LocalDateTime.now());
+
+        assertThat(zs(tree.from(4, false, 3))).containsExactly(6, 7, 8);
+        assertThat(zs(tree.from(4, true, 2))).containsExactly(4, 6);
+        assertThat(tree.from(10, false, 3)).isEmpty();
+    }
+
+    @Test
+    void run_whenGapAbove_thenStopsAtTheGap() {
+        fill(10);
+        tree.remove(6);
+        tree.shiftFrom(8, LocalDateTime.now());
+
+        assertThat(zs(tree.run(3))).containsExactly(3, 4, 5);
+        assertThat(zs(tree.run(7))).containsExactly(7);
+        assertThat(zs(tree.run(9))).containsExactly(9, 10);
+        assertThat(tree.run(6)).isEmpty();
+    }
+
+    @Test
+    void remove_whenFound_thenReturnsRemovedWidget() {
+        fill(10);
+
+        assertThat(tree.remove(4).getZ()).isEqualTo(4);
+        assertThat(tree.remove(4)).isNull();
+        assertThat(tree.size()).isEqualTo(9);
+        assertThat(tree.containsZ(4)).isFalse();
+    }
+
+    @Test
+    void randomOperations_whenComparedToEagerShifting_thenStayInSync() {
+        Random random = new Random(42);
+        TreeMap<Integer, UUID> expected = new TreeMap<>();
+        Map<UUID, ZIndexTree.Node> nodes = new HashMap<>();
+
+        for (int i = 0; i < 5_000; i++) {
+            int z = random.nextInt(300);
+            if (random.nextInt(4) == 0 && expected.containsKey(z)) {
+                nodes.remove(expected.remove(z));
+                tree.remove(z);
+                continue;
+            }
+            if (expected.containsKey(z)) {
+                NavigableMap<Integer, UUID> tail = expected.tailMap(z, true);
+                List<UUID> shifted = new ArrayList<>(tail.values());
+                List<Integer> keys = new ArrayList<>(tail.keySet());
+                tail.clear();
+                for (int j = 0; j < keys.size(); j++) {
+                    expected.put(keys.get(j) + 1, shifted.get(j));
+                }
+                tree.shiftFrom(z, LocalDateTime.now());
+            }
+            UUID id = UUID.randomUUID();
+            expected.put(z, id);
+            nodes.put(id, tree.insert(widget(id, z)));
+        }
+
+        assertThat(tree.size()).isEqualTo(expected.size());
+        assertThat(tree.page(0, expected.size()).stream().map(Widget::getId).collect(Collectors.toList()))
+                .containsExactlyElementsOf(expected.values());
+        expected.forEach((z, id) -> assertThat(tree.widgetOf(nodes.get(id)).getZ()).isEqualTo(z));
+    }
+
+    private List<ZIndexTree.Node> fill(int count) {
+        List<ZIndexTree.Node> nodes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            nodes.add(tree.insert(widget(UUID.randomUUID(), i)));
+        }
+        return nodes;
+    }
+
+    private static Widget widget(UUID id, int z) {
+        return new Widget(id, 1, 1, 1, 1, z, LocalDateTime.now());
+    }
+
+    private static List<Integer> zs(List<Widget> widgets) {
+        return widgets.stream().map(Widget::getZ).collect(Collectors.toList());
+    }
+}
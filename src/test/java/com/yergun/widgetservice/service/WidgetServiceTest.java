@@ -1,9 +1,15 @@
 package com.yergun.widgetservice.service;
 
+import com.yergun.widgetservice.exception.InvalidBatchException;
 import com.yergun.widgetservice.exception.WidgetNotFoundException;
+import com.yergun.widgetservice.model.Point;
 import com.yergun.widgetservice.model.Widget;
+import com.yergun.widgetservice.model.WidgetBatchPatchRequest;
+import com.yergun.widgetservice.model.WidgetCursorPage;
 import com.yergun.widgetservice.model.WidgetPatchRequest;
+import com.yergun.widgetservice.model.WidgetSlice;
 import com.yergun.widgetservice.repository.WidgetRepository;
+import com.yergun.widgetservice.util.CursorUtils;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
@@ -11,8 +17,11 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -20,6 +29,10 @@ import java.util.UUID;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -102,6 +115,39 @@ class WidgetServiceTest {
         assertThat(createdWidget.getZ()).isGreaterThan(foregroundWidget.getZ());
     }
 
+    @Test
+    void createAll_whenSomeWithoutZ_thenPutsThemOnTopInOrder() {
+        Widget foregroundWidget = Widget.builder().z(13).build();
+        Widget first = Widget.builder().build();
+        Widget withZ = Widget.builder().z(20).build();
+        Widget second = Widget.builder().build();
+
+        when(widgetRepository.findFirstByOrderByZDesc()).thenReturn(Optional.of(foregroundWidget));
+        when(widgetRepository.saveAll(any())).thenAnswer(invocationOnMock -> invocationOnMock.getArgument(0));
+
+        List<Widget> created = widgetService.createAll(List.of(first, withZ, second));
+
+        assertThat(created).extracting(Widget::getZ).containsExactly(21, 20, 22);
+        assertThat(created).allMatch(w -> w.getId() != null && w.getLastUpdated() != null);
+    }
+
+    @Test
+    void updateAll_whenAWidgetIsPatchedTwice_thenThrowsInvalidBatchException() {
+        WidgetBatchPatchRequest patchRequest = new WidgetBatchPatchRequest();
+        patchRequest.setId(UUID.randomUUID());
+
+        assertThatExceptionOfType(InvalidBatchException.class)
+                .isThrownBy(() -> widgetService.updateAll(List.of(patchRequest, patchRequest)));
+    }
+
+    @Test
+    void findTopmostAt_whenNoWidgetAtPoint_thenThrowsWidgetNotFoundException() {
+        when(widgetRepository.findTopmostAt(any())).thenReturn(Collections.singletonList(null));
+
+        assertThatExceptionOfType(WidgetNotFoundException.class)
+                .isThrownBy(() -> widgetService.findTopmostAt(new Point(1, 1)));
+    }
+
     @Test
     void findAll_whenCalled_ReturnsSomeWidgets() {
         Widget w1 = Widget.builder()
@@ -117,6 +163,56 @@ class WidgetServiceTest {
         assertThat(widgets.getTotalElements()).isEqualTo(2);
     }
 
+    @Test
+    void findSlice_whenApproximateTotalAsked_ReturnsTheEstimateOfTheRepository() {
+        Widget w1 = Widget.builder().z(13).build();
+        when(widgetRepository.findSliceByOrderByZAsc(any()))
+                .thenReturn(new SliceImpl<>(List.of(w1), PageRequest.of(3, 1), true));
+        when(widgetRepository.approximateCount()).thenReturn(1000L);
+
+        WidgetSlice slice = widgetService.findSlice(3, 1, true);
+
+        assertThat(slice.getContent()).containsExactly(w1);
+        assertThat(slice.isHasNext()).isTrue();
+        assertThat(slice.getPage()).isEqualTo(3);
+        assertThat(slice.getApproximateTotal()).isEqualTo(1000L);
+    }
+
+    @Test
+    void findSlice_whenNoTotalAsked_NeverCounts() {
+        when(widgetRepository.findSliceByOrderByZAsc(any()))
+                .thenReturn(new SliceImpl<>(List.of(), PageRequest.of(0, 10), false));
+
+        WidgetSlice slice = widgetService.findSlice(0, 10, false);
+
+        assertThat(slice.getApproximateTotal()).isNull();
+        verify(widgetRepository, never()).approximateCount();
+    }
+
+    @Test
+    void findAfter_whenMoreWidgetsThanLimit_ReturnsCursorOfLastWidget() {
+        Widget w1 = Widget.builder().z(3).build();
+        Widget w2 = Widget.builder().z(7).build();
+        Widget w3 = Widget.builder().z(8).build();
+        when(widgetRepository.findAfterZ(isNull(), eq(3))).thenReturn(List.of(w1, w2, w3));
+
+        WidgetCursorPage page = widgetService.findAfter(null, 2);
+
+        assertThat(page.getContent()).containsExactly(w1, w2);
+        assertThat(CursorUtils.decode(page.getNextCursor())).isEqualTo(7);
+    }
+
+    @Test
+    void findAfter_whenLastPage_ReturnsNoCursor() {
+        Widget w1 = Widget.builder().z(8).build();
+        when(widgetRepository.findAfterZ(eq(7), eq(3))).thenReturn(List.of(w1));
+
+        WidgetCursorPage page = widgetService.findAfter(CursorUtils.encode(7), 2);
+
+        assertThat(page.getContent()).containsExactly(w1);
+        assertThat(page.getNextCursor()).isNull();
+    }
+
     @Test
     void findById_whenFound_ReturnsWidget() {
         UUID id = UUID.randomUUID();
@@ -0,0 +1,24 @@
+package com.yergun.widgetservice.util;
+
+import com.yergun.widgetservice.exception.InvalidCursorException;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class CursorUtilsTest {
+
+    @Test
+    void decode_whenCalledWithEncodedCursor_thenReturnsZ() {
+        assertThat(CursorUtils.decode(CursorUtils.encode(-42))).isEqualTo(-42);
+        assertThat(CursorUtils.decode(CursorUtils.encode(Integer.MAX_VALUE))).isEqualTo(Integer.MAX_VALUE);
+    }
+
+    @Test
+    void decode_whenCalledWithGarbage_thenThrowsInvalidCursorException() {
+        assertThatExceptionOfType(InvalidCursorException.class)
+                .isThrownBy(() -> CursorUtils.decode("not a cursor"));
+        assertThatExceptionOfType(InvalidCursorException.class)
+                .isThrownBy(() -> CursorUtils.decode("eDox"));
+    }
+}